@@ -15,6 +15,8 @@
  */
 package com.blockwithme.hacktors;
 
+import java.nio.ByteBuffer;
+
 import javax.annotation.ParametersAreNonnullByDefault;
 
 /**
@@ -130,4 +132,20 @@ public abstract class AbstractMobileController implements MobileController {
     public void stop() {
         // NOP
     }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.hacktors.MobileController#write(java.nio.ByteBuffer)
+     */
+    @Override
+    public void write(final ByteBuffer buffer) {
+        // NOP
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.hacktors.MobileController#read(java.nio.ByteBuffer)
+     */
+    @Override
+    public void read(final ByteBuffer buffer) {
+        // NOP
+    }
 }
@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * The behavior of one MobileType, compiled into a flat decision table.
+ *
+ * A behavior is a priority selector: an ordered list of rules, each one
+ * made of the facts that must hold, the facts that must not hold, and an
+ * action. On every decision, the controller computes the facts once, as a
+ * bit mask, and then runs the action of the first rule that matches. If
+ * the action fails, the next matching rule is tried.
+ *
+ * Compiling drops the rules that can never match for the mobile type, for
+ * example the item rules of a type that neither eats nor wants anything,
+ * and records which facts are still needed, so that the controller does
+ * not look for what the behavior does not care about. Behaviors are
+ * immutable, and shared by all the mobiles of a type.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class Behavior {
+
+    /** Fact: the mobile was attacked, and is low on life. */
+    public static final int SCARED = 1;
+
+    /** Fact: the mobile sees something to run away from. */
+    public static final int ENEMY_SEEN = 1 << 1;
+
+    /** Fact: something to run away from is right next to the mobile. */
+    public static final int ENEMY_NEAR = 1 << 2;
+
+    /** Fact: the mobile sees something to attack. */
+    public static final int PREY_SEEN = 1 << 3;
+
+    /** Fact: something to attack is right next to the mobile. */
+    public static final int PREY_NEAR = 1 << 4;
+
+    /** Fact: the mobile is low on life. */
+    public static final int HUNGRY = 1 << 5;
+
+    /** Fact: the mobile carries something it can eat. */
+    public static final int HAS_FOOD = 1 << 6;
+
+    /** Fact: the mobile sees an item it eats or wants. */
+    public static final int ITEM_SEEN = 1 << 7;
+
+    /** Fact: an item it eats or wants lies where the mobile stands. */
+    public static final int ITEM_HERE = 1 << 8;
+
+    /** Fact: the mobile is far from home, out of sight of it. */
+    public static final int AWAY = 1 << 9;
+
+    /** Action: run away from the nearest enemy, or else backtrack. */
+    public static final int FLEE = 0;
+
+    /** Action: attack a prey next to the mobile. */
+    public static final int ATTACK_PREY = 1;
+
+    /** Action: attack an enemy next to the mobile. */
+    public static final int ATTACK_ENEMY = 2;
+
+    /** Action: eat all the food carried. */
+    public static final int EAT = 3;
+
+    /** Action: go toward the nearest prey. */
+    public static final int CHASE = 4;
+
+    /** Action: pick up the items where the mobile stands. */
+    public static final int PICKUP = 5;
+
+    /** Action: go toward the nearest item eaten or wanted. */
+    public static final int FETCH = 6;
+
+    /** Action: move around at random. Never fails. */
+    public static final int WANDER = 7;
+
+    /** Action: go back home, around the walls. */
+    public static final int GO_HOME = 8;
+
+    /** Number of actions. */
+    public static final int ACTIONS = 9;
+
+    /** The facts about what is seen. */
+    private static final int PERCEIVED = ENEMY_SEEN | ENEMY_NEAR | PREY_SEEN
+            | PREY_NEAR | ITEM_SEEN | ITEM_HERE;
+
+    /** One rule of a behavior, before compilation. */
+    public static final class Rule {
+        /** The facts that must hold. */
+        private final int required;
+
+        /** The facts that must not hold. */
+        private final int forbidden;
+
+        /** The action. */
+        private final int action;
+
+        /** Constructor */
+        public Rule(final int theRequired, final int theForbidden,
+                final int theAction) {
+            if ((theRequired & theForbidden) != 0) {
+                throw new IllegalArgumentException(
+                        "Facts both required and forbidden: "
+                                + (theRequired & theForbidden));
+            }
+            if ((theAction < 0) || (theAction >= ACTIONS)) {
+                throw new IllegalArgumentException("Unknown action: "
+                        + theAction);
+            }
+            required = theRequired;
+            forbidden = theForbidden;
+            action = theAction;
+        }
+
+        /** Constructor, for rules without forbidden facts. */
+        public Rule(final int theRequired, final int theAction) {
+            this(theRequired, 0, theAction);
+        }
+
+        /** The facts that must hold. */
+        public int getRequired() {
+            return required;
+        }
+
+        /** The facts that must not hold. */
+        public int getForbidden() {
+            return forbidden;
+        }
+
+        /** The action. */
+        public int getAction() {
+            return action;
+        }
+    }
+
+    /** The facts that must hold, per rule. */
+    private final int[] required;
+
+    /** The facts that must not hold, per rule. */
+    private final int[] forbidden;
+
+    /** The action, per rule. */
+    private final int[] actions;
+
+    /** The facts that some rule looks at. */
+    private final int used;
+
+    /**
+     * Compiles the rules for a mobile type. Rules that need facts that the
+     * type can never have are dropped. The last rule should always match,
+     * otherwise mobiles that match nothing just stand still.
+     */
+    public Behavior(final MobileType type, final Rule... rules) {
+        final int impossible = impossibleFacts(type);
+        final int[] newRequired = new int[rules.length];
+        final int[] newForbidden = new int[rules.length];
+        final int[] newActions = new int[rules.length];
+        int count = 0;
+        int newUsed = 0;
+        for (final Rule rule : rules) {
+            if ((rule.required & impossible) != 0) {
+                continue;
+            }
+            final int forbid = rule.forbidden & ~impossible;
+            newRequired[count] = rule.required;
+            newForbidden[count] = forbid;
+            newActions[count] = rule.action;
+            newUsed |= rule.required | forbid;
+            count++;
+        }
+        required = Arrays.copyOf(newRequired, count);
+        forbidden = Arrays.copyOf(newForbidden, count);
+        actions = Arrays.copyOf(newActions, count);
+        used = newUsed;
+    }
+
+    /** Returns the facts that a mobile of the given type never has. */
+    private static int impossibleFacts(final MobileType type) {
+        int result = 0;
+        if (type.getFood().length == 0) {
+            result |= HAS_FOOD;
+            // Only tool users want items for other reasons than food.
+            if (!type.isToolUser()) {
+                result |= ITEM_SEEN | ITEM_HERE;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the number of rules. */
+    public int size() {
+        return required.length;
+    }
+
+    /** Returns true, if some rule looks at any of the given facts. */
+    public boolean uses(final int facts) {
+        return (used & facts) != 0;
+    }
+
+    /** Returns true, if some rule looks at what is seen. */
+    public boolean usesPerception() {
+        return uses(PERCEIVED);
+    }
+
+    /**
+     * Returns the index of the first rule, at or after from, that matches
+     * the facts, or -1 if none does.
+     */
+    public int match(final int facts, final int from) {
+        for (int i = from; i < required.length; i++) {
+            final int req = required[i];
+            if (((facts & req) == req) && ((facts & forbidden[i]) == 0)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the action of the rule. */
+    public int getAction(final int rule) {
+        return actions[rule];
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Holds the compiled Behavior of each MobileType.
+ *
+ * All the built-in types use the DEFAULT rules; extension types get them
+ * too, unless other rules are registered for them.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class Behaviors {
+
+    /**
+     * The default rules, by priority: run away when scared, fight what is
+     * next to us, eat when hungry, hunt, collect items, go back home when
+     * far from it, and otherwise wander around.
+     */
+    public static final Behavior.Rule[] DEFAULT = {
+            new Behavior.Rule(Behavior.SCARED | Behavior.ENEMY_SEEN,
+                    Behavior.FLEE),
+            // Cornered; live a bit longer, and get lucky on next cycle?
+            new Behavior.Rule(Behavior.SCARED | Behavior.ENEMY_SEEN
+                    | Behavior.HAS_FOOD, Behavior.EAT),
+            new Behavior.Rule(Behavior.PREY_NEAR, Behavior.ATTACK_PREY),
+            new Behavior.Rule(Behavior.ENEMY_NEAR, Behavior.ATTACK_ENEMY),
+            new Behavior.Rule(Behavior.HUNGRY | Behavior.HAS_FOOD,
+                    Behavior.EAT),
+            new Behavior.Rule(Behavior.PREY_SEEN, Behavior.CHASE),
+            new Behavior.Rule(Behavior.ITEM_HERE, Behavior.PICKUP),
+            new Behavior.Rule(Behavior.ITEM_SEEN, Behavior.ITEM_HERE,
+                    Behavior.FETCH),
+            new Behavior.Rule(Behavior.AWAY, Behavior.GO_HOME),
+            new Behavior.Rule(0, Behavior.WANDER) };
+
+    /** The compiled behaviors, by MobileType ordinal. */
+    private static Behavior[] behaviors = new Behavior[0];
+
+    /** NO creation */
+    private Behaviors() {
+        // NOP
+    }
+
+    /**
+     * Returns the behavior of the mobile type. The DEFAULT rules are
+     * compiled for types that have nothing registered.
+     */
+    public static synchronized Behavior get(final MobileType type) {
+        Preconditions.checkNotNull(type);
+        final int ordinal = type.ordinal();
+        if (ordinal >= behaviors.length) {
+            behaviors = Arrays.copyOf(behaviors, MobileType.ALL_SET.length);
+        }
+        Behavior result = behaviors[ordinal];
+        if (result == null) {
+            result = new Behavior(type, DEFAULT);
+            behaviors[ordinal] = result;
+        }
+        return result;
+    }
+
+    /**
+     * Compiles and registers the rules of the mobile type. Only the
+     * controllers created afterward use the new behavior.
+     */
+    public static synchronized Behavior register(final MobileType type,
+            final Behavior.Rule... rules) {
+        Preconditions.checkNotNull(type);
+        final int ordinal = type.ordinal();
+        if (ordinal >= behaviors.length) {
+            behaviors = Arrays.copyOf(behaviors, MobileType.ALL_SET.length);
+        }
+        final Behavior result = new Behavior(type, rules);
+        behaviors[ordinal] = result;
+        return result;
+    }
+
+    static {
+        // Compiled once, at startup.
+        for (final MobileType type : MobileType.ALL_SET) {
+            get(type);
+        }
+    }
+}
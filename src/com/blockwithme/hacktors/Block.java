@@ -17,7 +17,11 @@ package com.blockwithme.hacktors;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import lombok.AccessLevel;
 import lombok.Data;
+import lombok.EqualsAndHashCode;
+import lombok.Setter;
+import lombok.ToString;
 
 /**
  * Represents a block.
@@ -25,18 +29,23 @@ import lombok.Data;
  * Blocks can be solid, or they can let mobiles pass through.
  * Some blocks have a functionality, like doors, and stairs, and chests.
  *
+ * Shared blocks, like the pristine block of each type, cannot be changed;
+ * mutable() returns a copy of them that can.
+ *
  * @author monster
  */
 @ParametersAreNonnullByDefault
 @Data
+@EqualsAndHashCode(exclude = "shared")
+@ToString(exclude = "shared")
 public class Block {
     /** The immutable empty block. */
-    public static final Block EMPTY = BlockType.Empty.postInit(new Block(
-            BlockType.Empty));
+    public static final Block EMPTY = BlockType.Empty.postInit(
+            new Block(BlockType.Empty)).share();
 
     /** The immutable bedrock block. */
-    public static final Block BEDROCK = BlockType.Bedrock.postInit(new Block(
-            BlockType.Bedrock));
+    public static final Block BEDROCK = BlockType.Bedrock.postInit(
+            new Block(BlockType.Bedrock)).share();
 
     /** The block type. */
     private final BlockType type;
@@ -47,6 +56,55 @@ public class Block {
     /** The optional content of this block, if it is a container, like a chest. */
     private Item[] content = Item.EMPTY;
 
+    /** Is this block shared, and so immutable? */
+    @Setter(AccessLevel.NONE)
+    private boolean shared;
+
+    /** Creates a block of that type. */
+    public Block(final BlockType theType) {
+        type = theType;
+    }
+
+    /** Makes this block shared, and so immutable. Returns this. */
+    Block share() {
+        shared = true;
+        return this;
+    }
+
+    /** Fails, if this block is shared. */
+    private void checkNotShared() {
+        if (shared) {
+            throw new IllegalStateException("Shared " + type
+                    + " block cannot be changed");
+        }
+    }
+
+    /** Sets the life energy/hit point of this block. */
+    public void setLife(final int theLife) {
+        checkNotShared();
+        life = theLife;
+    }
+
+    /** Sets the content of this block. */
+    public void setContent(final Item[] theContent) {
+        checkNotShared();
+        content = theContent;
+    }
+
+    /**
+     * Returns this block, if it can be changed, or else a copy of it that
+     * can.
+     */
+    public Block mutable() {
+        if (!shared) {
+            return this;
+        }
+        final Block result = new Block(type);
+        result.life = life;
+        result.content = content;
+        return result;
+    }
+
     /**
      * Optionally create a new block instance. If the type is null, it is
      * chosen at random.
@@ -72,17 +130,40 @@ public class Block {
         return bt.postInit(new Block(bt));
     }
 
+    /**
+     * Returns the shared block in the default state of it's type: full
+     * life, and no content. It is immutable, and created only once.
+     */
+    public static Block pristine(final BlockType type) {
+        if (type == BlockType.Empty) {
+            return EMPTY;
+        }
+        if (type == BlockType.Bedrock) {
+            return BEDROCK;
+        }
+        return type.pristine();
+    }
+
     /** Creates a block at random. */
     public static Block create() {
         return create(null);
     }
 
+    /**
+     * Returns true, if this block is in the default state of it's type, and
+     * so does not need to be stored individually.
+     */
+    public boolean isPristine() {
+        return (life == type.getLife()) && (content.length == 0);
+    }
+
     /**
      * This block has been damaged by the give amount.
      * Returns true if destroyed.
      * @param damage
      */
     public boolean damage(final int amount) {
+        checkNotShared();
         life -= amount;
         return (life <= 0);
     }
@@ -108,6 +108,9 @@ public class BlockType extends Enum40<BlockType> implements Displayable {
     /** The display character color. */
     private final transient Color color;
 
+    /** The shared block in the default state of this type; null until used. */
+    private transient volatile Block pristine;
+
     /**
      * Chooses one block type at random.
      * Note that Bedrock is excluded from the selection.
@@ -140,6 +143,11 @@ public class BlockType extends Enum40<BlockType> implements Displayable {
         return display;
     }
 
+    /** The life of a block of this type. 0 means indestructible. */
+    public int getLife() {
+        return life;
+    }
+
     /**
      * Are blocks of this type damageable?
      */
@@ -155,12 +163,31 @@ public class BlockType extends Enum40<BlockType> implements Displayable {
         return solid;
     }
 
+    /** Are blocks of this type containers, like chests? */
+    public boolean isContainer() {
+        return (this == BlockType.ClosedChest) || (this == BlockType.OpenChest);
+    }
+
+    /**
+     * Returns the shared block in the default state of this type. Use
+     * Block.pristine() instead.
+     */
+    Block pristine() {
+        Block result = pristine;
+        if (result == null) {
+            result = new Block(this);
+            result.setLife(life);
+            pristine = result.share();
+        }
+        return result;
+    }
+
     /** Finalizes the initialization of an block of this type. */
     public Block postInit(final Block block) {
         Preconditions.checkNotNull(block);
         Preconditions.checkArgument(block.getType() == this);
         block.setLife((life == -1) ? -1 : life);
-        if ((this == BlockType.ClosedChest) || (this == BlockType.OpenChest)) {
+        if (isContainer()) {
             final int count = Util.nextInt(2) + 1;
             Item[] content = block.getContent();
             for (int i = 0; i < count; i++) {
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Defines the possible Clock catch-up policies.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class CatchUpPolicies {
+    /** Cannot be instantiated. */
+    private CatchUpPolicies() {
+        // NOP
+    }
+
+    /**
+     * The most cycles BURST runs back-to-back. Beyond that, the missed
+     * cycles are skipped, so that a long pause does not freeze the game
+     * while it catches up.
+     */
+    public static final int MAX_BURST = 10;
+
+    /**
+     * The missed cycles are dropped. The next cycle runs at the next
+     * deadline of the original schedule, so the game keeps in step with
+     * the wall clock, but runs fewer cycles.
+     */
+    public static final CatchUpPolicy SKIP = new CatchUpPolicy() {
+        @Override
+        public long nextDeadline(final long deadline, final long now,
+                final long cycle) {
+            return deadline + ((now - deadline) / cycle + 1) * cycle;
+        }
+
+        @Override
+        public long droppedCycles(final long deadline, final long next,
+                final long cycle) {
+            return (next - deadline) / cycle;
+        }
+
+        @Override
+        public String toString() {
+            return "SKIP";
+        }
+    };
+
+    /**
+     * The missed cycles run back-to-back, until the game is back on the
+     * original schedule, up to MAX_BURST cycles late.
+     */
+    public static final CatchUpPolicy BURST = new CatchUpPolicy() {
+        @Override
+        public long nextDeadline(final long deadline, final long now,
+                final long cycle) {
+            final long oldest = now - MAX_BURST * cycle;
+            return (deadline < oldest) ? oldest : deadline;
+        }
+
+        @Override
+        public long droppedCycles(final long deadline, final long next,
+                final long cycle) {
+            // Only the cycles beyond MAX_BURST are skipped.
+            return (next - deadline) / cycle;
+        }
+
+        @Override
+        public String toString() {
+            return "BURST";
+        }
+    };
+
+    /**
+     * The next cycle runs right away, and the schedule starts anew from
+     * there. The game slows down, instead of dropping or rushing cycles.
+     */
+    public static final CatchUpPolicy SLOW_MOTION = new CatchUpPolicy() {
+        @Override
+        public long nextDeadline(final long deadline, final long now,
+                final long cycle) {
+            return now;
+        }
+
+        @Override
+        public long droppedCycles(final long deadline, final long next,
+                final long cycle) {
+            // Everything runs, only later.
+            return 0;
+        }
+
+        @Override
+        public String toString() {
+            return "SLOW_MOTION";
+        }
+    };
+}
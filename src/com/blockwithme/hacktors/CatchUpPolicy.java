@@ -0,0 +1,40 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Decides what the Clock does, in real-time mode, when an update cycle
+ * took longer than Clock.CYCLE, so that the next cycle is already late.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public interface CatchUpPolicy {
+    /**
+     * Returns the deadline of the next cycle, in System.nanoTime() time.
+     * The planned deadline is already in the past, since now is later.
+     */
+    long nextDeadline(final long deadline, final long now, final long cycle);
+
+    /**
+     * Returns the number of cycles that will never run, when the next
+     * deadline moves from deadline to next. Cycles that only run later do
+     * not count.
+     */
+    long droppedCycles(final long deadline, final long next, final long cycle);
+}
@@ -15,7 +15,10 @@
  */
 package com.blockwithme.hacktors;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
@@ -49,18 +52,99 @@ public class Chunk {
     /** The Chunk position */
     private final Position position = new Position();
 
-    /** All the chunk blocks. */
-    private final Block[] blocks = new Block[SIZE];
+    /** The block types used in this chunk. Entry 0 is always Empty. */
+    private BlockType[] palette = new BlockType[] { BlockType.Empty };
+
+    /** The palette index of the block type of every cell. */
+    private final byte[] blockTypes = new byte[SIZE];
+
+    /** Bitmap of the cells containing a solid block. */
+    private final long[] solidBits = new long[SIZE / BITS];
+
+    /** Bitmap of the cells containing a mobile. */
+    private final long[] mobileBits = new long[SIZE / BITS];
+
+    /** The cells of the blocks that have a state of their own. */
+    private short[] stateCells;
+
+    /** The blocks that have a state of their own, like life or content. */
+    private Block[] stateBlocks;
+
+    /** Number of blocks that have a state of their own. */
+    private int stateCount;
 
     /** All the chunk Mobiles. */
     private final Mobile[] mobiles = new Mobile[SIZE];
 
-    /** All the chunk Items. */
-    private final Item[][] items = new Item[SIZE][];
+    /** The mobiles contained, in the order they were added. */
+    private Mobile[] residents = Mobile.EMPTY;
+
+    /** Number of bits in a long. */
+    private static final int BITS = 64;
+
+    /** Number of rows in a bitmap long. X must divide BITS. */
+    private static final int ROWS = BITS / X;
+
+    /** The bits of one row. */
+    private static final int ROW_MASK = (1 << X) - 1;
+
+    /** The cells containing items, in increasing order. */
+    private short[] itemCells;
+
+    /** The items of the cells containing items. */
+    private Item[][] itemLists;
+
+    /** Number of cells containing items. */
+    private int itemCellCount;
+
+    /** Bitmap of the cells containing items. */
+    private final long[] itemBits = new long[SIZE / BITS];
 
     /** Number of mobiles contained. */
     private int mobileCount;
 
+    /** Number of mobiles contained, that are sleeping. */
+    private int sleeperCount;
+
+    /** The world in which this chunk is registered as active, if any. */
+    private World activeWorld;
+
+    /** The position of this chunk in the active chunks of activeWorld. */
+    private int activeIndex = -1;
+
+    /** Was this chunk used since the ChunkCache last looked at it? */
+    private boolean referenced;
+
+    /**
+     * Did the chunk change, since it was generated, or loaded? Without a
+     * ChunkStore, a changed chunk is never evicted.
+     */
+    private boolean dirty;
+
+    /**
+     * Source of the solid versions and epochs. Chunks are also filled in
+     * the background.
+     */
+    private static final AtomicLong NEXT_VERSION = new AtomicLong(1);
+
+    /**
+     * Changes every time a cell becomes solid or not solid. Never reused,
+     * not even by another chunk, so a reloaded chunk never looks unchanged.
+     */
+    private long solidVersion = NEXT_VERSION.getAndIncrement();
+
+    /**
+     * Changes every time a block or item of the chunk changes, and every
+     * time a mobile enters or leaves the chunk. Never reused either.
+     */
+    private long epoch = NEXT_VERSION.getAndIncrement();
+
+    /**
+     * Changes every time a mobile moves within the chunk. Never reused
+     * either.
+     */
+    private long moveEpoch = NEXT_VERSION.getAndIncrement();
+
     /** Checks that the index are valid. */
     private void check(final int x, final int y) {
         if ((x < 0) || (x >= X)) {
@@ -79,10 +163,85 @@ public class Chunk {
         return x + X * y;
     }
 
+    /** Returns true, if the bit of the cell is set. */
+    private static boolean get(final long[] bits, final int index) {
+        return (bits[index / BITS] & (1L << index)) != 0;
+    }
+
+    /** Sets or clears the bit of the cell. */
+    private static void set(final long[] bits, final int index,
+            final boolean value) {
+        if (value) {
+            bits[index / BITS] |= (1L << index);
+        } else {
+            bits[index / BITS] &= ~(1L << index);
+        }
+    }
+
+    /** Returns the bits of a row; bit N is for x == N. */
+    private static int row(final long[] bits, final int y) {
+        return (int) (bits[y / ROWS] >>> (X * (y % ROWS))) & ROW_MASK;
+    }
+
+    /** Returns the bits of the cells in [xMin,xMax] of a row. */
+    private static int columns(final int xMin, final int xMax) {
+        return (ROW_MASK >>> (X - 1 - xMax + xMin)) << xMin;
+    }
+
     /** Creates an empty Chunk. */
     public Chunk() {
-        Arrays.fill(blocks, Block.EMPTY);
-        Arrays.fill(items, Item.EMPTY);
+        // NOP
+    }
+
+    /** Returns the palette index of the block type. Adds it if needed. */
+    private int paletteIndex(final BlockType type) {
+        for (int i = 0; i < palette.length; i++) {
+            if (palette[i] == type) {
+                return i;
+            }
+        }
+        final int result = palette.length;
+        if (result > 0xFF) {
+            throw new IllegalStateException("Too many block types in chunk");
+        }
+        palette = (BlockType[]) ArrayUtils.add(palette, type);
+        return result;
+    }
+
+    /** Returns the position of the cell in the block state table, or -1. */
+    private int stateSlot(final int index) {
+        for (int i = 0; i < stateCount; i++) {
+            if (stateCells[i] == index) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Sets the block state of a cell. null removes the state. */
+    private void setState(final int index, final Block block) {
+        final int slot = stateSlot(index);
+        if (block == null) {
+            if (slot >= 0) {
+                stateCount--;
+                stateCells[slot] = stateCells[stateCount];
+                stateBlocks[slot] = stateBlocks[stateCount];
+                stateBlocks[stateCount] = null;
+            }
+        } else if (slot >= 0) {
+            stateBlocks[slot] = block;
+        } else {
+            if (stateCells == null) {
+                stateCells = new short[4];
+                stateBlocks = new Block[4];
+            } else if (stateCount == stateCells.length) {
+                stateCells = Arrays.copyOf(stateCells, stateCount * 2);
+                stateBlocks = Arrays.copyOf(stateBlocks, stateCount * 2);
+            }
+            stateCells[stateCount] = (short) index;
+            stateBlocks[stateCount] = block;
+            stateCount++;
+        }
     }
 
     /**
@@ -92,14 +251,126 @@ public class Chunk {
         return position;
     }
 
+    /** Returns the version of the solid cells; 0 is never used. */
+    public long getSolidVersion() {
+        return solidVersion;
+    }
+
+    /**
+     * Returns the modification epoch; 0 is never used. Mobiles moving
+     * within the chunk do not change it.
+     */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /** Returns the epoch of the moves within the chunk; 0 is never used. */
+    public long getMoveEpoch() {
+        return moveEpoch;
+    }
+
+    /** Records that something changed in the chunk. */
+    private void modified() {
+        epoch = NEXT_VERSION.getAndIncrement();
+        dirty = true;
+    }
+
+    /** Records that a mobile moved within the chunk. */
+    private void moved() {
+        moveEpoch = NEXT_VERSION.getAndIncrement();
+        dirty = true;
+    }
+
+    /** Returns true, if the chunk changed since it was generated, or loaded. */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Records that the chunk is the same as what it's generator, or the
+     * ChunkStore, would give back.
+     */
+    void clean() {
+        dirty = false;
+    }
+
     /** Returns the number of mobiles contained. */
     public int getMobileCount() {
         return mobileCount;
     }
 
-    /** Returns a Block, using local coordinates. It an never be null. */
+    /** Returns the number of mobiles contained, that are sleeping. */
+    public int getSleeperCount() {
+        return sleeperCount;
+    }
+
+    /** Updates the sleeper count. Called by the Scheduler. */
+    void updateSleeperCount(final int change) {
+        sleeperCount += change;
+    }
+
+    /** Returns a mobile contained, in the order they were added. */
+    public Mobile getResident(final int index) {
+        return residents[index];
+    }
+
+    /** Returns true, if this chunk contains mobiles. */
+    public boolean isActive() {
+        return mobileCount > 0;
+    }
+
+    /** Returns the position of this chunk in the active chunks of it's world. */
+    int getActiveIndex() {
+        return activeIndex;
+    }
+
+    /** Sets the position of this chunk in the active chunks of it's world. */
+    void setActiveIndex(final int theActiveIndex) {
+        activeIndex = theActiveIndex;
+    }
+
+    /** Registers, or unregisters, this chunk as active in it's world. */
+    private void updateActive() {
+        final World world = isActive() ? position.getWorld() : null;
+        if (world != activeWorld) {
+            if (activeWorld != null) {
+                activeWorld.deactivate(this);
+            }
+            activeWorld = world;
+            if (world != null) {
+                world.activate(this);
+            }
+        }
+    }
+
+    /** Marks this chunk as recently used. */
+    public void touch() {
+        referenced = true;
+    }
+
+    /** Clears the recently used mark. Returns true, if it was set. */
+    boolean clearReferenced() {
+        final boolean result = referenced;
+        referenced = false;
+        return result;
+    }
+
+    /**
+     * Returns a Block, using local coordinates. It an never be null.
+     *
+     * Blocks without a state of their own are not stored; the shared,
+     * immutable, pristine block of the type is returned for them. Changes
+     * are made to Block.mutable(), and stored back with setBlockLocal().
+     */
     public Block getBlockLocal(final int x, final int y) {
-        return blocks[index(x, y)];
+        final int index = index(x, y);
+        if (stateCount > 0) {
+            final int slot = stateSlot(index);
+            if (slot >= 0) {
+                return stateBlocks[slot];
+            }
+        }
+        return Block.pristine(palette[blockTypes[index] & 0xFF]);
     }
 
     /** Returns a Block. It an never be null. */
@@ -107,17 +378,52 @@ public class Chunk {
         return getBlockLocal(x - position.getX(), y - position.getY());
     }
 
+    /** Returns a Block type, using local coordinates. It an never be null. */
+    public BlockType getBlockTypeLocal(final int x, final int y) {
+        return palette[blockTypes[index(x, y)] & 0xFF];
+    }
+
+    /** Returns a Block type. It an never be null. */
+    public BlockType getBlockType(final int x, final int y) {
+        return getBlockTypeLocal(x - position.getX(), y - position.getY());
+    }
+
     /** Sets a block, using local coordinates. null is mapped to Empty. */
     public void setBlockLocal(final int x, final int y, final Block block) {
-        final int index = index(x, y);
         if (block == null) {
-            blocks[index] = Block.EMPTY;
+            setBlockTypeLocal(x, y, BlockType.Empty);
         } else {
-            if (block.getType().isSolid() && (mobiles[index] != null)) {
-                throw new IllegalArgumentException("Coordinate (" + x + "," + y
-                        + ") contains a mobile!");
+            setBlockTypeLocal(x, y, block.getType());
+            if (!block.isPristine()) {
+                setState(index(x, y), block);
             }
-            blocks[index] = block;
+        }
+    }
+
+    /**
+     * Sets a block in the default state of it's type, using local
+     * coordinates. No Block instance is needed.
+     */
+    public void setBlockTypeLocal(final int x, final int y,
+            final BlockType type) {
+        final int index = index(x, y);
+        if (type.isSolid() && (mobiles[index] != null)) {
+            throw new IllegalArgumentException("Coordinate (" + x + "," + y
+                    + ") contains a mobile!");
+        }
+        blockTypes[index] = (byte) paletteIndex(type);
+        if (get(solidBits, index) != type.isSolid()) {
+            set(solidBits, index, type.isSolid());
+            solidVersion = NEXT_VERSION.getAndIncrement();
+            final World world = position.getWorld();
+            if (world != null) {
+                world.getScheduler().solidChanged(position.getX() + x,
+                        position.getY() + y, position.getZ());
+            }
+        }
+        modified();
+        if (stateCount > 0) {
+            setState(index, null);
         }
     }
 
@@ -126,9 +432,14 @@ public class Chunk {
         setBlockLocal(x - position.getX(), y - position.getY(), block);
     }
 
+    /** Sets a block in the default state of it's type. */
+    public void setBlockType(final int x, final int y, final BlockType type) {
+        setBlockTypeLocal(x - position.getX(), y - position.getY(), type);
+    }
+
     /** Returns true, if the block at the given coordinate is solid, using local coordinates. */
     public boolean solidLocal(final int x, final int y) {
-        return blocks[index(x, y)].getType().isSolid();
+        return get(solidBits, index(x, y));
     }
 
     /** Returns true, if the block at the given coordinate is solid. */
@@ -149,7 +460,7 @@ public class Chunk {
     /** Returns true, if the block at the given coordinate is either solid, or occupied by a mobile, using local coordinates. */
     public boolean occupiedLocal(final int x, final int y) {
         final int index = index(x, y);
-        return blocks[index].getType().isSolid() || (mobiles[index] != null);
+        return get(solidBits, index) || get(mobileBits, index);
     }
 
     /** Returns true, if the block at the given coordinate is either solid, or occupied by a mobile. */
@@ -157,16 +468,73 @@ public class Chunk {
         return occupiedLocal(x - position.getX(), y - position.getY());
     }
 
-    /** Updates the Mobile position, using local coordinates! */
+    /** Returns the solid cells of a row, as bits, using local coordinates. */
+    public int solidRowLocal(final int y) {
+        check(0, y);
+        return row(solidBits, y);
+    }
+
+    /** Returns the cells of a row containing a mobile, as bits, using local coordinates. */
+    public int mobileRowLocal(final int y) {
+        check(0, y);
+        return row(mobileBits, y);
+    }
+
+    /** Returns the cells of a row containing items, as bits, using local coordinates. */
+    public int itemRowLocal(final int y) {
+        check(0, y);
+        return row(itemBits, y);
+    }
+
+    /** Returns the occupied cells of a row, as bits, using local coordinates. */
+    public int occupiedRowLocal(final int y) {
+        check(0, y);
+        return row(solidBits, y) | row(mobileBits, y);
+    }
+
+    /**
+     * Returns true, if any cell in the rectangle (inclusive) is occupied,
+     * using local coordinates.
+     */
+    public boolean anyOccupiedLocal(final int xMin, final int yMin,
+            final int xMax, final int yMax) {
+        check(xMin, yMin);
+        check(xMax, yMax);
+        final int columns = columns(xMin, xMax);
+        for (int y = yMin; y <= yMax; y++) {
+            if (((row(solidBits, y) | row(mobileBits, y)) & columns) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the first free x in the row, starting at fromX, or -1,
+     * using local coordinates.
+     */
+    public int firstFreeLocal(final int y, final int fromX) {
+        check(fromX, y);
+        final int free = ~(row(solidBits, y) | row(mobileBits, y))
+                & columns(fromX, X - 1);
+        return (free == 0) ? -1 : Integer.numberOfTrailingZeros(free);
+    }
+
+    /**
+     * Updates the Mobile position, using local coordinates!
+     * The mobile is removed from it's previous chunk, if it was in another
+     * one. A mobile already in this chunk, for example because the chunk
+     * was filled before being attached to the world, stays where it is.
+     */
     private void updateMobilePosition(final int x, final int y,
             final Mobile mobile) {
-        final World world = position.getWorld();
+        final World world = mobile.getWorld();
         if (world != null) {
             final Level level = world.getLevel(mobile.getZ());
             if (level != null) {
                 final Chunk chunk = level.getChunkOf(mobile.getX(),
                         mobile.getY());
-                if (chunk != null) {
+                if ((chunk != null) && (chunk != this)) {
                     final Mobile other = chunk.getMobile(mobile.getX(),
                             mobile.getY());
                     if (other == mobile) {
@@ -175,12 +543,9 @@ public class Chunk {
                 }
             }
         }
-        final Position pos = position.clone();
-        pos.setX(pos.getX() + x);
-        pos.setY(pos.getY() + y);
         // We don't change direction of mobile
-        pos.setDirection(mobile.getDirection());
-        mobile.updatedPosition(pos);
+        mobile.updatedPosition(position.getWorld(), position.getX() + x,
+                position.getY() + y, position.getZ(), mobile.getDirection());
     }
 
     /** Sets a Mobile, using local coordinates. */
@@ -188,53 +553,141 @@ public class Chunk {
         final int index = index(x, y);
         final Mobile before = mobiles[index];
         if (before != mobile) {
+            // Epoch before the mobile left it's old cell in this chunk.
+            long unchanged = 0;
             if (mobile != null) {
                 if (solidLocal(x, y)) {
                     throw new IllegalArgumentException("Coordinate (" + x + ","
                             + y + ") is solid!");
                 }
                 final Chunk oldChunk = mobile.getChunk();
+                if (oldChunk == this) {
+                    unchanged = epoch;
+                }
                 if (oldChunk != null) {
                     oldChunk.setMobile(mobile.getX(), mobile.getY(), null);
                 }
                 mobiles[index] = mobile;
+                set(mobileBits, index, true);
+                addResident(mobile);
                 updateMobilePosition(x, y, mobile);
+                final World world = position.getWorld();
+                if (world != null) {
+                    world.getScheduler().mobileEntered(mobile,
+                            position.getX() + x, position.getY() + y,
+                            position.getZ());
+                }
             } else {
                 mobiles[index] = null;
+                set(mobileBits, index, false);
             }
             if (before != null) {
+                removeResident(before);
                 before.detach();
             }
+            if ((unchanged != 0) && (before == null)) {
+                // Same residents as before the move.
+                epoch = unchanged;
+                moved();
+            } else {
+                modified();
+            }
         }
-        final int countBefore = mobileCount;
-        if (before != null) {
-            mobileCount--;
-        }
-        if (mobile != null) {
-            mobileCount++;
+    }
+
+    /** Adds a mobile at the end of the residents. */
+    private void addResident(final Mobile mobile) {
+        if (mobileCount == residents.length) {
+            residents = Arrays.copyOf(residents, Math.max(4, mobileCount * 2));
         }
-        final int countChange = mobileCount - countBefore;
-        if (countChange != 0) {
-            final World world = position.getWorld();
-            if (world != null) {
-                final Level level = world.getLevel(position.getZ());
-                level.updateMobileCount(countChange);
+        residents[mobileCount++] = mobile;
+        updateMobileCount(1);
+    }
+
+    /** Removes a mobile from the residents, keeping the order. */
+    private void removeResident(final Mobile mobile) {
+        for (int i = 0; i < mobileCount; i++) {
+            if (residents[i] == mobile) {
+                mobileCount--;
+                System.arraycopy(residents, i + 1, residents, i, mobileCount
+                        - i);
+                residents[mobileCount] = null;
+                if (Scheduler.isSleeping(mobile)) {
+                    sleeperCount--;
+                }
+                updateMobileCount(-1);
+                return;
             }
         }
     }
 
+    /** Informs the level that the mobile count changed. */
+    private void updateMobileCount(final int change) {
+        final World world = position.getWorld();
+        if (world != null) {
+            final Level level = world.getLevel(position.getZ());
+            level.updateMobileCount(change);
+        }
+        updateActive();
+    }
+
     /** Sets a Mobile. */
     public void setMobile(final int x, final int y, final Mobile mobile) {
         setMobileLocal(x - position.getX(), y - position.getY(), mobile);
     }
 
-    /** Returns the items, using local coordinates. */
+    /** Returns the position of the cell in the item table, or -1. */
+    private int itemSlot(final int index) {
+        if (!get(itemBits, index)) {
+            return -1;
+        }
+        return Arrays.binarySearch(itemCells, 0, itemCellCount, (short) index);
+    }
+
+    /** Returns the number of items, using local coordinates. */
+    public int getItemCountLocal(final int x, final int y) {
+        final int slot = itemSlot(index(x, y));
+        return (slot < 0) ? 0 : itemLists[slot].length;
+    }
+
+    /** Returns the number of items. */
+    public int getItemCount(final int x, final int y) {
+        return getItemCountLocal(x - position.getX(), y - position.getY());
+    }
+
+    /**
+     * Returns the item at the given position in the cell, using local
+     * coordinates. Unlike getItemsLocal(), it does not copy anything.
+     */
+    public Item getItemLocal(final int x, final int y, final int i) {
+        final int slot = itemSlot(index(x, y));
+        if (slot < 0) {
+            throw new IndexOutOfBoundsException("No item at (" + x + "," + y
+                    + ")");
+        }
+        return itemLists[slot][i];
+    }
+
+    /** Returns the item at the given position in the cell. */
+    public Item getItem(final int x, final int y, final int i) {
+        return getItemLocal(x - position.getX(), y - position.getY(), i);
+    }
+
+    /** Returns the number of cells containing items. */
+    public int getItemCellCount() {
+        return itemCellCount;
+    }
+
+    /**
+     * Returns a copy of the items, using local coordinates.
+     * Prefer getItemCountLocal() and getItemLocal() to just look at them.
+     */
     public Item[] getItemsLocal(final int x, final int y) {
-        final Item[] array = items[index(x, y)];
-        return (array.length == 0) ? array : array.clone();
+        final int slot = itemSlot(index(x, y));
+        return (slot < 0) ? Item.EMPTY : itemLists[slot].clone();
     }
 
-    /** Returns the items. */
+    /** Returns a copy of the items. */
     public Item[] getItems(final int x, final int y) {
         return getItemsLocal(x - position.getX(), y - position.getY());
     }
@@ -245,8 +698,42 @@ public class Chunk {
             throw new IllegalArgumentException("item is null");
         }
         final int index = index(x, y);
-        if (!ArrayUtils.contains(items[index], item)) {
-            items[index] = (Item[]) ArrayUtils.add(items[index], item);
+        final int slot = itemSlot(index);
+        if (slot >= 0) {
+            if (!ArrayUtils.contains(itemLists[slot], item)) {
+                itemLists[slot] = (Item[]) ArrayUtils.add(itemLists[slot],
+                        item);
+                modified();
+                dropped(x, y, item);
+            }
+            return;
+        }
+        if (itemCells == null) {
+            itemCells = new short[4];
+            itemLists = new Item[4][];
+        } else if (itemCellCount == itemCells.length) {
+            itemCells = Arrays.copyOf(itemCells, itemCellCount * 2);
+            itemLists = Arrays.copyOf(itemLists, itemCellCount * 2);
+        }
+        final int where = -Arrays.binarySearch(itemCells, 0, itemCellCount,
+                (short) index) - 1;
+        final int moved = itemCellCount - where;
+        System.arraycopy(itemCells, where, itemCells, where + 1, moved);
+        System.arraycopy(itemLists, where, itemLists, where + 1, moved);
+        itemCells[where] = (short) index;
+        itemLists[where] = new Item[] { item };
+        itemCellCount++;
+        set(itemBits, index, true);
+        modified();
+        dropped(x, y, item);
+    }
+
+    /** Informs the sleeping mobiles around that an item was dropped. */
+    private void dropped(final int x, final int y, final Item item) {
+        final World world = position.getWorld();
+        if (world != null) {
+            world.getScheduler().itemDropped(item, position.getX() + x,
+                    position.getY() + y, position.getZ());
         }
     }
 
@@ -261,11 +748,24 @@ public class Chunk {
             throw new IllegalArgumentException("item is null");
         }
         final int index = index(x, y);
-        final int where = ArrayUtils.indexOf(items[index], item);
+        final int slot = itemSlot(index);
+        final int where = (slot < 0) ? -1 : ArrayUtils.indexOf(
+                itemLists[slot], item);
         if (where < 0) {
             throw new IllegalArgumentException("item not found");
         }
-        items[index] = (Item[]) ArrayUtils.remove(items[index], where);
+        if (itemLists[slot].length > 1) {
+            itemLists[slot] = (Item[]) ArrayUtils.remove(itemLists[slot],
+                    where);
+        } else {
+            itemCellCount--;
+            final int moved = itemCellCount - slot;
+            System.arraycopy(itemCells, slot + 1, itemCells, slot, moved);
+            System.arraycopy(itemLists, slot + 1, itemLists, slot, moved);
+            itemLists[itemCellCount] = null;
+            set(itemBits, index, false);
+        }
+        modified();
     }
 
     /** Removes an item. */
@@ -273,8 +773,85 @@ public class Chunk {
         removeItemLocal(x - position.getX(), y - position.getY(), item);
     }
 
+    /**
+     * Writes the content of this chunk to the buffer: the blocks, the
+     * items and the mobiles. The position is not written.
+     */
+    public void write(final ByteBuffer buffer) {
+        buffer.putShort((short) palette.length);
+        for (final BlockType type : palette) {
+            buffer.put((byte) type.ordinal());
+        }
+        buffer.put(blockTypes);
+        buffer.putShort((short) stateCount);
+        for (int i = 0; i < stateCount; i++) {
+            final Block block = stateBlocks[i];
+            buffer.putShort(stateCells[i]);
+            buffer.putInt(block.getLife());
+            Item.writeAll(buffer, block.getContent());
+        }
+        buffer.putShort((short) itemCellCount);
+        for (int i = 0; i < itemCellCount; i++) {
+            buffer.putShort(itemCells[i]);
+            Item.writeAll(buffer, itemLists[i]);
+        }
+        buffer.putShort((short) mobileCount);
+        for (int i = 0; i < mobileCount; i++) {
+            final Mobile mobile = residents[i];
+            final int x = mobile.getX() - position.getX();
+            final int y = mobile.getY() - position.getY();
+            buffer.putShort((short) index(x, y));
+            mobile.write(buffer);
+        }
+    }
+
+    /**
+     * Reads the content written by write() into this new, detached, chunk.
+     * The position must be set first.
+     */
+    public void read(final ByteBuffer buffer) {
+        if ((palette.length != 1) || (mobileCount != 0)
+                || (itemCellCount != 0) || (position.getWorld() != null)) {
+            throw new IllegalStateException("Chunk is not new");
+        }
+        final BlockType[] types = new BlockType[buffer.getShort()];
+        for (int i = 0; i < types.length; i++) {
+            types[i] = BlockType.VALUES[buffer.get() & 0xFF];
+        }
+        palette = types;
+        buffer.get(blockTypes);
+        for (int i = 0; i < SIZE; i++) {
+            set(solidBits, i, palette[blockTypes[i] & 0xFF].isSolid());
+        }
+        final int states = buffer.getShort();
+        for (int i = 0; i < states; i++) {
+            final int index = buffer.getShort();
+            final Block block = new Block(palette[blockTypes[index] & 0xFF]);
+            block.setLife(buffer.getInt());
+            block.setContent(Item.readAll(buffer));
+            setState(index, block);
+        }
+        itemCellCount = buffer.getShort();
+        if (itemCellCount > 0) {
+            itemCells = new short[itemCellCount];
+            itemLists = new Item[itemCellCount][];
+            for (int i = 0; i < itemCellCount; i++) {
+                itemCells[i] = buffer.getShort();
+                itemLists[i] = Item.readAll(buffer);
+                set(itemBits, itemCells[i], true);
+            }
+        }
+        final int mobiles = buffer.getShort();
+        for (int i = 0; i < mobiles; i++) {
+            final int index = buffer.getShort();
+            setMobileLocal(index % X, index / X, Mobile.read(buffer));
+        }
+    }
+
     /** Informs the Chunk that it's position was updated. */
     public void updatedPosition() {
+        // The mobiles get scheduled again, awake, in the new world.
+        sleeperCount = 0;
         for (int x = 0; x < X; x++) {
             for (int y = 0; y < Y; y++) {
                 final Mobile mobile = getMobileLocal(x, y);
@@ -283,17 +860,44 @@ public class Chunk {
                 }
             }
         }
+        updateActive();
     }
 
-    /** Runs an update cycle. */
-    public void update() {
-        if (mobileCount > 0) {
-            final int cycle = position.getWorld().getClock().getCycle();
-            for (final Mobile mobile : mobiles) {
-                if (mobile != null) {
-                    final MobileType type = mobile.getType();
-                    if (cycle % type.getSpeed() == 0) {
-                        mobile.getController().act();
+    /**
+     * Adds the mobiles in [xMin,xMax]x[yMin,yMax], accepted by the filter,
+     * to the result. A null filter accepts all mobiles.
+     */
+    public void queryMobiles(final int xMin, final int yMin, final int xMax,
+            final int yMax, final MobileFilter filter,
+            final List<Mobile> result) {
+        for (int i = 0; i < mobileCount; i++) {
+            final Mobile mobile = residents[i];
+            final int x = mobile.getX();
+            final int y = mobile.getY();
+            if ((x >= xMin) && (x <= xMax) && (y >= yMin) && (y <= yMax)
+                    && ((filter == null) || filter.accept(mobile))) {
+                result.add(mobile);
+            }
+        }
+    }
+
+    /**
+     * Adds the items in [xMin,xMax]x[yMin,yMax], accepted by the filter,
+     * to the result. A null filter accepts all items.
+     */
+    public void queryItems(final int xMin, final int yMin, final int xMax,
+            final int yMax, final ItemFilter filter,
+            final ItemHits result) {
+        final int cx = position.getX();
+        final int cy = position.getY();
+        final int z = position.getZ();
+        for (int i = 0; i < itemCellCount; i++) {
+            final int x = cx + itemCells[i] % X;
+            final int y = cy + itemCells[i] / X;
+            if ((x >= xMin) && (x <= xMax) && (y >= yMin) && (y <= yMax)) {
+                for (final Item item : itemLists[i]) {
+                    if ((filter == null) || filter.accept(item)) {
+                        result.add(item, x, y, z);
                     }
                 }
             }
@@ -302,12 +906,8 @@ public class Chunk {
 
     /** Passes all mobiles to the visitor. */
     public void visitMobiles(final MobileVisitor visitor) {
-        if (mobileCount > 0) {
-            for (final Mobile mobile : mobiles) {
-                if (mobile != null) {
-                    visitor.visit(mobile);
-                }
-            }
+        for (int i = 0; i < mobileCount; i++) {
+            visitor.visit(residents[i]);
         }
     }
 }
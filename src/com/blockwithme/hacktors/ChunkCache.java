@@ -0,0 +1,258 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Keeps the memory used by the chunks within a budget.
+ *
+ * The budget is given in bytes, and turned into a number of chunks, using
+ * an estimate of the size of a chunk, with it's mobiles and items.
+ *
+ * It uses the "clock" approximation of LRU: a hand sweeps over all the chunk
+ * slots of the world, giving a second chance to the chunks that were used
+ * since it last passed, and evicting the others. Chunks near a player are
+ * never evicted. Levels left without chunks, and without players, are
+ * evicted too; the World remembers their generator.
+ *
+ * Eviction only happens between cycles, from World.update(), so nothing
+ * can still use an evicted chunk: actions never span cycles, the caches
+ * that outlive a cycle (flow fields, path finder graphs, fields of view)
+ * only keep the versions of the chunks, and the perception snapshots are
+ * dropped before eviction.
+ *
+ * Evicted chunks are written to the ChunkStore, if there is one, and
+ * loaded back from it when needed; on close, the chunks still in memory
+ * are written too. Otherwise, they are generated again;
+ * since that would lose their changes, and spawn their mobiles again,
+ * chunks that changed since they were generated, or that hold mobiles or
+ * items, are then never evicted.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class ChunkCache {
+    /** Default maximum number of chunks in memory. */
+    public static final int DEFAULT_MAX_CHUNKS = 4096;
+
+    /**
+     * Estimated size of a chunk in memory, with it's mobiles and items, in
+     * bytes. Fully generated levels measure about 2.6 KB per chunk.
+     */
+    public static final long CHUNK_BYTES = 4096;
+
+    /** Distance to the players, in chunks, under which chunks are kept. */
+    public static final int KEEP_RADIUS = ChunkPregenerator.RADIUS + 1;
+
+    /** The game World */
+    private final World world;
+
+    /** Maximum number of chunks in memory. */
+    private int maxChunks = DEFAULT_MAX_CHUNKS;
+
+    /** Where evicted chunks are kept. null means they are generated again. */
+    private ChunkStore store;
+
+    /** The level of the clock hand. */
+    private int handZ;
+
+    /** The chunk index, in the level, of the clock hand. */
+    private int handIndex;
+
+    /** Number of chunks evicted so far. */
+    private long evictedCount;
+
+    /** Constructor */
+    public ChunkCache(final World theWorld) {
+        world = Preconditions.checkNotNull(theWorld);
+    }
+
+    /** Returns the maximum number of chunks in memory. */
+    public int getMaxChunks() {
+        return maxChunks;
+    }
+
+    /** Sets the maximum number of chunks in memory. */
+    public void setMaxChunks(final int theMaxChunks) {
+        if (theMaxChunks <= 0) {
+            throw new IllegalArgumentException("maxChunks must be positive");
+        }
+        maxChunks = theMaxChunks;
+    }
+
+    /** Returns the memory budget of the chunks, in bytes. */
+    public long getMemoryBudget() {
+        return maxChunks * CHUNK_BYTES;
+    }
+
+    /**
+     * Sets the memory budget of the chunks, in bytes. It is turned into a
+     * maximum number of chunks, using CHUNK_BYTES.
+     */
+    public void setMemoryBudget(final long bytes) {
+        if (bytes < CHUNK_BYTES) {
+            throw new IllegalArgumentException(
+                    "memory budget must hold at least one chunk: " + bytes);
+        }
+        setMaxChunks((int) Math.min(Integer.MAX_VALUE, bytes / CHUNK_BYTES));
+    }
+
+    /** Returns the ChunkStore, if any. */
+    public ChunkStore getStore() {
+        return store;
+    }
+
+    /**
+     * Sets the ChunkStore. null means evicted chunks are generated again,
+     * so chunks with mobiles or items are not evicted.
+     */
+    public void setStore(final ChunkStore theStore) {
+        store = theStore;
+    }
+
+    /** Returns the number of chunks evicted so far. */
+    public long getEvictedCount() {
+        return evictedCount;
+    }
+
+    /** Returns true, if the chunk is in the store, using chunk position. */
+    public boolean contains(final int z, final int x, final int y) {
+        return (store != null) && store.contains(z, x, y);
+    }
+
+    /** Loads a chunk from the store, using chunk position, if possible. */
+    public Chunk load(final int z, final int x, final int y) {
+        return (store == null) ? null : store.load(z, x, y);
+    }
+
+    /** Writes all chunks in memory to the store, if any. They stay in memory. */
+    public void flush() {
+        if (store != null) {
+            for (final Level level : world.getLevels()) {
+                if ((level != null) && (level.getChunkCount() > 0)) {
+                    for (final Chunk chunk : level.getChunks()) {
+                        if (chunk != null) {
+                            store.store(chunk);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes all chunks in memory to the store, and closes it, if it can
+     * be. A closed store is opened again, if it is used again.
+     */
+    public void close() {
+        flush();
+        if (store instanceof Closeable) {
+            try {
+                ((Closeable) store).close();
+            } catch (final IOException e) {
+                throw new IllegalStateException("Cannot close " + store, e);
+            }
+        }
+    }
+
+    /** Returns true, if a player is near the chunk, using chunk position. */
+    private boolean nearPlayer(final int z, final int x, final int y) {
+        final int players = world.getPlayerCount();
+        for (int i = 0; i < players; i++) {
+            final Mobile player = world.getPlayer(i);
+            if ((player.getWorld() == world) && (player.getZ() == z)
+                    && (Math.abs(player.getX() / Chunk.X - x) <= KEEP_RADIUS)
+                    && (Math.abs(player.getY() / Chunk.Y - y) <= KEEP_RADIUS)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Returns true, if a player is on the level. */
+    private boolean playerOn(final int z) {
+        final int players = world.getPlayerCount();
+        for (int i = 0; i < players; i++) {
+            final Mobile player = world.getPlayer(i);
+            if ((player.getWorld() == world) && (player.getZ() == z)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true, if the chunk would lose something when evicted, because
+     * there is no store to keep it: it's changes, mobiles and items.
+     */
+    private boolean mustKeep(final Chunk chunk) {
+        return (store == null)
+                && (chunk.isDirty() || (chunk.getMobileCount() > 0) || (chunk
+                        .getItemCellCount() > 0));
+    }
+
+    /** Moves the clock hand to the start of the next level. */
+    private void nextLevel() {
+        handZ = (handZ + 1) % World.Z;
+        handIndex = 0;
+    }
+
+    /**
+     * Evicts chunks until the budget is respected, or every chunk was
+     * visited twice. Must only be called between cycles.
+     */
+    public void evict() {
+        if (world.getChunkCount() <= maxChunks) {
+            return;
+        }
+        int remaining = 2 * World.Z * Level.SIZE;
+        while ((world.getChunkCount() > maxChunks) && (remaining > 0)) {
+            final Level level = world.getLevel(handZ);
+            if ((level == null) || (level.getChunkCount() == 0)) {
+                if ((level != null) && !playerOn(handZ)) {
+                    world.setLevel(handZ, null);
+                }
+                remaining -= Level.SIZE - handIndex;
+                nextLevel();
+                continue;
+            }
+            final Chunk chunk = level.getChunks()[handIndex];
+            if ((chunk != null) && !chunk.clearReferenced()
+                    && !mustKeep(chunk)) {
+                final int x = handIndex % Level.X;
+                final int y = handIndex / Level.X;
+                if (!nearPlayer(handZ, x, y)) {
+                    level.setChunk(x, y, null);
+                    if (store != null) {
+                        store.store(chunk);
+                    }
+                    evictedCount++;
+                }
+            }
+            remaining--;
+            handIndex++;
+            if (handIndex == Level.SIZE) {
+                nextLevel();
+            }
+        }
+    }
+}
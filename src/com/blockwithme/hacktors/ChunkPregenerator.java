@@ -0,0 +1,242 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.util.BitSet;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Generates chunks in the background, around the players, before they are
+ * needed.
+ *
+ * Chunks are generated detached from the world, on a separate thread.
+ * Finished chunks are only attached to their level by the game thread,
+ * either at the start of a cycle, or when the level asks for a chunk that
+ * is already ready.
+ *
+ * Every chunk is generated with it's own random number generator, seeded
+ * from the world and the chunk position, whether it is generated in the
+ * background or not. The content of a chunk does not depend on when, nor
+ * on which thread, it was generated.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class ChunkPregenerator {
+    /** Pre-generation radius around the players, in chunks. */
+    public static final int RADIUS = 2;
+
+    /** Maximum number of chunks being generated at the same time. */
+    private static final int MAX_PENDING = 64;
+
+    /** The game World */
+    private final World world;
+
+    /** Mixes the chunk slot into the seed. */
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    /** The seed of the chunk random number generators. */
+    private final long seed;
+
+    /** The background generation thread; null until needed, or once closed. */
+    private ExecutorService executor;
+
+    /** The chunks requested, but not attached yet. Only used by the game thread. */
+    private final BitSet pending = new BitSet();
+
+    /** Number of chunks requested, but not attached yet. */
+    private int pendingCount;
+
+    /** The generated chunks, waiting to be attached. */
+    private final AtomicReferenceArray<Chunk> ready = new AtomicReferenceArray<>(
+            World.Z * Level.SIZE);
+
+    /** Computes the slot of a chunk in the world, using chunk position. */
+    private static int slot(final int z, final int x, final int y) {
+        return z * Level.SIZE + x + Level.X * y;
+    }
+
+    /** Constructor */
+    public ChunkPregenerator(final World theWorld) {
+        world = Preconditions.checkNotNull(theWorld);
+        seed = (((long) Util.nextInt()) << 32) | (Util.nextInt() & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Fills in the chunk, at the given chunk position, with the generator,
+     * using the random number generator of the chunk.
+     */
+    public void fill(final Generator generator, final Chunk chunk,
+            final int z, final int x, final int y) {
+        final Random previous = Util.setThreadRandom(new Random(seed
+                + slot(z, x, y) * GOLDEN_GAMMA));
+        try {
+            generator.fill(chunk);
+        } finally {
+            Util.setThreadRandom(previous);
+        }
+    }
+
+    /**
+     * Stops the background generation thread. The chunks being generated
+     * are dropped. A new thread is started, if chunks are requested again.
+     */
+    public void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        for (int slot = pending.nextSetBit(0); slot >= 0; slot = pending
+                .nextSetBit(slot + 1)) {
+            ready.set(slot, null);
+        }
+        pending.clear();
+        pendingCount = 0;
+    }
+
+    /** Returns the number of chunks requested, but not attached yet. */
+    public int getPendingCount() {
+        return pendingCount;
+    }
+
+    /** Forgets about a requested chunk. */
+    private void done(final int slot) {
+        pending.clear(slot);
+        pendingCount--;
+    }
+
+    /**
+     * Returns the generated chunk for the given chunk position, if it is
+     * ready, and forgets about it. Otherwise, returns null.
+     */
+    public Chunk take(final int z, final int x, final int y) {
+        final int slot = slot(z, x, y);
+        final Chunk result = ready.getAndSet(slot, null);
+        if (result != null) {
+            done(slot);
+        }
+        return result;
+    }
+
+    /**
+     * Runs at the start of a cycle: attaches the ready chunks to their
+     * level, and requests the missing chunks around the players.
+     */
+    public void update() {
+        publish();
+        final int players = world.getPlayerCount();
+        for (int i = 0; (i < players) && (pendingCount < MAX_PENDING); i++) {
+            final Mobile player = world.getPlayer(i);
+            if (player.getWorld() == world) {
+                requestAround(player);
+            }
+        }
+    }
+
+    /** Attaches the ready chunks, unless the slot was filled in the meantime. */
+    private void publish() {
+        for (int slot = pending.nextSetBit(0); slot >= 0; slot = pending
+                .nextSetBit(slot + 1)) {
+            final Chunk chunk = ready.getAndSet(slot, null);
+            if (chunk == null) {
+                continue;
+            }
+            done(slot);
+            final Position pos = chunk.getPosition();
+            final Level level = world.getOrCreateLevel(pos.getZ());
+            final int x = pos.getX() / Chunk.X;
+            final int y = pos.getY() / Chunk.Y;
+            // A stored chunk is more recent than a generated one.
+            if ((level.getChunk(x, y) == null)
+                    && !world.getChunkCache().contains(pos.getZ(), x, y)) {
+                level.setChunk(x, y, chunk);
+            }
+        }
+    }
+
+    /** Requests the missing chunks around a player, nearest first. */
+    private void requestAround(final Mobile player) {
+        final int z = player.getZ();
+        final Level level = world.getOrCreateLevel(z);
+        final int cx = player.getX() / Chunk.X;
+        final int cy = player.getY() / Chunk.Y;
+        for (int r = 1; r <= RADIUS; r++) {
+            for (int x = cx - r; x <= cx + r; x++) {
+                for (int y = cy - r; y <= cy + r; y++) {
+                    final boolean ring = (Math.abs(x - cx) == r)
+                            || (Math.abs(y - cy) == r);
+                    if (ring && (x >= 0) && (x < Level.X) && (y >= 0)
+                            && (y < Level.Y) && (level.getChunk(x, y) == null)) {
+                        if (!request(level, z, x, y)) {
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Requests the generation of a chunk, unless already requested.
+     * Returns false if too many chunks are being generated.
+     */
+    private boolean request(final Level level, final int z, final int x,
+            final int y) {
+        final int slot = slot(z, x, y);
+        if (pending.get(slot) || world.getChunkCache().contains(z, x, y)) {
+            return true;
+        }
+        if (pendingCount >= MAX_PENDING) {
+            return false;
+        }
+        pending.set(slot);
+        pendingCount++;
+        final Generator generator = level.getGenerator();
+        if (executor == null) {
+            executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread result = new Thread(runnable,
+                            "ChunkPregenerator");
+                    result.setDaemon(true);
+                    return result;
+                }
+            });
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final Chunk chunk = new Chunk();
+                // The generators need the position, but not the world.
+                final Position pos = chunk.getPosition();
+                pos.setX(x * Chunk.X);
+                pos.setY(y * Chunk.Y);
+                pos.setZ(z);
+                fill(generator, chunk, z, x, y);
+                ready.set(slot, chunk);
+            }
+        });
+        return true;
+    }
+}
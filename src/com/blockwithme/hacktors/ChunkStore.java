@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Represents a place where evicted chunks are kept.
+ *
+ * Chunks are identified by their level (z) and chunk position (x,y).
+ * Loaded chunks are detached; stored chunks need not be.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public interface ChunkStore {
+    /** Returns true, if the chunk is stored, using chunk position. */
+    boolean contains(final int z, final int x, final int y);
+
+    /**
+     * Loads a chunk, using chunk position. The stored copy is kept, until
+     * the chunk is stored again. Returns null if not stored.
+     */
+    Chunk load(final int z, final int x, final int y);
+
+    /** Stores a chunk. It's position says where it belongs. */
+    void store(final Chunk chunk);
+}
@@ -15,19 +15,31 @@
  */
 package com.blockwithme.hacktors;
 
+import java.lang.management.ManagementFactory;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.annotation.ParametersAreNonnullByDefault;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 
 import com.google.common.base.Preconditions;
 
 /**
  * The game clock.
  *
+ * In real-time mode, cycles start on absolute deadlines, CYCLE apart, in
+ * System.nanoTime() time, so that errors do not add up. The clock parks
+ * until shortly before the deadline, and then spins, since parking is not
+ * precise. When a cycle takes too long, the CatchUpPolicy decides when
+ * the next one runs. The duration and lateness of every cycle are
+ * recorded in TickStatistics, which can also be read through JMX.
+ *
  * @author monster
  */
 @ParametersAreNonnullByDefault
-public class Clock implements Runnable {
+public class Clock implements Runnable, ClockMXBean {
     /** The start time. */
     private final long startrTime = System.currentTimeMillis();
 
@@ -37,6 +49,15 @@ public class Clock implements Runnable {
     /** The number of nanoseconds in a millisecond. */
     private static final long NANOS_IN_MILLIS = 1000000L;
 
+    /** The duration of a cycle, in nanoseconds. */
+    public static final long CYCLE_NANOS = CYCLE * NANOS_IN_MILLIS;
+
+    /** How long before a deadline we stop parking, and start spinning. */
+    private static final long SPIN_NANOS = 2 * NANOS_IN_MILLIS;
+
+    /** Source of the clock IDs, to tell apart clocks in JMX. */
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
     /** The maximum number of actions a Mobile can do in one cycle. */
     public static final int MAX_SPEED = MobileType.MAX_SPEED;
 
@@ -52,12 +73,26 @@ public class Clock implements Runnable {
     /** The current cycle. */
     private final AtomicInteger cycle = new AtomicInteger();
 
+    /** What to do when a cycle takes too long. */
+    private volatile CatchUpPolicy catchUpPolicy = CatchUpPolicies.SKIP;
+
+    /** The cycle durations and lateness. */
+    private final TickStatistics statistics = new TickStatistics();
+
+    /** Should the statistics be reset on the next cycle? */
+    private volatile boolean resetStatistics;
+
+    /** The JMX name of this clock. */
+    private final String name = "com.blockwithme.hacktors:type=Clock,id="
+            + NEXT_ID.incrementAndGet();
+
     /** Constructor */
     public Clock(final World theWorld) {
         world = Preconditions.checkNotNull(theWorld);
     }
 
     /** The clock cycle. */
+    @Override
     public int getCycle() {
         return cycle.get();
     }
@@ -68,30 +103,174 @@ public class Clock implements Runnable {
     }
 
     /** Do we run in real-time, or do we wait for the user input? */
+    @Override
     public boolean isRealTime() {
         return realTime;
     }
 
+    /** Returns what to do when a cycle takes too long. */
+    public CatchUpPolicy getCatchUpPolicy() {
+        return catchUpPolicy;
+    }
+
+    /** Sets what to do when a cycle takes too long. */
+    public void setCatchUpPolicy(final CatchUpPolicy theCatchUpPolicy) {
+        catchUpPolicy = Preconditions.checkNotNull(theCatchUpPolicy);
+    }
+
+    /** Returns the cycle durations and lateness. */
+    public TickStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public String getCatchUpPolicyName() {
+        return catchUpPolicy.toString();
+    }
+
+    @Override
+    public long getMeasuredCycles() {
+        return statistics.getCycles();
+    }
+
+    @Override
+    public long getMeanCycleNanos() {
+        return statistics.getMeanNanos();
+    }
+
+    @Override
+    public long getCycleNanosP50() {
+        return statistics.getPercentileNanos(50);
+    }
+
+    @Override
+    public long getCycleNanosP90() {
+        return statistics.getPercentileNanos(90);
+    }
+
+    @Override
+    public long getCycleNanosP99() {
+        return statistics.getPercentileNanos(99);
+    }
+
+    @Override
+    public long getMaxCycleNanos() {
+        return statistics.getMaxNanos();
+    }
+
+    @Override
+    public long getOverruns() {
+        return statistics.getOverruns();
+    }
+
+    @Override
+    public long getDroppedCycles() {
+        return statistics.getDroppedCycles();
+    }
+
+    @Override
+    public long getLagNanos() {
+        return statistics.getLagNanos();
+    }
+
+    @Override
+    public long getMaxLagNanos() {
+        return statistics.getMaxLagNanos();
+    }
+
+    @Override
+    public void resetStatistics() {
+        resetStatistics = true;
+    }
+
+    /** Waits until the deadline, in System.nanoTime() time. */
+    private static void waitUntil(final long deadline) {
+        long remaining = deadline - System.nanoTime();
+        while (remaining > SPIN_NANOS) {
+            LockSupport.parkNanos(remaining - SPIN_NANOS);
+            remaining = deadline - System.nanoTime();
+        }
+        while (deadline - System.nanoTime() > 0) {
+            Thread.yield();
+        }
+    }
+
+    /** Runs one cycle, and records how long it took, and how late it started. */
+    private long update(final long lag) {
+        if (resetStatistics) {
+            resetStatistics = false;
+            statistics.reset();
+        }
+        final long before = System.nanoTime();
+        world.update();
+        final long after = System.nanoTime();
+        cycle.incrementAndGet();
+        statistics.record(after - before, lag);
+        return after;
+    }
+
+    /** Registers this clock with the platform MBean server. */
+    private void register() {
+        try {
+            final MBeanServer server = ManagementFactory
+                    .getPlatformMBeanServer();
+            server.registerMBean(this, new ObjectName(name));
+        } catch (final JMException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /** Unregisters this clock from the platform MBean server. */
+    private void unregister() {
+        try {
+            final MBeanServer server = ManagementFactory
+                    .getPlatformMBeanServer();
+            final ObjectName objectName = new ObjectName(name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (final JMException e) {
+            e.printStackTrace();
+        }
+    }
+
     /* (non-Javadoc)
      * @see java.lang.Runnable#run()
      */
     @Override
     public void run() {
+        register();
+        // Only meaningful in real-time mode.
+        long deadline = 0;
+        boolean wasRealTime = false;
         while (!stop) {
             try {
                 if (realTime) {
-                    final long before = System.nanoTime();
-                    world.update();
-                    final long after = System.nanoTime();
-                    final long duration = (after - before) / NANOS_IN_MILLIS;
-                    if (duration < CYCLE) {
-                        final long sleep = CYCLE - duration;
-                        Thread.sleep(sleep);
+                    if (!wasRealTime) {
+                        deadline = System.nanoTime();
+                        wasRealTime = true;
+                    }
+                    waitUntil(deadline);
+                    final long started = System.nanoTime();
+                    final long after = update(started - deadline);
+                    deadline += CYCLE_NANOS;
+                    if (after - deadline > 0) {
+                        final CatchUpPolicy policy = catchUpPolicy;
+                        final long next = policy.nextDeadline(deadline, after,
+                                CYCLE_NANOS);
+                        // A deadline already past when the cycle started
+                        // was counted by the cycle that overran it.
+                        if (started - deadline <= 0) {
+                            statistics.overrun();
+                        }
+                        statistics.dropped(policy.droppedCycles(deadline,
+                                next, CYCLE_NANOS));
+                        deadline = next;
                     }
                 } else {
-                    world.update();
+                    wasRealTime = false;
+                    update(0);
                 }
-                cycle.incrementAndGet();
             } catch (final Exception | Error e) {
                 e.printStackTrace();
                 stop = true;
@@ -103,6 +282,16 @@ public class Clock implements Runnable {
                 mobile.getController().stop();
             }
         });
+        world.close();
+        unregister();
+    }
+
+    /**
+     * Runs one cycle right away, on the calling thread, outside of run().
+     * Used to run the game headless, as fast as possible.
+     */
+    public void step() {
+        update(0);
     }
 
     /** Sets the real-time flag. */
@@ -0,0 +1,69 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+/**
+ * The management interface of the Clock, as registered with JMX while it
+ * runs. Durations are in nanoseconds.
+ *
+ * @author monster
+ */
+public interface ClockMXBean {
+    /** The clock cycle. */
+    int getCycle();
+
+    /** Do we run in real-time, or do we wait for the user input? */
+    boolean isRealTime();
+
+    /** The name of the catch-up policy. */
+    String getCatchUpPolicyName();
+
+    /** Number of cycles measured. */
+    long getMeasuredCycles();
+
+    /** Mean duration of a cycle. */
+    long getMeanCycleNanos();
+
+    /** Median duration of a cycle. */
+    long getCycleNanosP50();
+
+    /** 90th percentile of the duration of a cycle. */
+    long getCycleNanosP90();
+
+    /** 99th percentile of the duration of a cycle. */
+    long getCycleNanosP99();
+
+    /** Longest duration of a cycle. */
+    long getMaxCycleNanos();
+
+    /**
+     * Number of cycles that ended after the deadline of the next one.
+     * Cycles that started late, to catch up, do not count.
+     */
+    long getOverruns();
+
+    /** Number of cycles of real time that the game did not run. */
+    long getDroppedCycles();
+
+    /** How late the last cycle started. */
+    long getLagNanos();
+
+    /** How late a cycle started at most. */
+    long getMaxLagNanos();
+
+    /** Forgets the measures, on the next cycle. */
+    void resetStatistics();
+}
@@ -52,6 +52,12 @@ public class Direction extends Enum40<Direction> {
     /** The normal directions. */
     private transient Direction[] normal;
 
+    /** The change in X of one step in this direction. */
+    private transient int dx;
+
+    /** The change in Y of one step in this direction. */
+    private transient int dy;
+
     /** Default constructor. */
     protected Direction(final char theDisplay) {
         this(Direction.class, theDisplay);
@@ -81,6 +87,16 @@ public class Direction extends Enum40<Direction> {
         return normal;
     }
 
+    /** The change in X of one step in this direction. */
+    public int getDX() {
+        return dx;
+    }
+
+    /** The change in Y of one step in this direction. */
+    public int getDY() {
+        return dy;
+    }
+
     /** Chooses one direction at random. */
     public static Direction choose() {
         return VALUES[Util.nextInt(VALUES.length)];
@@ -91,15 +107,19 @@ public class Direction extends Enum40<Direction> {
         if (this == XDown) {
             opposite = XUp;
             normal = new Direction[] { YUp, YDown };
+            dx = 1;
         } else if (this == XUp) {
             opposite = XDown;
             normal = new Direction[] { YUp, YDown };
+            dx = -1;
         } else if (this == YUp) {
             opposite = YDown;
             normal = new Direction[] { XDown, XUp };
+            dy = 1;
         } else if (this == YDown) {
             opposite = YUp;
             normal = new Direction[] { XDown, XUp };
+            dy = -1;
         }
     }
 }
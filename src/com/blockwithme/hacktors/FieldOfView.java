@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Computes what can be seen from a cell, with recursive shadowcasting over
+ * the solid blocks. Solid blocks are seen, but hide what is behind them.
+ * Ungenerated chunks hide everything.
+ *
+ * The views are cached by origin cell and radius, in a direct-mapped cache.
+ * A cached view is only used if none of the chunks it covers changed it's
+ * solid cells since. Every thread has it's own cache, so that views can
+ * be computed in parallel.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class FieldOfView {
+    /** The largest supported radius. */
+    public static final int MAX_RADIUS = 15;
+
+    /** Width and height of the largest view. */
+    private static final int MAX_SIZE = 2 * MAX_RADIUS + 1;
+
+    /** Maximum number of chunks covered by a view, in each axis. */
+    private static final int CHUNKS = (MAX_SIZE + Chunk.X - 2) / Chunk.X + 1;
+
+    /** Number of cached views; a power of two. */
+    private static final int ENTRIES = 1024;
+
+    /** The octant transformations, for shadowcasting. */
+    private static final int[][] OCTANTS = { { 1, 0, 0, 1 }, { 0, 1, 1, 0 },
+            { 0, -1, 1, 0 }, { -1, 0, 0, 1 }, { -1, 0, 0, -1 },
+            { 0, -1, -1, 0 }, { 0, 1, -1, 0 }, { 1, 0, 0, -1 } };
+
+    /**
+     * The cells seen from an origin, within a square radius.
+     * A View returned by FieldOfView is only valid until the next call,
+     * in the same thread.
+     */
+    public static final class View {
+        /** The level; -1 if not computed. */
+        private int z = -1;
+
+        /** The origin X. */
+        private int x;
+
+        /** The origin Y. */
+        private int y;
+
+        /** The radius. */
+        private int radius;
+
+        /** The solid versions of the covered chunks; 0 if missing. */
+        private final long[] versions = new long[CHUNKS * CHUNKS];
+
+        /** One bit per cell of the view. */
+        private final long[] bits = new long[(MAX_SIZE * MAX_SIZE + 63) / 64];
+
+        /** Returns true, if the cell can be seen. */
+        public boolean isVisible(final int theX, final int theY) {
+            final int size = 2 * radius + 1;
+            final int dx = theX - x + radius;
+            final int dy = theY - y + radius;
+            if ((dx < 0) || (dx >= size) || (dy < 0) || (dy >= size)) {
+                return false;
+            }
+            final int index = dx + size * dy;
+            return (bits[index / 64] & (1L << index)) != 0;
+        }
+
+        /** Marks a cell as seen. */
+        private void see(final int theX, final int theY) {
+            final int size = 2 * radius + 1;
+            final int index = (theX - x + radius) + size * (theY - y + radius);
+            bits[index / 64] |= 1L << index;
+        }
+    }
+
+    /**
+     * The cached views of one thread. They are all created up front, so
+     * that looking around never allocates.
+     */
+    private static final class Cache {
+        /** The cached views. */
+        final View[] views = new View[ENTRIES];
+
+        /** Constructor */
+        Cache() {
+            for (int i = 0; i < ENTRIES; i++) {
+                views[i] = new View();
+            }
+        }
+
+        /** Number of views computed so far. */
+        volatile int computeCount;
+
+        /** Number of views asked for so far. */
+        volatile int viewCount;
+    }
+
+    /** The game World */
+    private final World world;
+
+    /** All the caches, for the statistics. */
+    private final List<Cache> caches = new ArrayList<>();
+
+    /** The cache of each thread. */
+    private final ThreadLocal<Cache> cache = new ThreadLocal<Cache>() {
+        @Override
+        protected Cache initialValue() {
+            final Cache result = new Cache();
+            synchronized (caches) {
+                caches.add(result);
+            }
+            return result;
+        }
+    };
+
+    /** Constructor */
+    public FieldOfView(final World theWorld) {
+        world = Preconditions.checkNotNull(theWorld);
+    }
+
+    /** Returns the number of views computed so far. */
+    public int getComputeCount() {
+        int result = 0;
+        synchronized (caches) {
+            for (final Cache c : caches) {
+                result += c.computeCount;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the number of views asked for so far. */
+    public int getViewCount() {
+        int result = 0;
+        synchronized (caches) {
+            for (final Cache c : caches) {
+                result += c.viewCount;
+            }
+        }
+        return result;
+    }
+
+    /** Returns the view of a mobile, using it's perception as radius. */
+    public View view(final Mobile mobile) {
+        return view(mobile.getZ(), mobile.getX(), mobile.getY(), mobile
+                .getType().getPerception());
+    }
+
+    /**
+     * Returns the cells seen from (x,y) on level z, within radius cells on
+     * both axis. The View is only valid until the next call, in the same
+     * thread.
+     */
+    public View view(final int z, final int x, final int y, final int radius) {
+        if ((radius < 0) || (radius > MAX_RADIUS)) {
+            throw new IllegalArgumentException("radius must be withing [0,"
+                    + MAX_RADIUS + "]: " + radius);
+        }
+        final Cache views = cache.get();
+        views.viewCount++;
+        int hash = (x * 0x9E3779B1) ^ (y * 0x85EBCA6B) ^ (z * 0xC2B2AE35)
+                ^ radius;
+        hash ^= hash >>> 16;
+        final int index = hash & (ENTRIES - 1);
+        final View result = views.views[index];
+        final Level level = world.getLevel(z);
+        if ((result.z == z) && (result.x == x) && (result.y == y)
+                && (result.radius == radius)
+                && checkVersions(result, level, false)) {
+            return result;
+        }
+        result.z = z;
+        result.x = x;
+        result.y = y;
+        result.radius = radius;
+        checkVersions(result, level, true);
+        views.computeCount++;
+        compute(result, level);
+        return result;
+    }
+
+    /** Returns the chunk, using chunk position, or null. */
+    private static Chunk chunk(final Level level, final int cx, final int cy) {
+        if ((cx < 0) || (cx >= Level.X) || (cy < 0) || (cy >= Level.Y)) {
+            return null;
+        }
+        return level.getChunks()[cx + Level.X * cy];
+    }
+
+    /**
+     * Checks the versions of the chunks covered by the view against the
+     * recorded ones. Records the current ones if record is true. Returns
+     * true if they all matched.
+     */
+    private static boolean checkVersions(final View view,
+            final Level level, final boolean record) {
+        // The view is clipped to the world, so it never starts below 0.
+        final int cxMin = Math.max(0, view.x - view.radius) / Chunk.X;
+        final int cyMin = Math.max(0, view.y - view.radius) / Chunk.Y;
+        boolean result = true;
+        for (int i = 0; i < CHUNKS; i++) {
+            for (int j = 0; j < CHUNKS; j++) {
+                final Chunk chunk = (level == null) ? null : chunk(level,
+                        cxMin + i, cyMin + j);
+                final long version = (chunk == null) ? 0 : chunk
+                        .getSolidVersion();
+                final int index = i + CHUNKS * j;
+                if (view.versions[index] != version) {
+                    result = false;
+                    if (!record) {
+                        return false;
+                    }
+                    view.versions[index] = version;
+                }
+            }
+        }
+        return result;
+    }
+
+    /** Returns true, if light cannot go through a cell. */
+    private static boolean opaque(final Level level, final int x, final int y) {
+        if ((x < 0) || (x >= World.X) || (y < 0) || (y >= World.Y)) {
+            return true;
+        }
+        final Chunk chunk = chunk(level, x / Chunk.X, y / Chunk.Y);
+        return (chunk == null) || chunk.solid(x, y);
+    }
+
+    /** Computes a view. */
+    private void compute(final View view, final Level level) {
+        Arrays.fill(view.bits, 0);
+        if ((level == null) || !world.isValid(view.x, view.y, view.z)) {
+            return;
+        }
+        view.see(view.x, view.y);
+        for (final int[] octant : OCTANTS) {
+            castLight(view, level, 1, 1.0f, 0.0f, octant[0], octant[1],
+                    octant[2], octant[3]);
+        }
+    }
+
+    /**
+     * Lights the rows of one octant, from row on, between the start and end
+     * slopes. Recurses when a wall splits the light.
+     */
+    private static void castLight(final View view, final Level level,
+            final int row, final float theStart, final float end,
+            final int xx, final int xy, final int yx, final int yy) {
+        float start = theStart;
+        if (start < end) {
+            return;
+        }
+        final int radius = view.radius;
+        float newStart = 0.0f;
+        boolean blocked = false;
+        for (int distance = row; (distance <= radius) && !blocked; distance++) {
+            final int dy = -distance;
+            for (int dx = -distance; dx <= 0; dx++) {
+                final float leftSlope = (dx - 0.5f) / (dy + 0.5f);
+                final float rightSlope = (dx + 0.5f) / (dy - 0.5f);
+                if (start < rightSlope) {
+                    continue;
+                } else if (end > leftSlope) {
+                    break;
+                }
+                final int x = view.x + dx * xx + dy * xy;
+                final int y = view.y + dx * yx + dy * yy;
+                view.see(x, y);
+                final boolean opaque = opaque(level, x, y);
+                if (blocked) {
+                    if (opaque) {
+                        newStart = rightSlope;
+                    } else {
+                        blocked = false;
+                        start = newStart;
+                    }
+                } else if (opaque && (distance < radius)) {
+                    blocked = true;
+                    castLight(view, level, distance + 1, start, leftSlope,
+                            xx, xy, yx, yy);
+                    newStart = rightSlope;
+                }
+            }
+        }
+    }
+}
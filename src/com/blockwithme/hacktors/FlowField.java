@@ -0,0 +1,439 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A breadth-first distance field toward one target, over the solid blocks
+ * of a square window centred on the target.
+ *
+ * Any number of mobiles can read their next step from the same field, in
+ * constant time. Mobiles are ignored when computing the field, since they
+ * move all the time; ungenerated chunks count as solid. The field is only
+ * recomputed when the target moves. When a chunk in the window changed
+ * it's solid cells, the field is only repaired around the changed cells.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class FlowField {
+    /** How far from the target the field goes, in cells. */
+    public static final int RADIUS = 32;
+
+    /** Width and height of the window, in cells. */
+    private static final int SIZE = 2 * RADIUS + 1;
+
+    /** Number of cells of the window. */
+    private static final int CELLS = SIZE * SIZE;
+
+    /** The cell of the target, in the window. */
+    private static final int START = RADIUS + SIZE * RADIUS;
+
+    /** Above this number of changed cells, the field is recomputed. */
+    private static final int MAX_REPAIR = CELLS / 8;
+
+    /** Maximum number of chunks covered by the window, in each axis. */
+    private static final int CHUNKS = (SIZE + Chunk.X - 2) / Chunk.X + 1;
+
+    /** Distance of the cells that cannot reach the target. */
+    private static final short UNREACHABLE = Short.MAX_VALUE;
+
+    /** The distance to the target, of every cell of the window. */
+    private final short[] distances = new short[CELLS];
+
+    /** The BFS queue, reused. */
+    private final int[] queue = new int[CELLS];
+
+    /** The cells to repair, reused. */
+    private final int[] seeds = new int[CELLS];
+
+    /** The cells of the window that can be walked on. */
+    private final boolean[] open = new boolean[CELLS];
+
+    /** The solid versions of the chunks in the window; 0 if missing. */
+    private final long[] versions = new long[CHUNKS * CHUNKS];
+
+    /** The target. */
+    private Mobile target;
+
+    /** The target X, when the field was computed. */
+    private int targetX;
+
+    /** The target Y, when the field was computed. */
+    private int targetY;
+
+    /** The target Z, when the field was computed; -1 if never computed. */
+    private int targetZ = -1;
+
+    /** Number of times the field was computed. */
+    private int computeCount;
+
+    /** Number of times the field was repaired. */
+    private int repairCount;
+
+    /** Returns the target. */
+    public Mobile getTarget() {
+        return target;
+    }
+
+    /** Returns the number of times the field was computed. */
+    public int getComputeCount() {
+        return computeCount;
+    }
+
+    /** Returns the number of times the field was repaired. */
+    public int getRepairCount() {
+        return repairCount;
+    }
+
+    /** Returns the level containing the target, if the target is attached. */
+    private Level level() {
+        final World world = (target == null) ? null : target.getWorld();
+        return (world == null) ? null : world.getLevel(target.getZ());
+    }
+
+    /** Returns the solid version of a chunk, using chunk position. */
+    private static long version(final Level level, final int cx, final int cy) {
+        if ((cx < 0) || (cx >= Level.X) || (cy < 0) || (cy >= Level.Y)) {
+            return 0;
+        }
+        final Chunk chunk = level.peekChunk(cx, cy);
+        return (chunk == null) ? 0 : chunk.getSolidVersion();
+    }
+
+    /**
+     * Checks the versions of the chunks in the window against the recorded
+     * ones. Records the current ones if record is true. Returns true if
+     * they all matched.
+     */
+    private boolean checkVersions(final Level level, final boolean record) {
+        // The window is clipped to the world, so it never starts below 0.
+        final int cxMin = Math.max(0, targetX - RADIUS) / Chunk.X;
+        final int cyMin = Math.max(0, targetY - RADIUS) / Chunk.Y;
+        boolean result = true;
+        for (int i = 0; i < CHUNKS; i++) {
+            for (int j = 0; j < CHUNKS; j++) {
+                final long version = version(level, cxMin + i, cyMin + j);
+                final int index = i + CHUNKS * j;
+                if (versions[index] != version) {
+                    result = false;
+                    if (!record) {
+                        return false;
+                    }
+                    versions[index] = version;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Follows a new target, or the same target again. Recomputes, or
+     * repairs, the field if needed, and returns true if it did.
+     */
+    public boolean update(final Mobile theTarget) {
+        final boolean sameTarget = (target == theTarget);
+        target = theTarget;
+        final Level level = level();
+        if (level == null) {
+            targetZ = -1;
+            return false;
+        }
+        final int x = target.getX();
+        final int y = target.getY();
+        final int z = target.getZ();
+        if (sameTarget && (x == targetX) && (y == targetY) && (z == targetZ)) {
+            if (checkVersions(level, false)) {
+                return false;
+            }
+            if (repair(level)) {
+                return true;
+            }
+        }
+        targetX = x;
+        targetY = y;
+        targetZ = z;
+        checkVersions(level, true);
+        compute(level);
+        return true;
+    }
+
+    /** Returns true, if a cell of the window can be walked on. */
+    private static boolean walkable(final Level level, final int x,
+            final int y) {
+        if ((x < 0) || (x >= World.X) || (y < 0) || (y >= World.Y)) {
+            return false;
+        }
+        final Chunk chunk = level.peekChunkOf(x, y);
+        return (chunk != null) && !chunk.solid(x, y);
+    }
+
+    /**
+     * Computes the distances, with a breadth-first search from the target.
+     *
+     * The whole field is recomputed, rather than relaxed from the previous
+     * one: with 4 directions the grid is bipartite, so when the target
+     * makes one step, the distance of every reachable cell changes. The
+     * window is scanned once instead, rather than once per neighbour.
+     */
+    private void compute(final Level level) {
+        computeCount++;
+        Arrays.fill(distances, UNREACHABLE);
+        final int xMin = targetX - RADIUS;
+        final int yMin = targetY - RADIUS;
+        for (int wy = 0; wy < SIZE; wy++) {
+            for (int wx = 0; wx < SIZE; wx++) {
+                open[wx + SIZE * wy] = walkable(level, xMin + wx, yMin + wy);
+            }
+        }
+        int head = 0;
+        int tail = 0;
+        distances[START] = 0;
+        queue[tail++] = START;
+        while (head < tail) {
+            final int cell = queue[head++];
+            final int cellX = cell % SIZE;
+            final int cellY = cell / SIZE;
+            final short next = (short) (distances[cell] + 1);
+            if (cellX > 0) {
+                tail = visit(cell - 1, next, tail);
+            }
+            if (cellX < SIZE - 1) {
+                tail = visit(cell + 1, next, tail);
+            }
+            if (cellY > 0) {
+                tail = visit(cell - SIZE, next, tail);
+            }
+            if (cellY < SIZE - 1) {
+                tail = visit(cell + SIZE, next, tail);
+            }
+        }
+    }
+
+    /** Returns a neighbour of a cell of the window, or -1 if outside. */
+    private static int neighbour(final int cell, final Direction direction) {
+        final int x = cell % SIZE + direction.getDX();
+        final int y = cell / SIZE + direction.getDY();
+        if ((x < 0) || (x >= SIZE) || (y < 0) || (y >= SIZE)) {
+            return -1;
+        }
+        return x + SIZE * y;
+    }
+
+    /**
+     * Repairs the field, when the target did not move, but chunks in the
+     * window changed. Returns false if the field must be computed again,
+     * because too many cells changed, or the cell of the target.
+     *
+     * The cells of the changed chunks are scanned again, to find the ones
+     * that opened, or closed. The cells that relied on a closed cell to
+     * reach the target, and had no other neighbour as close, lose their
+     * distance, like the cells that relied on them, and so on. Those, and
+     * the opened cells, then start from their best neighbour, and the
+     * distances are lowered from there, in increasing order, like in a
+     * breadth-first search. Entries of the queues hold the cell, and it's
+     * distance at the time, as cell + CELLS * distance.
+     */
+    private boolean repair(final Level level) {
+        final int xMin = targetX - RADIUS;
+        final int yMin = targetY - RADIUS;
+        final int cxMin = Math.max(0, xMin) / Chunk.X;
+        final int cyMin = Math.max(0, yMin) / Chunk.Y;
+        int tail = 0;
+        int count = 0;
+        for (int i = 0; i < CHUNKS; i++) {
+            for (int j = 0; j < CHUNKS; j++) {
+                final int cx = cxMin + i;
+                final int cy = cyMin + j;
+                final long version = version(level, cx, cy);
+                final int index = i + CHUNKS * j;
+                if (versions[index] == version) {
+                    continue;
+                }
+                versions[index] = version;
+                final int wxMin = Math.max(0, cx * Chunk.X - xMin);
+                final int wyMin = Math.max(0, cy * Chunk.Y - yMin);
+                final int wxMax = Math.min(SIZE, (cx + 1) * Chunk.X - xMin);
+                final int wyMax = Math.min(SIZE, (cy + 1) * Chunk.Y - yMin);
+                for (int wy = wyMin; wy < wyMax; wy++) {
+                    for (int wx = wxMin; wx < wxMax; wx++) {
+                        final int cell = wx + SIZE * wy;
+                        final boolean walkable = walkable(level, xMin + wx,
+                                yMin + wy);
+                        if (walkable == open[cell]) {
+                            continue;
+                        }
+                        if ((cell == START) || (tail + count == MAX_REPAIR)) {
+                            return false;
+                        }
+                        open[cell] = walkable;
+                        if (walkable) {
+                            seeds[count++] = cell;
+                        } else if (distances[cell] != UNREACHABLE) {
+                            queue[tail++] = cell + CELLS * distances[cell];
+                            distances[cell] = UNREACHABLE;
+                        }
+                    }
+                }
+            }
+        }
+        repairCount++;
+        // Forget the distances that went through the closed cells.
+        int head = 0;
+        while (head < tail) {
+            final int entry = queue[head++];
+            final int next = entry / CELLS + 1;
+            for (final Direction direction : Direction.VALUES) {
+                final int cell = neighbour(entry % CELLS, direction);
+                if ((cell >= 0) && (distances[cell] == next)
+                        && !supported(cell)) {
+                    distances[cell] = UNREACHABLE;
+                    queue[tail++] = cell + CELLS * next;
+                    seeds[count++] = cell;
+                }
+            }
+        }
+        // Start the forgotten, and opened, cells from their best neighbour.
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            final int cell = seeds[i];
+            int best = UNREACHABLE;
+            for (final Direction direction : Direction.VALUES) {
+                final int other = neighbour(cell, direction);
+                if ((other >= 0) && (distances[other] < best)) {
+                    best = distances[other];
+                }
+            }
+            if (best != UNREACHABLE) {
+                distances[cell] = (short) (best + 1);
+                seeds[start++] = cell + CELLS * (best + 1);
+            }
+        }
+        Arrays.sort(seeds, 0, start);
+        // Lower the distances, taking the nearest of both queues each time.
+        int seed = 0;
+        head = 0;
+        tail = 0;
+        while ((seed < start) || (head < tail)) {
+            final int entry;
+            if ((head == tail)
+                    || ((seed < start) && (seeds[seed] / CELLS <= queue[head]
+                            / CELLS))) {
+                entry = seeds[seed++];
+            } else {
+                entry = queue[head++];
+            }
+            final int distance = entry / CELLS;
+            final int cell = entry % CELLS;
+            if (distances[cell] != distance) {
+                // Lowered since.
+                continue;
+            }
+            final short next = (short) (distance + 1);
+            for (final Direction direction : Direction.VALUES) {
+                final int other = neighbour(cell, direction);
+                if ((other >= 0) && open[other] && (distances[other] > next)) {
+                    distances[other] = next;
+                    queue[tail++] = other + CELLS * next;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true, if a cell still has a neighbour one step closer to the
+     * target than itself.
+     */
+    private boolean supported(final int cell) {
+        final int previous = distances[cell] - 1;
+        for (final Direction direction : Direction.VALUES) {
+            final int other = neighbour(cell, direction);
+            if ((other >= 0) && (distances[other] == previous)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Queues a neighbour cell at the given distance, if it's open and was
+     * not reached yet. Returns the new tail of the queue.
+     */
+    private int visit(final int neighbour, final short distance,
+            final int tail) {
+        if ((distances[neighbour] == UNREACHABLE) && open[neighbour]) {
+            distances[neighbour] = distance;
+            queue[tail] = neighbour;
+            return tail + 1;
+        }
+        return tail;
+    }
+
+    /**
+     * Returns the distance to the target, in steps, from the given cell of
+     * the target's level. Returns -1 if unknown or unreachable.
+     */
+    public int distance(final int x, final int y) {
+        if (targetZ < 0) {
+            return -1;
+        }
+        final int wx = x - targetX + RADIUS;
+        final int wy = y - targetY + RADIUS;
+        if ((wx < 0) || (wx >= SIZE) || (wy < 0) || (wy >= SIZE)) {
+            return -1;
+        }
+        final short result = distances[wx + SIZE * wy];
+        return (result == UNREACHABLE) ? -1 : result;
+    }
+
+    /**
+     * Returns the direction of the next step toward the target, from the
+     * given cell of the target's level. Cells occupied by other mobiles are
+     * avoided. Returns null if there is no free step getting closer.
+     */
+    public Direction nextStep(final int x, final int y) {
+        final int distance = distance(x, y);
+        if (distance <= 0) {
+            return null;
+        }
+        final Level level = level();
+        if ((level == null) || (target.getZ() != targetZ)) {
+            return null;
+        }
+        Direction result = null;
+        int best = distance;
+        for (final Direction direction : Direction.VALUES) {
+            final int nx = x + direction.getDX();
+            final int ny = y + direction.getDY();
+            final int dst = distance(nx, ny);
+            if ((dst >= 0) && (dst < best)) {
+                final Chunk chunk = level.peekChunkOf(nx, ny);
+                // The last step is toward the target itself. The chunk can
+                // have been freed since the field was computed.
+                if ((dst == 0)
+                        || ((chunk != null) && !chunk.occupied(nx, ny))) {
+                    best = dst;
+                    result = direction;
+                }
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Maintains one FlowField per player, on the player's level, so that all
+ * the mobiles hunting a player share the same path search.
+ *
+ * The fields are brought up to date at the start of every cycle.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class FlowFields {
+    /** The game World */
+    private final World world;
+
+    /** The fields; the first getPlayerCount() follow the players. */
+    private final List<FlowField> fields = new ArrayList<>();
+
+    /** Constructor */
+    public FlowFields(final World theWorld) {
+        world = Preconditions.checkNotNull(theWorld);
+    }
+
+    /** Runs at the start of a cycle: updates the field of every player. */
+    public void update() {
+        final int players = world.getPlayerCount();
+        while (fields.size() < players) {
+            fields.add(new FlowField());
+        }
+        for (int i = 0; i < players; i++) {
+            fields.get(i).update(world.getPlayer(i));
+        }
+    }
+
+    /** Returns the field toward the target, or null if it has none. */
+    public FlowField get(final Mobile target) {
+        final int players = Math.min(world.getPlayerCount(), fields.size());
+        for (int i = 0; i < players; i++) {
+            final FlowField field = fields.get(i);
+            if (field.getTarget() == target) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the direction of the next step of the mobile, toward the
+     * target. Returns null if the target has no field, or the field does
+     * not know a way.
+     */
+    public Direction nextStep(final Mobile mobile, final Mobile target) {
+        final FlowField field = get(target);
+        if ((field == null) || (mobile.getWorld() != world)
+                || (mobile.getZ() != target.getZ())) {
+            return null;
+        }
+        return field.nextStep(mobile.getX(), mobile.getY());
+    }
+}
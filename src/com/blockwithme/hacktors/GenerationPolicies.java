@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Defines the possible chunk generation policies.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class GenerationPolicies {
+    /** Cannot be instantiated. */
+    private GenerationPolicies() {
+        // NOP
+    }
+
+    /**
+     * Only the players cause generation. For the other mobiles, the world
+     * ends where the generated chunks end.
+     */
+    public static final GenerationPolicy PLAYERS_ONLY = new GenerationPolicy() {
+        @Override
+        public boolean mayGenerate(final World world, final Mobile mobile,
+                final int x, final int y, final int z) {
+            return world.isPlayer(mobile);
+        }
+    };
+
+    /**
+     * Every mobile causes generation. The world then keeps growing on it's
+     * own, since new chunks come with new mobiles.
+     */
+    public static final GenerationPolicy EVERYONE = new GenerationPolicy() {
+        @Override
+        public boolean mayGenerate(final World world, final Mobile mobile,
+                final int x, final int y, final int z) {
+            return true;
+        }
+    };
+}
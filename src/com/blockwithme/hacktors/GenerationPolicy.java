@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Decides which mobiles may cause the generation of new chunks, when they
+ * try to act on a part of the world that does not exist yet.
+ *
+ * Chunks generated in the background, around the players, do not depend on
+ * this policy.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public interface GenerationPolicy {
+    /** Returns true, if the mobile may cause the generation of the chunk at (x,y,z). */
+    boolean mayGenerate(final World world, final Mobile mobile, final int x,
+            final int y, final int z);
+}
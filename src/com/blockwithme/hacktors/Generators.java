@@ -38,6 +38,19 @@ public final class Generators {
         // NOP
     }
 
+    /**
+     * Sets a block of the given type. Only containers need a Block instance;
+     * all other types are stored as a type alone.
+     */
+    private static void setBlockLocal(final Chunk chunk, final int x,
+            final int y, final BlockType type) {
+        if (type.isContainer()) {
+            chunk.setBlockLocal(x, y, Block.create(type));
+        } else {
+            chunk.setBlockTypeLocal(x, y, type);
+        }
+    }
+
     /** Fills in N block at random with specific type. */
     private static void fillNBlocks(final Chunk chunk, final int n,
             final BlockType type) {
@@ -45,16 +58,16 @@ public final class Generators {
         for (int i = 0; i < n; i++) {
             final int x = Util.nextInt(Chunk.X);
             final int y = Util.nextInt(Chunk.Y);
-            Block block = Block.create(type);
-            if ((type == null) && (block.getType() == BlockType.StairsUp)
+            BlockType blockType = (type == null) ? BlockType.choose() : type;
+            if ((type == null) && (blockType == BlockType.StairsUp)
                     && (z == 0)) {
-                block = Block.create(BlockType.StairsDown);
+                blockType = BlockType.StairsDown;
             }
-            if ((type == null) && (block.getType() == BlockType.StairsDown)
+            if ((type == null) && (blockType == BlockType.StairsDown)
                     && (z == World.Z - 1)) {
-                block = Block.create(BlockType.StairsUp);
+                blockType = BlockType.StairsUp;
             }
-            chunk.setBlockLocal(x, y, block);
+            setBlockLocal(chunk, x, y, blockType);
         }
     }
 
@@ -147,20 +160,17 @@ public final class Generators {
                 final int hx, final int hy) {
             // First the walls
             for (int j = 1; j < HOUSE_WALL_LEN - 1; j++) {
-                chunk.setBlockLocal(hx + j, hy, Block.create(blockType));
-                chunk.setBlockLocal(hx + j, hy + TEN / 2,
-                        Block.create(blockType));
-                chunk.setBlockLocal(hx, hy + j, Block.create(blockType));
-                chunk.setBlockLocal(hx + TEN / 2, hy + j,
-                        Block.create(blockType));
+                chunk.setBlockTypeLocal(hx + j, hy, blockType);
+                chunk.setBlockTypeLocal(hx + j, hy + TEN / 2, blockType);
+                chunk.setBlockTypeLocal(hx, hy + j, blockType);
+                chunk.setBlockTypeLocal(hx + TEN / 2, hy + j, blockType);
             }
             // Do we fill the corners too?
             if (Util.nextBoolean()) {
                 for (int j = 0; j < CORNERS.length / 2; j++) {
                     final int cornerX = hx + CORNERS[j * 2];
                     final int cornerY = hy + CORNERS[j * 2 + 1];
-                    chunk.setBlockLocal(cornerX, cornerY,
-                            Block.create(blockType));
+                    chunk.setBlockTypeLocal(cornerX, cornerY, blockType);
                 }
             }
             // Now the door ...
@@ -169,7 +179,7 @@ public final class Generators {
             final int doorY = hy + DOORS[door * 2 + 1];
             final BlockType doorType = Util.nextBoolean() ? BlockType.OpenDoor
                     : BlockType.ClosedDoor;
-            chunk.setBlockLocal(doorX, doorY, Block.create(doorType));
+            chunk.setBlockTypeLocal(doorX, doorY, doorType);
             // Now the chest
             final BlockType chestType = Util.nextBoolean() ? BlockType.ClosedChest
                     : BlockType.OpenChest;
@@ -186,12 +196,12 @@ public final class Generators {
             final BlockType blockType = /*Util.nextBoolean() ? BlockType.Stone
                                         : */BlockType.Earth;
             for (int x = 0; x < Chunk.X; x++) {
-                chunk.setBlockLocal(x, 0, Block.create(blockType));
-                chunk.setBlockLocal(x, Chunk.Y - 1, Block.create(blockType));
+                chunk.setBlockTypeLocal(x, 0, blockType);
+                chunk.setBlockTypeLocal(x, Chunk.Y - 1, blockType);
             }
             for (int y = 0; y < Chunk.Y; y++) {
-                chunk.setBlockLocal(0, y, Block.create(blockType));
-                chunk.setBlockLocal(Chunk.X - 1, y, Block.create(blockType));
+                chunk.setBlockTypeLocal(0, y, blockType);
+                chunk.setBlockTypeLocal(Chunk.X - 1, y, blockType);
             }
             fillNMobiles(chunk, TEN * 2, null);
         }
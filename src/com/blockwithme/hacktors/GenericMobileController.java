@@ -15,30 +15,32 @@
  */
 package com.blockwithme.hacktors;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
 import javax.annotation.ParametersAreNonnullByDefault;
 
-import lombok.Data;
-
 /**
  * Generic MobileController for monsters.
  *
- * It makes all monsters behave the same except dependent on the food
- * preferences, health, ...
+ * What it does is decided by the Behavior of the mobile type: it computes
+ * the facts about the mobile and what it sees once, and then runs the
+ * action of the first matching rule. The behavior is shared by all the
+ * mobiles of a type; only the per-mobile memory lives in the controller.
+ *
+ * Deciding does not allocate anything in steady state: the perception
+ * results go into per-thread scratch buffers, that are reused on every
+ * call, and only primitive coordinates are used. Deciding only plans an
+ * Intent, without changing the world, so the mobiles can decide in
+ * parallel. The random choices use the own generator of the controller,
+ * so that they do not depend on the order in which the mobiles decide.
  *
  * @author monster
  */
 @ParametersAreNonnullByDefault
-public class GenericMobileController extends AbstractMobileController {
-
-    @Data
-    private class ItemPos {
-        public final Item item;
-        public final int x;
-        public final int y;
-    }
+public class GenericMobileController extends AbstractMobileController
+        implements IntentController {
 
     /** Mobiles are scared if they have less then that much life. */
     private static final float MIN_LIFE = 0.333f;
@@ -49,21 +51,139 @@ public class GenericMobileController extends AbstractMobileController {
     /** Mobiles are hungry if they have less then that much life. */
     private static final float HUNGRY = 0.75f;
 
+    /** Other mobiles closer than that are right next to us. */
+    private static final float NEAR = 1.05f;
+
+    /** Mobiles farther than that from home go back; out of sight of it. */
+    private static final float HOME_RANGE = 2 * MobileType.MAX_PERCEPTION;
+
+    /** Mobiles fall asleep after that many idle activations in a row. */
+    private static final int SLEEP_AFTER = 16;
+
+    /** The facts about things we could care about, in sight. */
+    private static final int INTERESTING = Behavior.ENEMY_SEEN
+            | Behavior.PREY_SEEN | Behavior.ITEM_SEEN;
+
+    /** Reusable buffers for one decision. */
+    private static final class Scratch {
+        /** All mobiles seen. */
+        final List<Mobile> seen = new ArrayList<>();
+
+        /** The mobiles to run away from. */
+        final List<Mobile> enemies = new ArrayList<>();
+
+        /** The mobiles to attack. */
+        final List<Mobile> preys = new ArrayList<>();
+
+        /** All items seen. */
+        final ItemHits seenItems = new ItemHits();
+
+        /** The items we could eat. */
+        final ItemHits foods = new ItemHits();
+
+        /** The other items we want. */
+        final ItemHits wants = new ItemHits();
+
+        /** The intent, when deciding and acting at once. */
+        final Intent intent = new Intent();
+
+        /** Forgets everything, so that nothing is kept alive. */
+        void clear() {
+            seen.clear();
+            enemies.clear();
+            preys.clear();
+            seenItems.clear();
+            foods.clear();
+            wants.clear();
+        }
+    }
+
+    /** The scratch buffers of each thread. */
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    /** The behavior of the mobile type. */
+    private final Behavior behavior;
+
     /** The mobile */
     private Mobile mobile;
 
     /** Did the last move succeed? */
     private boolean lastMoveFailed;
 
-    /** Returns ture, if stuff is a suitable food. */
-    private static boolean food(final ItemType[] foodTypes, final Item stuff) {
-        final ItemType type = stuff.getType();
-        for (final ItemType food : foodTypes) {
-            if (type == food) {
-                return true;
-            }
+    /** The rule that planned the current intent; -1 if none. */
+    private int plannedRule = -1;
+
+    /** The facts the current intent was planned from. */
+    private int plannedFacts;
+
+    /**
+     * A rule whose intent failed when applied; it is skipped, as long as
+     * the facts stay the same. -1 if none.
+     */
+    private int failedRule = -1;
+
+    /** The facts, when failedRule failed. */
+    private int failedFacts;
+
+    /** Number of activations in a row, idle with nothing of interest in sight. */
+    private int idle;
+
+    /**
+     * The epochs of the chunks in perception range, when we last decided to
+     * idle; 0 for missing chunks.
+     */
+    private long[] epochs = new long[0];
+
+    /**
+     * The move epochs of the chunks in perception range, when we last
+     * decided to idle; 0 for chunks where moves do not matter.
+     */
+    private long[] moveEpochs = new long[0];
+
+    /** Number of epochs remembered; 0 if there is no idle decision to reuse. */
+    private int epochCount;
+
+    /** X coordinate, when we last decided to idle. */
+    private int lastX;
+
+    /** Y coordinate, when we last decided to idle. */
+    private int lastY;
+
+    /** Z coordinate, when we last decided to idle. */
+    private int lastZ;
+
+    /** Life, when we last decided to idle. */
+    private int lastLife;
+
+    /** Equipment, when we last decided to idle. A new array on every change. */
+    private Item[] lastEquipment;
+
+    /** Last attacker, when we last decided to idle. */
+    private Mobile lastAttacker;
+
+    /** The state of the random generator; never 0. */
+    private long random = 1;
+
+    /** X coordinate of home. */
+    private int homeX;
+
+    /** Y coordinate of home. */
+    private int homeY;
+
+    /** The level of home; -1 if not known yet. */
+    private int homeZ = -1;
+
+    /** Constructor */
+    public GenericMobileController(final Behavior theBehavior) {
+        if (theBehavior == null) {
+            throw new IllegalArgumentException("theBehavior is null");
         }
-        return false;
+        behavior = theBehavior;
     }
 
     /* (non-Javadoc)
@@ -71,252 +191,603 @@ public class GenericMobileController extends AbstractMobileController {
      */
     @Override
     public void act() {
+        final Intent intent = SCRATCH.get().intent;
+        decide(intent);
+        applied(intent, intent.apply(mobile));
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.hacktors.IntentController#applied(com.blockwithme.hacktors.Intent, boolean)
+     */
+    @Override
+    public void applied(final Intent intent, final boolean success) {
+        final int kind = intent.getKind();
+        if (kind == Intent.MOVE) {
+            lastMoveFailed = !success;
+        } else if (!success && (kind != Intent.NONE) && (plannedRule >= 0)) {
+            // Otherwise, we would try the same thing again, forever.
+            failedRule = plannedRule;
+            failedFacts = plannedFacts;
+        }
+        intent.clear();
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.hacktors.IntentController#decide(com.blockwithme.hacktors.Intent)
+     */
+    @Override
+    public void decide(final Intent intent) {
+        intent.clear();
+        plannedRule = -1;
         final World world = mobile.getWorld();
         if (world == null) {
             return;
         }
+        if (quiet(world)) {
+            // Nothing changed since we decided to idle; no need to look again.
+            idle(intent, idle > 0);
+            return;
+        }
+        epochCount = 0;
         final MobileType type = mobile.getType();
         final Mobile attacker = mobile.getLastAttacker();
         final int life = mobile.getLife();
         final int maxLife = type.getLife();
         final boolean mindless = mobile.isMindless();
-        final boolean hungry = (life < (int) (maxLife * HUNGRY));
-        boolean hasFood = false;
-        final ItemType[] foodTypes = mobile.getType().getFood();
-        for (final ItemType food : foodTypes) {
-            if (mobile.findItemByType(food) >= 0) {
-                hasFood = true;
-            }
+        int facts = 0;
+        if (life < (int) (maxLife * HUNGRY)) {
+            facts |= Behavior.HUNGRY;
         }
         boolean hasWeapon = false;
-        final Item[] stuff = mobile.getEquipment();
-        if (type.isToolUser()) {
-            for (final Item thing : stuff) {
-                if (thing.getType().weapon()) {
-                    hasWeapon = true;
-                }
+        final boolean toolUser = type.isToolUser();
+        for (final Item thing : mobile.getEquipment()) {
+            final ItemType thingType = thing.getType();
+            if (type.eats(thingType)) {
+                facts |= Behavior.HAS_FOOD;
+            }
+            if (toolUser && thingType.weapon()) {
+                hasWeapon = true;
             }
         }
         final float scaredLimit = hasWeapon ? MIN_LIFE_ARMED : MIN_LIFE;
         final boolean scared = !mindless && (attacker != null)
                 && (life <= (int) (maxLife * scaredLimit));
-        final Position pos = mobile.getPositionClone();
+        if (scared) {
+            facts |= Behavior.SCARED;
+        }
+        if (behavior.uses(Behavior.AWAY) && away()) {
+            facts |= Behavior.AWAY;
+        }
+        final Scratch scratch = SCRATCH.get();
+        try {
+            if (behavior.usesPerception()) {
+                facts |= perceive(world, type, attacker, scared, scratch);
+            }
+            plan(world, facts, scratch.enemies, scratch.preys,
+                    scratch.foods, scratch.wants, intent);
+        } finally {
+            scratch.clear();
+        }
+    }
+
+    /**
+     * Looks around, sorts what is seen into the scratch buffers, and
+     * returns the facts about it. Only what the behavior uses is looked at.
+     */
+    private int perceive(final World world, final MobileType type,
+            final Mobile attacker, final boolean scared, final Scratch scratch) {
+        int facts = 0;
         final int perception = type.getPerception();
-        final int x = pos.getX();
-        final int y = pos.getY();
-        final int xMin = x - perception;
-        final int xMax = x + perception;
-        final int yMin = y - perception;
-        final int yMax = y + perception;
-        final Level level = world.getOrCreateLevel(pos.getZ());
-        final List<Mobile> ennemies = new ArrayList<>();
-        final List<Mobile> pray = new ArrayList<>();
-        final List<ItemPos> foods = new ArrayList<>();
-        final List<ItemPos> wants = new ArrayList<>();
-        for (int px = xMin; px <= xMax; px++) {
-            pos.setX(px);
-            for (int py = yMin; py <= yMax; py++) {
-                pos.setY(py);
-                if (world.isValid(pos)) {
-                    final boolean isMe = (px == x) && (py == y);
-                    final Chunk chunk = level.getOrCreateChunkOf(px, py);
-                    final Mobile mob = isMe ? null : chunk.getMobile(px, py);
-                    if (mob != null) {
-                        if (mob == attacker) {
-                            if (scared) {
-                                ennemies.add(mob);
-                            } else {
-                                pray.add(mob);
-                            }
-                        } else {
-                            for (final MobileType scary : type.fears()) {
-                                if (mob.getType() == scary) {
-                                    ennemies.add(mob);
-                                }
-                            }
-                            for (final MobileType tasty : type.getHunts()) {
-                                if (mob.getType() == tasty) {
-                                    pray.add(mob);
-                                }
-                            }
-                        }
+        final int x = mobile.getX();
+        final int y = mobile.getY();
+        final Chunk chunk = world.peekChunk(x, y, mobile.getZ());
+        final PerceptionCache perceived = world.getPerceptionCache();
+        // Only what is not hidden behind walls.
+        final FieldOfView.View view = world.getFieldOfView().view(mobile);
+        if (behavior.uses(Behavior.ENEMY_SEEN | Behavior.ENEMY_NEAR
+                | Behavior.PREY_SEEN | Behavior.PREY_NEAR)) {
+            final List<Mobile> seen = scratch.seen;
+            final List<Mobile> enemies = scratch.enemies;
+            final List<Mobile> preys = scratch.preys;
+            perceived.queryMobiles(chunk, x, y, perception, null, seen);
+            // Indexed loops, so that no Iterator is created.
+            for (int i = 0; i < seen.size(); i++) {
+                final Mobile mob = seen.get(i);
+                if ((mob == mobile)
+                        || !view.isVisible(mob.getX(), mob.getY())) {
+                    continue;
+                }
+                final boolean near = Position.distance(x, y, mob.getX(),
+                        mob.getY()) < NEAR;
+                if (mob == attacker) {
+                    if (scared) {
+                        enemies.add(mob);
+                        facts |= near ? Behavior.ENEMY_SEEN
+                                | Behavior.ENEMY_NEAR : Behavior.ENEMY_SEEN;
+                    } else {
+                        preys.add(mob);
+                        facts |= near ? Behavior.PREY_SEEN
+                                | Behavior.PREY_NEAR : Behavior.PREY_SEEN;
+                    }
+                } else {
+                    final MobileType other = mob.getType();
+                    if (type.fears(other)) {
+                        enemies.add(mob);
+                        facts |= near ? Behavior.ENEMY_SEEN
+                                | Behavior.ENEMY_NEAR : Behavior.ENEMY_SEEN;
                     }
-                    for (final Item item : chunk.getItems(px, py)) {
-                        if (food(foodTypes, item)) {
-                            foods.add(new ItemPos(item, px, py));
-                        } else if (type.isToolUser()) {
-                            // Tool user wants everything!
-                            wants.add(new ItemPos(item, px, py));
-                        }
+                    if (type.hunts(other)) {
+                        preys.add(mob);
+                        facts |= near ? Behavior.PREY_SEEN
+                                | Behavior.PREY_NEAR : Behavior.PREY_SEEN;
                     }
                 }
             }
         }
-        act(hungry, hasFood, hasWeapon, scared, ennemies, pray, foods, wants);
+        if (behavior.uses(Behavior.ITEM_SEEN | Behavior.ITEM_HERE)) {
+            final ItemHits seenItems = scratch.seenItems;
+            final ItemHits foods = scratch.foods;
+            final ItemHits wants = scratch.wants;
+            perceived.queryItems(chunk, x, y, perception, null, seenItems);
+            for (int i = 0; i < seenItems.size(); i++) {
+                final int ix = seenItems.getX(i);
+                final int iy = seenItems.getY(i);
+                if (!view.isVisible(ix, iy)) {
+                    continue;
+                }
+                final Item item = seenItems.getItem(i);
+                final ItemType itemType = item.getType();
+                if (type.eats(itemType)) {
+                    foods.add(item, seenItems.getPosition(i));
+                } else if (type.wants(itemType)) {
+                    wants.add(item, seenItems.getPosition(i));
+                } else {
+                    continue;
+                }
+                facts |= ((ix == x) && (iy == y)) ? Behavior.ITEM_SEEN
+                        | Behavior.ITEM_HERE : Behavior.ITEM_SEEN;
+            }
+        }
+        return facts;
     }
 
-    private static boolean free(final World world, final Position pos) {
-        boolean ok = false;
-        if (world.isValid(pos)) {
-            final int x = pos.getX();
-            final int y = pos.getY();
-            final Level level = world.getOrCreateLevel(pos.getZ());
-            final Chunk chunk = level.getOrCreateChunkOf(x, y);
-            ok = !chunk.occupied(x, y);
+    /**
+     * Returns true, if the mobile is far from home. Home is where the
+     * mobile first decided something, on it's current level.
+     */
+    private boolean away() {
+        final int x = mobile.getX();
+        final int y = mobile.getY();
+        final int z = mobile.getZ();
+        if (homeZ != z) {
+            homeX = x;
+            homeY = y;
+            homeZ = z;
+            return false;
         }
-        return ok;
+        return Position.distance(x, y, homeX, homeY) > HOME_RANGE;
     }
 
-    protected boolean tryMove(final World world, Direction direction) {
-        final Position pos = mobile.getPositionClone();
-        pos.setDirection(direction);
-        Position next = pos.next();
-        boolean move = true;
-        if (!free(world, next)) {
-            final Direction[] alternatives = direction.normal();
-            direction = alternatives[0];
-            pos.setDirection(direction);
-            next = pos.next();
-            if (!free(world, next)) {
-                direction = alternatives[1];
-                pos.setDirection(direction);
-                next = pos.next();
-                if (!free(world, next)) {
-                    // Stuck on all sides!
-                    move = false;
-                    lastMoveFailed = true;
+    /**
+     * Returns true, if neither the mobile, nor the chunks in perception
+     * range, changed since we last decided to idle.
+     */
+    private boolean quiet(final World world) {
+        if ((epochCount == 0) || (mobile.getX() != lastX)
+                || (mobile.getY() != lastY) || (mobile.getZ() != lastZ)
+                || (mobile.getLife() != lastLife)
+                || (mobile.getEquipment() != lastEquipment)
+                || (mobile.getLastAttacker() != lastAttacker)) {
+            return false;
+        }
+        final Level level = world.getLevel(lastZ);
+        if (level == null) {
+            return false;
+        }
+        final Chunk[] chunks = level.getChunks();
+        final int perception = mobile.getType().getPerception();
+        final int xMin = Math.max(lastX - perception, 0) / Chunk.X;
+        final int xMax = Math.min(lastX + perception, World.X - 1) / Chunk.X;
+        final int yMin = Math.max(lastY - perception, 0) / Chunk.Y;
+        final int yMax = Math.min(lastY + perception, World.Y - 1) / Chunk.Y;
+        int index = 0;
+        for (int cx = xMin; cx <= xMax; cx++) {
+            for (int cy = yMin; cy <= yMax; cy++) {
+                final Chunk chunk = chunks[cx + Level.X * cy];
+                final long epoch = (chunk == null) ? 0 : chunk.getEpoch();
+                final long moveEpoch = moveEpochs[index];
+                if ((epochs[index++] != epoch) || ((moveEpoch != 0)
+                        && (moveEpoch != chunk.getMoveEpoch()))) {
+                    return false;
                 }
             }
         }
-        if (move) {
-            mobile.setDirection(direction);
-            if (mobile.move()) {
-                lastMoveFailed = false;
+        return true;
+    }
+
+    /**
+     * Remembers the state of the mobile, and the epochs of the chunks in
+     * perception range, so that the idle decision can be reused until
+     * something changes. Moves within a chunk only matter if a mobile we
+     * would react to lives there; any mobile entering changes the epoch.
+     */
+    private void remember(final World world) {
+        lastX = mobile.getX();
+        lastY = mobile.getY();
+        lastZ = mobile.getZ();
+        lastLife = mobile.getLife();
+        lastEquipment = mobile.getEquipment();
+        lastAttacker = mobile.getLastAttacker();
+        final Level level = world.getLevel(lastZ);
+        if (level == null) {
+            epochCount = 0;
+            return;
+        }
+        final Chunk[] chunks = level.getChunks();
+        final int perception = mobile.getType().getPerception();
+        final int xMin = Math.max(lastX - perception, 0) / Chunk.X;
+        final int xMax = Math.min(lastX + perception, World.X - 1) / Chunk.X;
+        final int yMin = Math.max(lastY - perception, 0) / Chunk.Y;
+        final int yMax = Math.min(lastY + perception, World.Y - 1) / Chunk.Y;
+        final int count = (xMax - xMin + 1) * (yMax - yMin + 1);
+        if (epochs.length < count) {
+            epochs = new long[count];
+            moveEpochs = new long[count];
+        }
+        int index = 0;
+        for (int cx = xMin; cx <= xMax; cx++) {
+            for (int cy = yMin; cy <= yMax; cy++) {
+                final Chunk chunk = chunks[cx + Level.X * cy];
+                epochs[index] = (chunk == null) ? 0 : chunk.getEpoch();
+                moveEpochs[index++] = ((chunk != null) && watched(chunk))
+                        ? chunk.getMoveEpoch() : 0;
+            }
+        }
+        epochCount = count;
+    }
+
+    /** Returns true, if the chunk contains a mobile that we could react to. */
+    private boolean watched(final Chunk chunk) {
+        if (!behavior.uses(Behavior.ENEMY_SEEN | Behavior.ENEMY_NEAR
+                | Behavior.PREY_SEEN | Behavior.PREY_NEAR)) {
+            return false;
+        }
+        final MobileType type = mobile.getType();
+        for (int i = 0; i < chunk.getMobileCount(); i++) {
+            final Mobile resident = chunk.getResident(i);
+            if ((resident != mobile)
+                    && ((resident == lastAttacker)
+                            || type.fears(resident.getType()) || type
+                                .hunts(resident.getType()))) {
                 return true;
             }
-            lastMoveFailed = true;
         }
         return false;
     }
 
-    protected void act(final boolean hungry, final boolean hasFood,
-            final boolean hasWeapon, final boolean scared,
-            final List<Mobile> ennemies, final List<Mobile> prays,
-            final List<ItemPos> foods, final List<ItemPos> wants) {
-        final Position pos = mobile.getPositionClone();
-        final World world = pos.getWorld();
-        Direction direction = pos.getDirection();
-        boolean decided = false;
-        if (scared && !ennemies.isEmpty()) {
-            Mobile nearest = null;
-            float distance = -1.0f;
-
-            for (final Mobile ennemy : ennemies) {
-                final float dst = pos.distance(ennemy.getPositionClone());
-                if (dst > distance) {
-                    distance = dst;
-                    nearest = ennemy;
+    /** Returns the next random int, with a xorshift generator. */
+    private int nextInt() {
+        long x = random;
+        x ^= x << 21;
+        x ^= x >>> 35;
+        x ^= x << 4;
+        random = x;
+        return (int) (x >>> 32);
+    }
+
+    /** Returns the next random float, within [0,1). */
+    private float nextFloat() {
+        return (nextInt() >>> 8) / (float) (1 << 24);
+    }
+
+    /** Returns a random direction. */
+    private Direction chooseDirection() {
+        final Direction[] values = Direction.VALUES;
+        return values[(nextInt() >>> 1) % values.length];
+    }
+
+    /**
+     * Moves around at random, when there is nothing to do. After being idle
+     * SLEEP_AFTER times in a row, with nothing of interest in sight, goes to
+     * sleep instead, until something happens around.
+     */
+    private void idle(final Intent intent, final boolean nothingSeen) {
+        if (!nothingSeen) {
+            idle = 0;
+        } else if (++idle >= SLEEP_AFTER) {
+            idle = 0;
+            intent.sleep();
+            return;
+        }
+        wander(mobile.getWorld(), mobile.getDirection(), intent);
+    }
+
+    /** Moves around at random, half of the time. */
+    private void wander(final World world, Direction direction,
+            final Intent intent) {
+        if (nextInt() < 0) {
+            if (lastMoveFailed || (nextFloat() <= 0.333f)) {
+                final Direction before = direction;
+                while (before == direction) {
+                    direction = chooseDirection();
                 }
             }
+            planMove(world, direction, intent);
+        }
+    }
 
-            decided = true;
-            direction = pos.awayFrom(nearest.getPositionClone());
-            if (tryMove(world, direction)) {
-                return;
+    /**
+     * Returns true, if the cell one step in the direction is free.
+     * Cells in chunks that were not generated yet are never free.
+     */
+    private boolean free(final World world, final Direction direction) {
+        final int x = mobile.getX() + direction.getDX();
+        final int y = mobile.getY() + direction.getDY();
+        final Chunk chunk = world.peekChunk(x, y, mobile.getZ());
+        return (chunk != null) && !chunk.occupied(x, y);
+    }
+
+    /**
+     * Plans a move in the direction, or else to one side, if the cell is
+     * not free. Returns false, if we are stuck.
+     */
+    protected boolean planMove(final World world, Direction direction,
+            final Intent intent) {
+        if (!free(world, direction)) {
+            final Direction[] alternatives = direction.normal();
+            direction = alternatives[0];
+            if (!free(world, direction)) {
+                direction = alternatives[1];
+                if (!free(world, direction)) {
+                    // Stuck on all sides!
+                    lastMoveFailed = true;
+                    return false;
+                }
             }
-            // Can't run! Maybe backtrack?
-            direction = direction.opposite();
-            if (tryMove(world, direction)) {
-                return;
+        }
+        intent.move(direction);
+        return true;
+    }
+
+    /**
+     * Plans the action of the first rule of the behavior that matches the
+     * facts; if it cannot be done, the action of the next matching rule,
+     * and so on. A rule whose intent failed to apply is skipped, until the
+     * facts change.
+     */
+    protected void plan(final World world, final int facts,
+            final List<Mobile> enemies, final List<Mobile> preys,
+            final ItemHits foods, final ItemHits wants, final Intent intent) {
+        if (facts != failedFacts) {
+            failedRule = -1;
+        }
+        int rule = behavior.match(facts, 0);
+        while (rule >= 0) {
+            if (rule == failedRule) {
+                rule = behavior.match(facts, rule + 1);
+                continue;
+            }
+            final boolean done;
+            switch (behavior.getAction(rule)) {
+            case Behavior.FLEE:
+                done = flee(world, enemies, intent);
+                break;
+            case Behavior.ATTACK_PREY:
+                done = attackNear(preys, intent);
+                break;
+            case Behavior.ATTACK_ENEMY:
+                done = attackNear(enemies, intent);
+                break;
+            case Behavior.EAT:
+                intent.eat();
+                done = true;
+                break;
+            case Behavior.CHASE:
+                done = chase(world, preys, intent);
+                break;
+            case Behavior.PICKUP:
+                // Full mobiles cannot pick anything up. Whether there is
+                // something we can take is only known once applied.
+                done = mobile.getItems() < Mobile.MAX_ITEMS;
+                if (done) {
+                    intent.pickup();
+                }
+                break;
+            case Behavior.FETCH:
+                fetch(world, foods, wants, intent);
+                done = true;
+                break;
+            case Behavior.GO_HOME:
+                done = goHome(world, intent);
+                break;
+            case Behavior.WANDER:
+                // Nothing to do; remembered before moving, so that a
+                // successful move forces a new look on the next cycle.
+                remember(world);
+                idle(intent, (facts & INTERESTING) == 0);
+                done = true;
+                break;
+            default:
+                throw new IllegalStateException("Unknown action: "
+                        + behavior.getAction(rule));
             }
-            // OK. We're in trouble!
-            if (hasFood) {
-                // Life a bit longer .. get lucky on next cycle?
-                while (mobile.eat()) {
-                    // NOP
+            if (done) {
+                if (behavior.getAction(rule) != Behavior.WANDER) {
+                    idle = 0;
                 }
+                plannedRule = rule;
+                plannedFacts = facts;
                 return;
             }
+            rule = behavior.match(facts, rule + 1);
         }
-        if (!prays.isEmpty()) {
-            for (final Mobile pray : prays) {
-                final Position epos = pray.getPositionClone();
-                if (pos.distance(epos) < 1.05f) {
-                    decided = true;
-                    direction = pos.towards(epos);
-                    mobile.setDirection(direction);
-                    if (mobile.attack()) {
-                        return;
-                    }
-                    // We really should not get here ...
-                }
+    }
+
+    /** Returns the nearest of the mobiles, or null if there are none. */
+    private Mobile nearest(final List<Mobile> mobiles) {
+        final int x = mobile.getX();
+        final int y = mobile.getY();
+        Mobile nearest = null;
+        float distance = -1.0f;
+        for (int i = 0; i < mobiles.size(); i++) {
+            final Mobile other = mobiles.get(i);
+            final float dst = Position.distance(x, y, other.getX(),
+                    other.getY());
+            if ((nearest == null) || (dst < distance)) {
+                distance = dst;
+                nearest = other;
             }
         }
-        if (!ennemies.isEmpty()) {
-            for (final Mobile ennemy : ennemies) {
-                final Position epos = ennemy.getPositionClone();
-                if (pos.distance(epos) < 1.05f) {
-                    decided = true;
-                    direction = pos.towards(epos);
-                    mobile.setDirection(direction);
-                    if (mobile.attack()) {
-                        return;
-                    }
-                    // We really should not get here ...
-                }
+        return nearest;
+    }
+
+    /** Runs away from the nearest enemy; backtracks if that fails. */
+    private boolean flee(final World world, final List<Mobile> enemies,
+            final Intent intent) {
+        final Mobile nearest = nearest(enemies);
+        if (nearest == null) {
+            return false;
+        }
+        final Direction direction = Position.awayFrom(mobile.getX(),
+                mobile.getY(), nearest.getX(), nearest.getY());
+        return planMove(world, direction, intent)
+                || planMove(world, direction.opposite(), intent);
+    }
+
+    /** Attacks the first of the mobiles that is right next to us. */
+    private boolean attackNear(final List<Mobile> mobiles, final Intent intent) {
+        final int x = mobile.getX();
+        final int y = mobile.getY();
+        for (int i = 0; i < mobiles.size(); i++) {
+            final Mobile other = mobiles.get(i);
+            final int ex = other.getX();
+            final int ey = other.getY();
+            if (Position.distance(x, y, ex, ey) < NEAR) {
+                intent.attack(Position.towards(x, y, ex, ey));
+                return true;
             }
         }
-        if (hungry && hasFood) {
-            while (mobile.eat()) {
-                // NOP
+        return false;
+    }
+
+    /** Goes toward the nearest prey. */
+    private boolean chase(final World world, final List<Mobile> preys,
+            final Intent intent) {
+        final Mobile nearest = nearest(preys);
+        if (nearest == null) {
+            return false;
+        }
+        // Players have a shared path toward them, that goes around walls.
+        Direction direction = world.getFlowFields().nextStep(mobile, nearest);
+        if (direction == null) {
+            direction = toward(world, nearest.getX(), nearest.getY());
+        }
+        return planMove(world, direction, intent);
+    }
+
+    /**
+     * Returns the direction of the next step toward a cell in sight: along
+     * the longest axis, or else along the other one, if that cell is not
+     * free. What is in sight is near, so no path is searched.
+     */
+    private Direction toward(final World world, final int x, final int y) {
+        final int fromX = mobile.getX();
+        final int fromY = mobile.getY();
+        final Direction result = Position.towards(fromX, fromY, x, y);
+        if ((fromX != x) && (fromY != y) && !free(world, result)) {
+            final Direction other = (result.getDX() == 0) ? Position
+                    .towards(fromX, fromY, x, fromY) : Position.towards(
+                    fromX, fromY, fromX, y);
+            if (free(world, other)) {
+                return other;
             }
-            return;
         }
-        // No high priority goals; is there anything we want that is near?
-        ItemPos nearest = null;
+        return result;
+    }
+
+    /**
+     * Goes back home. Home is out of sight, so a path is searched, around
+     * the walls. If there is none, the mobile settles where it is.
+     */
+    private boolean goHome(final World world, final Intent intent) {
+        final Direction direction = world.getPathFinder().nextStep(mobile,
+                homeX, homeY);
+        if (direction == null) {
+            homeX = mobile.getX();
+            homeY = mobile.getY();
+            return false;
+        }
+        return planMove(world, direction, intent);
+    }
+
+    /** Goes toward the nearest item we eat or want. */
+    private void fetch(final World world, final ItemHits foods,
+            final ItemHits wants, final Intent intent) {
+        final int x = mobile.getX();
+        final int y = mobile.getY();
+        ItemHits nearest = null;
+        int nearestIndex = -1;
         float distance = -1.0f;
-        for (final ItemPos ip : foods) {
-            final float dst = pos.distance(ip.x, ip.y);
-            if (dst > distance) {
+        for (int i = 0; i < foods.size(); i++) {
+            final float dst = Position.distance(x, y, foods.getX(i),
+                    foods.getY(i));
+            if ((nearest == null) || (dst < distance)) {
                 distance = dst;
-                nearest = ip;
+                nearest = foods;
+                nearestIndex = i;
             }
         }
-        for (final ItemPos ip : wants) {
-            final float dst = pos.distance(ip.x, ip.y);
-            if (dst > distance) {
+        for (int i = 0; i < wants.size(); i++) {
+            final float dst = Position.distance(x, y, wants.getX(i),
+                    wants.getY(i));
+            if ((nearest == null) || (dst < distance)) {
                 distance = dst;
-                nearest = ip;
+                nearest = wants;
+                nearestIndex = i;
             }
         }
-        if ((distance < 0.05f) && (distance >= 0.0f)) {
-            if (mobile.pickup()) {
-                return;
-            }
-        } else if (nearest != null) {
-            decided = true;
-            direction = pos.towards(nearest.x, nearest.y);
-        }
-        if (!decided) {
-            if (Util.nextBoolean()) {
-                if (lastMoveFailed || (Util.nextFloat() <= 0.333f)) {
-                    final Direction before = direction;
-                    while (before == direction) {
-                        direction = Direction.choose();
-                    }
-                }
-                tryMove(world, direction);
-            }
-        } else {
-            tryMove(world, direction);
+        if (nearest != null) {
+            planMove(world, toward(world, nearest.getX(nearestIndex),
+                    nearest.getY(nearestIndex)), intent);
         }
     }
 
+    /* (non-Javadoc)
+     * @see com.blockwithme.hacktors.AbstractMobileController#write(java.nio.ByteBuffer)
+     */
+    @Override
+    public void write(final ByteBuffer buffer) {
+        buffer.put((byte) (lastMoveFailed ? 1 : 0));
+        buffer.putInt(idle);
+        buffer.putLong(random);
+        buffer.putInt(homeX);
+        buffer.putInt(homeY);
+        buffer.putInt(homeZ);
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.hacktors.AbstractMobileController#read(java.nio.ByteBuffer)
+     */
+    @Override
+    public void read(final ByteBuffer buffer) {
+        lastMoveFailed = (buffer.get() != 0);
+        idle = buffer.getInt();
+        random = buffer.getLong();
+        homeX = buffer.getInt();
+        homeY = buffer.getInt();
+        homeZ = buffer.getInt();
+    }
+
     /* (non-Javadoc)
      * @see com.blockwithme.hacktors.MobileController#setMobile(com.blockwithme.hacktors.Mobile)
      */
     @Override
     public void setMobile(final Mobile theMobile) {
         mobile = theMobile;
+        // Seeded from the shared random, so that a game seed still decides all.
+        random = (((long) Util.nextInt()) << 32) | (Util.nextInt() & 0xFFFFFFFFL);
+        if (random == 0) {
+            random = 1;
+        }
     }
 }
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+/**
+ * Runs the game without players nor terminal, as fast as possible.
+ *
+ * A World is created from a seed, and the first levels are generated
+ * entirely, with their mobiles. Then the world is updated for the given
+ * number of cycles, without waiting between them. At the end, the
+ * throughput, the peak heap use and the population are reported. It is
+ * the basic tool to measure the speed of the simulation, and to see if a
+ * change made it slower.
+ *
+ * Usage: HeadlessRunner [seed [levels [cycles [parallelism]]]]
+ *
+ * The parallelism is the one of the Scheduler; 0, the default, means the
+ * mobiles decide and act at once. With the same seed, any parallelism
+ * above 0 gives the same result.
+ *
+ * @author monster
+ */
+public class HeadlessRunner {
+    /** NO creation */
+    private HeadlessRunner() {
+        // NOP
+    }
+
+    /** Generates all the chunks of the first levels of the world. */
+    private static void generate(final World world, final int levels) {
+        // Otherwise, chunks (and their mobiles) get evicted while we run.
+        final ChunkCache cache = world.getChunkCache();
+        cache.setMaxChunks(Math.max(cache.getMaxChunks(), levels * Level.SIZE));
+        for (int z = 0; z < levels; z++) {
+            final Level level = world.getOrCreateLevel(z);
+            for (int x = 0; x < Level.X; x++) {
+                for (int y = 0; y < Level.Y; y++) {
+                    level.getOrCreateChunk(x, y);
+                }
+            }
+        }
+    }
+
+    /** Resets the peak usage of the heap memory pools. */
+    private static void resetPeakHeap() {
+        for (final MemoryPoolMXBean pool : ManagementFactory
+                .getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    /**
+     * Returns the sum of the peak usage of the heap memory pools. The pools
+     * do not all peak at the same time, so it is an upper bound.
+     */
+    private static long peakHeap() {
+        long result = 0;
+        for (final MemoryPoolMXBean pool : ManagementFactory
+                .getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                result += pool.getPeakUsage().getUsed();
+            }
+        }
+        return result;
+    }
+
+    /** Runs the simulation. */
+    public static void main(final String[] args) {
+        final long seed = (args.length > 0) ? Long.parseLong(args[0]) : 0;
+        final int levels = (args.length > 1) ? Integer.parseInt(args[1]) : 1;
+        final int cycles = (args.length > 2) ? Integer.parseInt(args[2])
+                : 10000;
+        final int parallelism = (args.length > 3) ? Integer
+                .parseInt(args[3]) : 0;
+        Util.setSeed(seed);
+        final World world = new World();
+        world.getScheduler().setParallelism(parallelism);
+        long time = System.nanoTime();
+        generate(world, levels);
+        System.out.printf("Generated %d chunks in %.1f ms, with %d mobiles%n",
+                world.getChunkCount(), (System.nanoTime() - time) / 1e6,
+                world.getMobileCount());
+        final Clock clock = world.getClock();
+        final Scheduler scheduler = world.getScheduler();
+        final long actionsBefore = scheduler.getActions();
+        resetPeakHeap();
+        time = System.nanoTime();
+        for (int i = 0; i < cycles; i++) {
+            clock.step();
+        }
+        final long nanos = System.nanoTime() - time;
+        // Stops the background threads, as Clock.run() does at the end.
+        clock.stop();
+        world.close();
+        final long actions = scheduler.getActions() - actionsBefore;
+        final double seconds = nanos / 1e9;
+        final TickStatistics statistics = clock.getStatistics();
+        System.out.printf("%d cycles in %.1f ms: %.1f cycles/s%n", cycles,
+                nanos / 1e6, cycles / seconds);
+        System.out.printf("%d mobile actions: %.1f actions/s%n", actions,
+                actions / seconds);
+        System.out.printf("Cycle: mean %.3f ms, p50 %.3f ms, p99 %.3f ms,"
+                + " max %.3f ms%n", statistics.getMeanNanos() / 1e6,
+                statistics.getPercentileNanos(50) / 1e6,
+                statistics.getPercentileNanos(99) / 1e6,
+                statistics.getMaxNanos() / 1e6);
+        System.out.printf("Peak heap: %.1f MB%n", peakHeap() / 1e6);
+        System.out.printf("Final population: %d mobiles (%d awake, %d"
+                + " sleeping), in %d chunks%n", world.getMobileCount(),
+                scheduler.getCount(), scheduler.getSleeping(),
+                world.getChunkCount());
+    }
+}
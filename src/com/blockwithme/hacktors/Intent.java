@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * What a mobile intends to do in one cycle.
+ *
+ * Intents let the mobiles decide in parallel, since deciding only reads
+ * the world; they are then applied one after the other, in a fixed order,
+ * by the Scheduler. Intents are reused from cycle to cycle.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class Intent {
+    /** Do nothing. */
+    public static final int NONE = 0;
+
+    /** Move one step in the direction. */
+    public static final int MOVE = 1;
+
+    /** Attack what is one step away in the direction. */
+    public static final int ATTACK = 2;
+
+    /** Pick up the items where the mobile stands. */
+    public static final int PICKUP = 3;
+
+    /** Eat all the food carried, as long as it is needed. */
+    public static final int EAT = 4;
+
+    /** Throw the item of the equipment, in the direction. */
+    public static final int FIRE = 5;
+
+    /** Go to sleep, until something happens around. */
+    public static final int SLEEP = 6;
+
+    /** The kind of intent. */
+    private int kind;
+
+    /** The direction, for MOVE, ATTACK and FIRE. */
+    private Direction direction;
+
+    /** The equipment index, for FIRE. */
+    private int item;
+
+    /** Returns the kind of intent. */
+    public int getKind() {
+        return kind;
+    }
+
+    /** Returns the direction, for MOVE, ATTACK and FIRE. */
+    public Direction getDirection() {
+        return direction;
+    }
+
+    /** Returns the equipment index, for FIRE. */
+    public int getItem() {
+        return item;
+    }
+
+    /** Sets the intent. */
+    private Intent set(final int theKind, final Direction theDirection,
+            final int theItem) {
+        kind = theKind;
+        direction = theDirection;
+        item = theItem;
+        return this;
+    }
+
+    /** Intends to do nothing. */
+    public Intent clear() {
+        return set(NONE, null, -1);
+    }
+
+    /** Intends to move one step in the direction. */
+    public Intent move(final Direction theDirection) {
+        return set(MOVE, theDirection, -1);
+    }
+
+    /** Intends to attack what is one step away in the direction. */
+    public Intent attack(final Direction theDirection) {
+        return set(ATTACK, theDirection, -1);
+    }
+
+    /** Intends to pick up the items where the mobile stands. */
+    public Intent pickup() {
+        return set(PICKUP, null, -1);
+    }
+
+    /** Intends to eat all the food carried, as long as it is needed. */
+    public Intent eat() {
+        return set(EAT, null, -1);
+    }
+
+    /** Intends to throw the item of the equipment, in the direction. */
+    public Intent fire(final Direction theDirection, final int theItem) {
+        return set(FIRE, theDirection, theItem);
+    }
+
+    /** Intends to go to sleep. */
+    public Intent sleep() {
+        return set(SLEEP, null, -1);
+    }
+
+    /** Returns the x coordinate the mobile moves to, for MOVE. */
+    public int targetX(final Mobile mobile) {
+        return mobile.getX() + direction.getDX();
+    }
+
+    /** Returns the y coordinate the mobile moves to, for MOVE. */
+    public int targetY(final Mobile mobile) {
+        return mobile.getY() + direction.getDY();
+    }
+
+    /**
+     * Makes the mobile do what it intends. Returns true, if it could. The
+     * intent is kept, so that the controller can see what was tried.
+     */
+    public boolean apply(final Mobile mobile) {
+        switch (kind) {
+        case NONE:
+            return true;
+        case MOVE:
+            mobile.setDirection(direction);
+            return mobile.move();
+        case ATTACK:
+            mobile.setDirection(direction);
+            return mobile.attack();
+        case PICKUP:
+            return mobile.pickup();
+        case EAT:
+            boolean result = false;
+            while (mobile.eat()) {
+                result = true;
+            }
+            return result;
+        case FIRE:
+            mobile.setDirection(direction);
+            return mobile.fire(item);
+        case SLEEP:
+            final World world = mobile.getWorld();
+            if (world == null) {
+                return false;
+            }
+            world.getScheduler().sleep(mobile);
+            return true;
+        default:
+            throw new IllegalStateException("Unknown intent: " + kind);
+        }
+    }
+
+    /** toString() */
+    @Override
+    public String toString() {
+        return "Intent(kind=" + kind + ",direction=" + direction + ",item="
+                + item + ")";
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * A MobileController that can decide without acting.
+ *
+ * When the Scheduler runs in two phases, decide() is called for all the
+ * mobiles due in a cycle, in parallel, and then the intents are applied
+ * in a fixed order. Other controllers just act(), in the second phase.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public interface IntentController extends MobileController {
+    /**
+     * Decides what the mobile intends to do. Must not change anything but
+     * the state of this controller, since the other mobiles decide at the
+     * same time, and must see the same world.
+     */
+    void decide(final Intent intent);
+
+    /**
+     * Informs the controller of the result of applying the intent. The
+     * intent was not applied at all, if it was blocked by the intent of a
+     * mobile that came first.
+     */
+    void applied(final Intent intent, final boolean success);
+}
@@ -15,6 +15,8 @@
  */
 package com.blockwithme.hacktors;
 
+import java.nio.ByteBuffer;
+
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import lombok.Data;
@@ -121,4 +123,42 @@ public class Item {
     public boolean destroyed() {
         return life <= 0;
     }
+
+    /** Writes this item to the buffer. */
+    public void write(final ByteBuffer buffer) {
+        buffer.put((byte) type.ordinal());
+        buffer.put((byte) ((blockType == null) ? 0 : blockType.ordinal() + 1));
+        buffer.putInt(life);
+    }
+
+    /** Reads an item written by write(). */
+    public static Item read(final ByteBuffer buffer) {
+        final ItemType it = ItemType.ALL_SET[buffer.get() & 0xFF];
+        final int bt = buffer.get() & 0xFF;
+        final Item result = new Item(it, (bt == 0) ? null
+                : BlockType.VALUES[bt - 1]);
+        result.setLife(buffer.getInt());
+        return result;
+    }
+
+    /** Writes an array of items to the buffer. */
+    public static void writeAll(final ByteBuffer buffer, final Item[] items) {
+        buffer.putShort((short) items.length);
+        for (final Item item : items) {
+            item.write(buffer);
+        }
+    }
+
+    /** Reads an array of items written by writeAll(). */
+    public static Item[] readAll(final ByteBuffer buffer) {
+        final int count = buffer.getShort() & 0xFFFF;
+        if (count == 0) {
+            return EMPTY;
+        }
+        final Item[] result = new Item[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = read(buffer);
+        }
+        return result;
+    }
 }
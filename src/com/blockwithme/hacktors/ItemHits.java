@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.util.Arrays;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * The result of an item query: items lying on the floor, with their
+ * position. It is meant to be reused, to avoid allocating on every query.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class ItemHits {
+    /** The items. */
+    private Item[] items = Item.EMPTY;
+
+    /** The PackedPosition of the items. */
+    private long[] positions = new long[0];
+
+    /** Number of items. */
+    private int size;
+
+    /** Returns the number of items. */
+    public int size() {
+        return size;
+    }
+
+    /** Returns true, if there are no items. */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Removes all the items. */
+    public void clear() {
+        Arrays.fill(items, 0, size, null);
+        size = 0;
+    }
+
+    /** Adds an item, with it's position. */
+    public void add(final Item item, final int x, final int y, final int z) {
+        add(item, PackedPosition.encode(x, y, z));
+    }
+
+    /** Adds an item, with it's PackedPosition. */
+    public void add(final Item item, final long position) {
+        if (size == items.length) {
+            final int capacity = Math.max(8, size * 2);
+            items = Arrays.copyOf(items, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+        }
+        items[size] = item;
+        positions[size] = position;
+        size++;
+    }
+
+    /** Returns an item. */
+    public Item getItem(final int index) {
+        check(index);
+        return items[index];
+    }
+
+    /** Returns the PackedPosition of an item. */
+    public long getPosition(final int index) {
+        check(index);
+        return positions[index];
+    }
+
+    /** Returns the x coordinate of an item. */
+    public int getX(final int index) {
+        return PackedPosition.x(getPosition(index));
+    }
+
+    /** Returns the y coordinate of an item. */
+    public int getY(final int index) {
+        return PackedPosition.y(getPosition(index));
+    }
+
+    /** Checks that the index is valid. */
+    private void check(final int index) {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException("index must be withing [0,"
+                    + size + "[");
+        }
+    }
+}
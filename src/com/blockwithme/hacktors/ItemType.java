@@ -205,6 +205,16 @@ public class ItemType extends Enum40<ItemType> implements Displayable {
         color = Preconditions.checkNotNull(theColor);
     }
 
+    /**
+     * Called after the Enum40 values were fully initialized, including when
+     * extension item types are registered. The mobile types must know about
+     * them, to eat or want them.
+     */
+    @Override
+    protected void postInit(final ItemType[] allSet) {
+        MobileType.updateRelations(null, allSet);
+    }
+
     /** Finalizes the initialization of an item of this type. */
     public Item postInit(final Item item) {
         Preconditions.checkNotNull(item);
@@ -15,6 +15,8 @@
  */
 package com.blockwithme.hacktors;
 
+import java.util.List;
+
 import javax.annotation.ParametersAreNonnullByDefault;
 
 import lombok.Data;
@@ -52,6 +54,9 @@ public class Level {
     /** Number of mobiles contained. */
     private int mobileCount;
 
+    /** Number of chunks contained. */
+    private int chunkCount;
+
     /** Checks that the index are valid. */
     private void check(final int x, final int y) {
         if ((x < 0) || (x >= X)) {
@@ -86,9 +91,27 @@ public class Level {
         }
     }
 
+    /** Returns the number of chunks contained. */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /** Updates the chunk count. */
+    private void updateChunkCount(final int change) {
+        chunkCount += change;
+        final World world = position.getWorld();
+        if (world != null) {
+            world.updateChunkCount(change);
+        }
+    }
+
     /** Returns a Chunk, using chunk position. */
     public Chunk getChunk(final int x, final int y) {
-        return chunks[index(x, y)];
+        final Chunk result = chunks[index(x, y)];
+        if (result != null) {
+            result.touch();
+        }
+        return result;
     }
 
     /** Returns a Chunk, using global position. */
@@ -96,14 +119,54 @@ public class Level {
         return getChunk(x / Chunk.X, y / Chunk.Y);
     }
 
-    /** Returns a Chunk, using chunk position. Creates it if needed. */
+    /**
+     * Returns a Chunk, using chunk position, without marking it as
+     * recently used. Mobiles deciding use it, since they must not write
+     * anything, and they can run in several threads.
+     */
+    public Chunk peekChunk(final int x, final int y) {
+        return chunks[index(x, y)];
+    }
+
+    /** Returns a Chunk, using global position, without marking it as recently used. */
+    public Chunk peekChunkOf(final int x, final int y) {
+        return peekChunk(x / Chunk.X, y / Chunk.Y);
+    }
+
+    /**
+     * Returns a Chunk, using chunk position. Creates it if needed.
+     * An evicted chunk is loaded back from the ChunkStore, if possible.
+     * Otherwise, a chunk already generated in the background is used,
+     * if available.
+     */
     public Chunk getOrCreateChunk(final int x, final int y) {
         final int index = index(x, y);
         Chunk result = chunks[index];
         if (result == null) {
-            result = new Chunk();
-            setChunk(x, y, result);
-            generator.fill(result);
+            final World world = position.getWorld();
+            if (world != null) {
+                final int z = position.getZ();
+                result = world.getChunkCache().load(z, x, y);
+                final Chunk ready = world.getPregenerator().take(z, x, y);
+                if (result == null) {
+                    result = ready;
+                }
+            }
+            if (result == null) {
+                result = new Chunk();
+                setChunk(x, y, result);
+                if (world != null) {
+                    world.getPregenerator().fill(generator, result,
+                            position.getZ(), x, y);
+                } else {
+                    generator.fill(result);
+                }
+            } else {
+                setChunk(x, y, result);
+            }
+            result.clean();
+        } else {
+            result.touch();
         }
         return result;
     }
@@ -149,9 +212,12 @@ public class Level {
             }
             if (before != null) {
                 updateMobileCount(-before.getMobileCount());
+                updateChunkCount(-1);
             }
             if (chunk != null) {
                 updateMobileCount(chunk.getMobileCount());
+                updateChunkCount(1);
+                chunk.touch();
             }
         }
     }
@@ -173,23 +239,139 @@ public class Level {
         }
     }
 
+    /**
+     * Adds the mobiles at most radius cells away from (x,y) on both axis,
+     * accepted by the filter, to the result. A null filter accepts all
+     * mobiles. Only the mobiles of existing chunks are visited, so the cost
+     * depends on the number of mobiles, and not on the radius.
+     * Returns the number of mobiles added.
+     */
+    public int queryMobiles(final int x, final int y, final int radius,
+            final MobileFilter filter, final List<Mobile> result) {
+        return queryMobiles(x - radius, y - radius, x + radius, y + radius,
+                filter, result);
+    }
+
+    /**
+     * Adds the mobiles in [xMin,xMax]x[yMin,yMax], accepted by the filter,
+     * to the result. The area is clipped to the level.
+     * Returns the number of mobiles added.
+     */
+    public int queryMobiles(final int theXMin, final int theYMin,
+            final int theXMax, final int theYMax, final MobileFilter filter,
+            final List<Mobile> result) {
+        final int before = result.size();
+        final int xMin = Math.max(theXMin, 0);
+        final int yMin = Math.max(theYMin, 0);
+        final int xMax = Math.min(theXMax, World.X - 1);
+        final int yMax = Math.min(theYMax, World.Y - 1);
+        for (int cy = yMin / Chunk.Y; cy <= yMax / Chunk.Y; cy++) {
+            for (int cx = xMin / Chunk.X; cx <= xMax / Chunk.X; cx++) {
+                final Chunk chunk = chunks[cx + X * cy];
+                if ((chunk != null) && (chunk.getMobileCount() > 0)) {
+                    chunk.queryMobiles(xMin, yMin, xMax, yMax, filter, result);
+                }
+            }
+        }
+        return result.size() - before;
+    }
+
+    /**
+     * Adds the items at most radius cells away from (x,y) on both axis,
+     * accepted by the filter, to the result. A null filter accepts all
+     * items. Only the items of existing chunks are visited.
+     * Returns the number of items added.
+     */
+    public int queryItems(final int x, final int y, final int radius,
+            final ItemFilter filter, final ItemHits result) {
+        return queryItems(x - radius, y - radius, x + radius, y + radius,
+                filter, result);
+    }
+
+    /**
+     * Adds the items in [xMin,xMax]x[yMin,yMax], accepted by the filter,
+     * to the result. The area is clipped to the level.
+     * Returns the number of items added.
+     */
+    public int queryItems(final int theXMin, final int theYMin,
+            final int theXMax, final int theYMax, final ItemFilter filter,
+            final ItemHits result) {
+        final int before = result.size();
+        final int xMin = Math.max(theXMin, 0);
+        final int yMin = Math.max(theYMin, 0);
+        final int xMax = Math.min(theXMax, World.X - 1);
+        final int yMax = Math.min(theYMax, World.Y - 1);
+        for (int cy = yMin / Chunk.Y; cy <= yMax / Chunk.Y; cy++) {
+            for (int cx = xMin / Chunk.X; cx <= xMax / Chunk.X; cx++) {
+                final Chunk chunk = chunks[cx + X * cy];
+                if ((chunk != null) && (chunk.getItemCellCount() > 0)) {
+                    chunk.queryItems(xMin, yMin, xMax, yMax, filter, result);
+                }
+            }
+        }
+        return result.size() - before;
+    }
+
+    /**
+     * Adds the k mobiles nearest to (x,y), at most radius cells away on
+     * both axis, and accepted by the filter, to the result, nearest first.
+     * Returns the number of mobiles added.
+     */
+    public int nearestMobiles(final int x, final int y, final int radius,
+            final int k, final MobileFilter filter,
+            final List<Mobile> result) {
+        final int before = result.size();
+        final int found = queryMobiles(x, y, radius, filter, result);
+        final int keep = Math.min(k, found);
+        // Selection sort of the k nearest; k is expected to be small.
+        for (int i = before; i < before + keep; i++) {
+            int best = i;
+            float bestDistance = distance(result.get(i), x, y);
+            for (int j = i + 1; j < before + found; j++) {
+                final float distance = distance(result.get(j), x, y);
+                if (distance < bestDistance) {
+                    best = j;
+                    bestDistance = distance;
+                }
+            }
+            if (best != i) {
+                result.set(best, result.set(i, result.get(best)));
+            }
+        }
+        for (int i = before + found - 1; i >= before + keep; i--) {
+            result.remove(i);
+        }
+        return keep;
+    }
+
+    /** Returns the distance of a mobile to (x,y). */
+    private static float distance(final Mobile mobile, final int x,
+            final int y) {
+        return Position.distance(mobile.getX(), mobile.getY(), x, y);
+    }
+
     /** Handles missile firing. */
     public void handleMissile(final Item missile, final int startX,
             final int startY, final Direction direction) {
         int range = missile.getType().getRange();
-        Position pos = position.clone();
-        pos.setX(startX);
-        pos.setY(startY);
-        pos.setDirection(direction);
-        Position next = pos.next();
-        final World world = pos.getWorld();
+        int x = startX;
+        int y = startY;
+        final World world = position.getWorld();
+        final int z = position.getZ();
         final boolean egg = (missile.getType().getCategory() == ItemCategory.Egg);
-        while (world.isValid(next) && (range > 0)) {
-            final int x = next.getX();
-            final int y = next.getY();
-            final Chunk chunk = getOrCreateChunkOf(x, y);
-            if (chunk.occupied(x, y)) {
-                final Mobile mobile = chunk.getMobile(x, y);
+        while (range > 0) {
+            final int nextX = x + direction.getDX();
+            final int nextY = y + direction.getDY();
+            if (!world.isValid(nextX, nextY, z)) {
+                break;
+            }
+            final Chunk chunk = getChunkOf(nextX, nextY);
+            if (chunk == null) {
+                // Missiles never cause chunk generation.
+                break;
+            }
+            if (chunk.occupied(nextX, nextY)) {
+                final Mobile mobile = chunk.getMobile(nextX, nextY);
                 if ((mobile != null) && !egg) {
                     mobile.hitBy(missile);
                     return;
@@ -199,36 +381,23 @@ public class Level {
                 }
             } else {
                 range--;
-                pos = next;
-                next = pos.next();
+                x = nextX;
+                y = nextY;
             }
         }
-        // We should not be on a solid block.
+        // We should not be on a solid block, and the chunk must exist.
         final Mobile mobile = missile.getType().spawn();
-        final int x = pos.getX();
-        final int y = pos.getY();
         if (mobile == null) {
             if (!missile.use()) {
-                final Chunk chunk = getOrCreateChunkOf(x, y);
+                final Chunk chunk = getChunkOf(x, y);
                 chunk.addItem(x, y, missile);
             }
         } else {
-            final Chunk chunk = getOrCreateChunkOf(x, y);
+            final Chunk chunk = getChunkOf(x, y);
             chunk.setMobile(x, y, mobile);
         }
     }
 
-    /** Runs an update cycle. */
-    public void update() {
-        if (mobileCount > 0) {
-            for (final Chunk chunk : chunks) {
-                if (chunk != null) {
-                    chunk.update();
-                }
-            }
-        }
-    }
-
     /** Passes all mobiles to the visitor. */
     public void visitMobiles(final MobileVisitor visitor) {
         if (mobileCount > 0) {
@@ -15,6 +15,10 @@
  */
 package com.blockwithme.hacktors;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
 import org.apache.commons.logging.LogFactory;
 import org.osgi.framework.BundleActivator;
 import org.osgi.framework.BundleContext;
@@ -25,11 +29,39 @@ import org.osgi.framework.BundleContext;
  * @author monster
  */
 public class Main implements BundleActivator {
+    /**
+     * System property naming the directory of the region files, where the
+     * evicted chunks are kept. By default, a temporary directory is used,
+     * and deleted at the end of the game.
+     */
+    public static final String REGIONS_PROPERTY = "hacktors.regions";
+
+    /** Deletes a temporary region directory. */
+    private static void delete(final File directory) {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
     /**
      *
      */
     private static void start() {
+        final String regions = System.getProperty(REGIONS_PROPERTY);
+        final File directory;
+        try {
+            directory = (regions == null) ? Files.createTempDirectory(
+                    "hacktors").toFile() : new File(regions);
+        } catch (final IOException e) {
+            throw new IllegalStateException(
+                    "Cannot create the region directory", e);
+        }
         final World world = new World();
+        world.getChunkCache().setStore(new RegionFileStore(directory));
         final PlayerConsole console = new PlayerConsole(world);
         final PlayerMobileController controller = new PlayerMobileController(
                 console);
@@ -45,7 +77,12 @@ public class Main implements BundleActivator {
         chunk.setBlock(x, y, Block.EMPTY);
         chunk.setMobile(x, y, avatar);
         controller.setMobile(avatar);
+        world.addPlayer(avatar);
         world.getClock().start();
+        world.close();
+        if (regions == null) {
+            delete(directory);
+        }
         System.exit(0);
     }
 
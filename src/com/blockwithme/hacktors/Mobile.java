@@ -15,6 +15,7 @@
  */
 package com.blockwithme.hacktors;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -85,6 +86,21 @@ public class Mobile {
     /** The last cycle attacked, if any. */
     private int lastAttacked;
 
+    /** The Scheduler slot of this mobile, or Scheduler.NONE. */
+    @Setter(AccessLevel.NONE)
+    @Getter(AccessLevel.NONE)
+    private transient int scheduledSlot = Scheduler.NONE;
+
+    /** The position of this mobile in it's Scheduler slot. */
+    @Setter(AccessLevel.NONE)
+    @Getter(AccessLevel.NONE)
+    private transient int scheduledIndex;
+
+    /** The cycle in which this mobile is next due to act. */
+    @Setter(AccessLevel.NONE)
+    @Getter(AccessLevel.NONE)
+    private transient int scheduledCycle;
+
     /** Optionally creates a specific mobile, depending on chance. */
     public static Mobile create(final MobileController theController,
             final MobileType type, final float probability) {
@@ -114,11 +130,62 @@ public class Mobile {
         return create(MobileType.choose());
     }
 
+    /**
+     * Reads a mobile written by write(). It gets back it's ID, and a new
+     * default controller for it's type, that reads back the state of the
+     * old one. The mobile is detached.
+     */
+    public static Mobile read(final ByteBuffer buffer) {
+        final MobileType type = MobileType.ALL_SET[buffer.get() & 0xFF];
+        final int id = buffer.getInt();
+        final MobileController controller = MobileControllers
+                .createControllerFor(type);
+        final Mobile result = new Mobile(controller, type, id);
+        result.life = buffer.getInt();
+        result.position.setDirection(Direction.VALUES[buffer.get() & 0xFF]);
+        result.equipment = Item.readAll(buffer);
+        controller.setMobile(result);
+        final int length = buffer.getShort() & 0xFFFF;
+        final int end = buffer.position() + length;
+        if (length > 0) {
+            controller.read(buffer);
+        }
+        buffer.position(end);
+        // Restored IDs must never be handed out again.
+        int next = NEXT_ID.get();
+        while ((next < id) && !NEXT_ID.compareAndSet(next, id)) {
+            next = NEXT_ID.get();
+        }
+        return result;
+    }
+
     private Mobile(final MobileController theController,
             final MobileType theType) {
+        this(theController, theType, NEXT_ID.incrementAndGet());
+    }
+
+    private Mobile(final MobileController theController,
+            final MobileType theType, final int theId) {
         controller = theController;
         type = theType;
-        id = NEXT_ID.incrementAndGet();
+        id = theId;
+    }
+
+    /**
+     * Writes the type, ID, life, direction and equipment of this mobile to
+     * the buffer, followed by the state of the controller, prefixed by it's
+     * length, so that it can be skipped.
+     */
+    public void write(final ByteBuffer buffer) {
+        buffer.put((byte) type.ordinal());
+        buffer.putInt(id);
+        buffer.putInt(life);
+        buffer.put((byte) position.getDirection().ordinal());
+        Item.writeAll(buffer, equipment);
+        final int start = buffer.position();
+        buffer.putShort((short) 0);
+        controller.write(buffer);
+        buffer.putShort(start, (short) (buffer.position() - start - 2));
     }
 
     /** toString() */
@@ -177,11 +244,25 @@ public class Mobile {
         return position.clone();
     }
 
+    /** Mobile position, as a PackedPosition. */
+    public long getPackedPosition() {
+        return PackedPosition.of(position);
+    }
+
     /** Detach the mobile from the world. */
     public void detach() {
-        final Position pos = position.clone();
-        pos.setWorld(null);
-        updatedPosition(pos);
+        updatedPosition(null, position.getX(), position.getY(),
+                position.getZ(), position.getDirection());
+    }
+
+    /** Returns the x coordinate one step ahead in the current direction. */
+    private int nextX() {
+        return position.getX() + position.getDirection().getDX();
+    }
+
+    /** Returns the y coordinate one step ahead in the current direction. */
+    private int nextY() {
+        return position.getY() + position.getDirection().getDY();
     }
 
     /** Returns the mobiles carried items; it's equipment. */
@@ -257,9 +338,23 @@ public class Mobile {
 
     /** Informs the Mobile that it's position should be updated. */
     public void updatedPosition(final Position thePosition) {
-        if (!position.equals(thePosition)) {
-            final boolean changedLevel = (position.getZ() != thePosition.getZ());
-            if (thePosition.getWorld() == null) {
+        updatedPosition(thePosition.getWorld(), thePosition.getX(),
+                thePosition.getY(), thePosition.getZ(),
+                thePosition.getDirection());
+    }
+
+    /**
+     * Informs the Mobile that it's position should be updated.
+     * Same as updatedPosition(Position), without needing a Position.
+     */
+    void updatedPosition(final World world, final int x, final int y,
+            final int z, final Direction direction) {
+        final World before = position.getWorld();
+        if ((before != world) || (position.getX() != x)
+                || (position.getY() != y) || (position.getZ() != z)
+                || (position.getDirection() != direction)) {
+            final boolean changedLevel = (position.getZ() != z);
+            if (world == null) {
                 // we are being detached!
                 final Chunk oldChunk = getChunk();
                 if (oldChunk != null) {
@@ -268,11 +363,22 @@ public class Mobile {
             } else {
                 final Chunk newChunk = getChunk();
                 if (newChunk != null) {
-                    newChunk.setMobile(thePosition.getX(), thePosition.getY(),
-                            this);
+                    newChunk.setMobile(x, y, this);
+                }
+            }
+            position.setX(x);
+            position.setY(y);
+            position.setZ(z);
+            position.setWorld(world);
+            position.setDirection(direction);
+            if (before != world) {
+                if (before != null) {
+                    before.getScheduler().remove(this);
+                }
+                if (world != null) {
+                    world.getScheduler().add(this);
                 }
             }
-            position.setPosition(thePosition);
             updatedPosition(changedLevel);
         }
     }
@@ -282,16 +388,53 @@ public class Mobile {
         controller.updatedPosition(changedLevel);
     }
 
-    /** Returns the current mobile chunk, if connected to a world. */
+    /** Returns the Scheduler slot of this mobile, or Scheduler.NONE. */
+    int getScheduledSlot() {
+        return scheduledSlot;
+    }
+
+    /** Sets the Scheduler slot of this mobile. */
+    void setScheduledSlot(final int theScheduledSlot) {
+        scheduledSlot = theScheduledSlot;
+    }
+
+    /** Returns the position of this mobile in it's Scheduler slot. */
+    int getScheduledIndex() {
+        return scheduledIndex;
+    }
+
+    /** Sets the position of this mobile in it's Scheduler slot. */
+    void setScheduledIndex(final int theScheduledIndex) {
+        scheduledIndex = theScheduledIndex;
+    }
+
+    /** Returns the cycle in which this mobile is next due to act. */
+    int getScheduledCycle() {
+        return scheduledCycle;
+    }
+
+    /** Sets the cycle in which this mobile is next due to act. */
+    void setScheduledCycle(final int theScheduledCycle) {
+        scheduledCycle = theScheduledCycle;
+    }
+
+    /**
+     * Returns the current mobile chunk, if connected to a world.
+     * Never creates a chunk; a detached chunk does not count.
+     */
     public Chunk getChunk() {
         final World world = position.getWorld();
-        return (world == null) ? null : world.getOrCreateChunk(position);
+        return (world == null) ? null : world.getChunk(position);
     }
 
     /**
      * Inflict the amount of damage specified. Returns true if killed.
      */
     private boolean damageImpl(final int amount, final Object source) {
+        final World world = position.getWorld();
+        if (world != null) {
+            world.getScheduler().wake(this);
+        }
         int damage = amount;
         int i = 0;
         while (i < equipment.length) {
@@ -366,19 +509,30 @@ public class Mobile {
         return life > 0;
     }
 
-    /** Returns the last attacker, if any. */
+    /**
+     * Returns the last attacker, if any, and not forgotten yet. Changes
+     * nothing, so that it can be called while deciding.
+     */
     public Mobile getLastAttacker() {
-        if (lastAttacker != null) {
-            final World world = position.getWorld();
-            if (world != null) {
-                final int now = world.getClock().getCycle();
-                if (now - lastAttacked >= FORGET_TIME) {
-                    lastAttacked = 0;
-                    lastAttacker = null;
-                }
-            }
+        return forgotten() ? null : lastAttacker;
+    }
+
+    /** Returns true, if the last attack is old enough to be forgotten. */
+    private boolean forgotten() {
+        final World world = position.getWorld();
+        return (world != null)
+                && (world.getClock().getCycle() - lastAttacked >= FORGET_TIME);
+    }
+
+    /**
+     * Drops the last attacker, once forgotten, so that it can be garbage
+     * collected. Called by the Scheduler after the mobile acted.
+     */
+    void forgetAttacker() {
+        if ((lastAttacker != null) && forgotten()) {
+            lastAttacked = 0;
+            lastAttacker = null;
         }
-        return lastAttacker;
     }
 
     /** Moves the Mobile one position in the current direction, if possible. */
@@ -388,23 +542,21 @@ public class Mobile {
             // Detached
             return false;
         }
-        final Position next = position.next();
-        final Chunk newChunk = world.getOrCreateChunk(next);
+        final int x = nextX();
+        final int y = nextY();
+        final Chunk newChunk = world.getChunkFor(this, x, y, position.getZ());
         if (newChunk == null) {
-            // At worlds edge
+            // At worlds edge, or not generated
             return false;
         }
-        final int x = next.getX();
-        final int y = next.getY();
         if (newChunk.occupied(x, y)) {
             // Next position is not empty.
             return false;
         }
         // OK
         newChunk.setMobile(x, y, this);
-        final Block block = newChunk.getBlock(x, y);
-        if (block.getType() == BlockType.Trap) {
-            damage(BlockType.TRAP_DAMAGE, block);
+        if (newChunk.getBlockType(x, y) == BlockType.Trap) {
+            damage(BlockType.TRAP_DAMAGE, newChunk.getBlock(x, y));
         }
         return true;
     }
@@ -416,27 +568,28 @@ public class Mobile {
             // Detached
             return false;
         }
-        final Chunk chunk = world.getOrCreateChunk(position);
+        final Chunk chunk = world.getChunk(position);
         if (chunk == null) {
             // At worlds edge
             return false;
         }
         final int x = position.getX();
         final int y = position.getY();
-        Item[] items = chunk.getItems(x, y);
         boolean result = false;
-        for (int i = 0; i < items.length; i++) {
-            final Item item = items[i];
+        // Looks at the items in place, so nothing is copied if we are full.
+        int index = 0;
+        while (index < chunk.getItemCount(x, y)) {
+            final Item item = chunk.getItem(x, y, index);
             if (addItem(item)) {
-                items = (Item[]) ArrayUtils.remove(items, i--);
                 chunk.removeItem(x, y, item);
                 result = true;
+            } else {
+                index++;
             }
         }
-        final Block block = chunk.getBlock(x, y);
-        final BlockType blockType = block.getType();
-        if (blockType == BlockType.OpenChest) {
-            items = block.getContent();
+        if (chunk.getBlockType(x, y) == BlockType.OpenChest) {
+            final Block block = chunk.getBlock(x, y).mutable();
+            Item[] items = block.getContent();
             for (int i = 0; i < items.length; i++) {
                 final Item item = items[i];
                 if (addItem(item)) {
@@ -445,6 +598,7 @@ public class Mobile {
                 }
             }
             block.setContent(items);
+            chunk.setBlock(x, y, block);
         }
         return result;
     }
@@ -478,8 +632,10 @@ public class Mobile {
     }
 
     /** Attacks a Block. */
-    private void attack(final Block block, final Position next,
+    private void attack(final Block target, final int x, final int y,
             final Chunk chunk) {
+        // Pristine blocks are shared.
+        final Block block = target.mutable();
         int best = -1;
         int damage = type.getDamage();
         if (type.isToolUser()) {
@@ -504,12 +660,13 @@ public class Mobile {
             }
         }
         if (destroyed) {
-            final int x = next.getX();
-            final int y = next.getY();
             chunk.setBlock(x, y, Block.EMPTY);
             for (final Item item : block.destroyed()) {
                 chunk.addItem(x, y, item);
             }
+        } else {
+            // The chunk only keeps damaged blocks.
+            chunk.setBlock(x, y, block);
         }
     }
 
@@ -520,22 +677,20 @@ public class Mobile {
             // Detached
             return false;
         }
-        final Position next = position.next();
-        final Chunk chunk = world.getOrCreateChunk(next);
+        final int x = nextX();
+        final int y = nextY();
+        final Chunk chunk = world.getChunkFor(this, x, y, position.getZ());
         if (chunk == null) {
-            // At worlds edge
+            // At worlds edge, or not generated
             return false;
         }
-        final int x = next.getX();
-        final int y = next.getY();
         final Mobile other = chunk.getMobile(x, y);
         if (other != null) {
             attack(other);
             return true;
         }
-        final Block block = chunk.getBlock(x, y);
-        if (block.getType().isDamageable()) {
-            attack(block, next, chunk);
+        if (chunk.getBlockType(x, y).isDamageable()) {
+            attack(chunk.getBlock(x, y), x, y, chunk);
             return true;
         }
         return false;
@@ -564,7 +719,7 @@ public class Mobile {
             final Item item = removeItem(index);
             chunk.getPosition()
                     .getWorld()
-                    .getOrCreateLevel(position.getZ())
+                    .getLevel(position.getZ())
                     .handleMissile(item, position.getX(), position.getY(),
                             position.getDirection());
             return true;
@@ -579,14 +734,13 @@ public class Mobile {
             // Detached
             return false;
         }
-        final Position next = position.next();
-        final Chunk chunk = world.getOrCreateChunk(next);
+        final int x = nextX();
+        final int y = nextY();
+        final Chunk chunk = world.getChunkFor(this, x, y, position.getZ());
         if (chunk == null) {
-            // At worlds edge
+            // At worlds edge, or not generated
             return false;
         }
-        final int x = next.getX();
-        final int y = next.getY();
         final Block block = chunk.getBlock(x, y);
         final BlockType blockType = block.getType();
         final boolean door = (blockType == BlockType.ClosedDoor);
@@ -613,7 +767,7 @@ public class Mobile {
             }
             // No key! Attack!
             if (block.getType().isDamageable()) {
-                attack(block, next, chunk);
+                attack(block, x, y, chunk);
                 return true;
             }
 
@@ -628,14 +782,13 @@ public class Mobile {
             // Detached
             return false;
         }
-        final Position next = position.next();
-        final Chunk chunk = world.getOrCreateChunk(next);
+        final int x = nextX();
+        final int y = nextY();
+        final Chunk chunk = world.getChunkFor(this, x, y, position.getZ());
         if (chunk == null) {
-            // At worlds edge
+            // At worlds edge, or not generated
             return false;
         }
-        final int x = next.getX();
-        final int y = next.getY();
         final Block block = chunk.getBlock(x, y);
         final BlockType blockType = block.getType();
         final boolean door = (blockType == BlockType.OpenDoor);
@@ -673,19 +826,24 @@ public class Mobile {
         Chunk chunk = getChunk();
         final int x = position.getX();
         final int y = position.getY();
-        final Block block = chunk.getBlock(x, y);
-        final BlockType blockType = block.getType();
+        final BlockType blockType = chunk.getBlockType(x, y);
         if (blockType == BlockType.StairsUp) {
             final int z = position.getZ();
             if (z > 0) {
-                final Position pos = position.clone();
-                pos.setZ(z - 1);
-                chunk = world.getOrCreateChunk(pos);
-                if (chunk.getBlock(x, y).getType() != BlockType.StairsDown) {
+                chunk = world.getChunkFor(this, x, y, z - 1);
+                if (chunk == null) {
+                    // Not generated
+                    return false;
+                }
+                if (chunk.getBlockType(x, y) != BlockType.StairsDown) {
                     // Oops! Stairs don't match ... fix it now!
-                    chunk.setBlock(x, y, Block.create(BlockType.StairsDown));
+                    chunk.setBlockType(x, y, BlockType.StairsDown);
                 }
-                updatedPosition(pos);
+                if (chunk.getMobile(x, y) != null) {
+                    // Someone is standing on the other end.
+                    return false;
+                }
+                chunk.setMobile(x, y, this);
                 return true;
             }
         }
@@ -702,19 +860,24 @@ public class Mobile {
         Chunk chunk = getChunk();
         final int x = position.getX();
         final int y = position.getY();
-        final Block block = chunk.getBlock(x, y);
-        final BlockType blockType = block.getType();
+        final BlockType blockType = chunk.getBlockType(x, y);
         if (blockType == BlockType.StairsDown) {
             final int z = position.getZ();
             if (z < World.Z - 1) {
-                final Position pos = position.clone();
-                pos.setZ(z + 1);
-                chunk = world.getOrCreateChunk(pos);
-                if (chunk.getBlock(x, y).getType() != BlockType.StairsUp) {
+                chunk = world.getChunkFor(this, x, y, z + 1);
+                if (chunk == null) {
+                    // Not generated
+                    return false;
+                }
+                if (chunk.getBlockType(x, y) != BlockType.StairsUp) {
                     // Oops! Stairs don't match ... fix it now!
-                    chunk.setBlock(x, y, Block.create(BlockType.StairsUp));
+                    chunk.setBlockType(x, y, BlockType.StairsUp);
+                }
+                if (chunk.getMobile(x, y) != null) {
+                    // Someone is standing on the other end.
+                    return false;
                 }
-                updatedPosition(pos);
+                chunk.setMobile(x, y, this);
                 return true;
             }
         }
@@ -728,15 +891,14 @@ public class Mobile {
             // Detached
             return false;
         }
-        final Position next = position.next();
-        final Chunk chunk = world.getOrCreateChunk(next);
+        final int x = nextX();
+        final int y = nextY();
+        final Chunk chunk = world.getChunkFor(this, x, y, position.getZ());
         if (chunk == null) {
-            // At worlds edge
+            // At worlds edge, or not generated
             return false;
         }
-        final int x = next.getX();
-        final int y = next.getY();
-        if (chunk.getBlock(x, y).getType() == BlockType.Empty) {
+        if (chunk.getBlockType(x, y) == BlockType.Empty) {
             for (int i = 0; i < equipment.length; i++) {
                 final Item item = equipment[i];
                 if (item.getType() == ItemType.Block) {
@@ -756,15 +918,14 @@ public class Mobile {
             // Detached
             return false;
         }
-        final Position next = position.next();
-        final Chunk chunk = world.getOrCreateChunk(next);
+        final int x = nextX();
+        final int y = nextY();
+        final Chunk chunk = world.getChunkFor(this, x, y, position.getZ());
         if (chunk == null) {
-            // At worlds edge
+            // At worlds edge, or not generated
             return false;
         }
-        final int x = next.getX();
-        final int y = next.getY();
-        if (chunk.getBlock(x, y).getType() == BlockType.Anvil) {
+        if (chunk.getBlockType(x, y) == BlockType.Anvil) {
             int iron = -1;
             int stick = -1;
             for (int i = 0; i < equipment.length; i++) {
@@ -15,6 +15,8 @@
  */
 package com.blockwithme.hacktors;
 
+import java.nio.ByteBuffer;
+
 import javax.annotation.ParametersAreNonnullByDefault;
 
 /**
@@ -108,4 +110,16 @@ public interface MobileController {
      * Informs the MobileController that the game is stopping.
      */
     void stop();
+
+    /**
+     * Writes the state of the controller that must survive the eviction of
+     * the mobile's chunk, if any.
+     */
+    void write(final ByteBuffer buffer);
+
+    /**
+     * Reads the state written by write(), by a controller of the same
+     * class, after setMobile() was called.
+     */
+    void read(final ByteBuffer buffer);
 }
@@ -21,6 +21,9 @@ import javax.annotation.ParametersAreNonnullByDefault;
  * Offers default implementation of an AI-controlled MobileController,
  * appropriate to the type of Mobile.
  *
+ * All types share the same controller class; what differs is their
+ * compiled Behavior, as found in Behaviors.
+ *
  * @author monster
  */
 @ParametersAreNonnullByDefault
@@ -36,18 +39,7 @@ public final class MobileControllers {
         if (type == null) {
             throw new IllegalArgumentException("type is null");
         }
-        if (type == MobileType.Human) {
-            return new GenericMobileController();
-        }
-        if (type == MobileType.Zombie) {
-            return new GenericMobileController();
-        }
-        if (type == MobileType.Pig) {
-            return new GenericMobileController();
-        }
-        if (type == MobileType.Dog) {
-            return new GenericMobileController();
-        }
-        throw new IllegalArgumentException("Unknows MobileType: " + type);
+        // The behavior of the type decides what the mobile does.
+        return new GenericMobileController(Behaviors.get(type));
     }
 }
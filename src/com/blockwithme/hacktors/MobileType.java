@@ -64,9 +64,24 @@ public class MobileType extends Enum40<MobileType> implements Displayable {
     /** The fastest speed. */
     public static final int MAX_SPEED = findMaxSpeed();
 
+    /** The longest perception. */
+    public static final int MAX_PERCEPTION = findMaxPerception();
+
     /** Probability of items being dropped, per item type. */
     private static final float PROBABILITY = 0.2f;
 
+    /**
+     * The registered mobile types, extension types included. Not
+     * initialized on purpose: it's set while ALL_SET is computed.
+     */
+    private static MobileType[] mobileTypes;
+
+    /**
+     * The registered item types, extension types included. Not
+     * initialized on purpose: it's set while ItemType is initialized.
+     */
+    private static ItemType[] itemTypes;
+
     /** The display character. */
     private final transient char display;
 
@@ -97,6 +112,18 @@ public class MobileType extends Enum40<MobileType> implements Displayable {
     /** The other mobiles type that it runs away from. */
     private transient MobileType[] fears = EMPTY;
 
+    /** Bits, by MobileType ordinal, of the types it runs away from. */
+    private transient long[] fearsBits = new long[0];
+
+    /** Bits, by MobileType ordinal, of the types it hunts. */
+    private transient long[] huntsBits = new long[0];
+
+    /** Bits, by ItemType ordinal, of the types it eats. */
+    private transient long[] eatsBits = new long[0];
+
+    /** Bits, by ItemType ordinal, of the other types it wants. */
+    private transient long[] wantsBits = new long[0];
+
     /** Find the speed of the fastest mobile type. */
     private static int findMaxSpeed() {
         int result = 0;
@@ -109,6 +136,67 @@ public class MobileType extends Enum40<MobileType> implements Displayable {
         return result;
     }
 
+    /** Find the perception of the most perceptive mobile type. */
+    private static int findMaxPerception() {
+        int result = 0;
+        for (final MobileType type : ALL_SET) {
+            final int perception = type.perception;
+            if (perception > result) {
+                result = perception;
+            }
+        }
+        return result;
+    }
+
+    /** Returns a new bit array, able to contain count bits. */
+    private static long[] bits(final int count) {
+        return new long[(count + Long.SIZE - 1) / Long.SIZE];
+    }
+
+    /**
+     * Sets the bit of the given ordinal. Ordinals of types not registered
+     * yet are ignored; the bits are rebuilt when they are.
+     */
+    private static void set(final long[] bits, final int ordinal) {
+        final int word = ordinal / Long.SIZE;
+        if (word < bits.length) {
+            bits[word] |= 1L << ordinal;
+        }
+    }
+
+    /**
+     * Returns true, if the bit of the given ordinal is set. Ordinals of
+     * types registered after the bits were built are never set.
+     */
+    private static boolean isSet(final long[] bits, final int ordinal) {
+        final int word = ordinal / Long.SIZE;
+        return (word < bits.length) && ((bits[word] & (1L << ordinal)) != 0);
+    }
+
+    /**
+     * Remembers the registered types, and rebuilds the relationship bits of
+     * all mobile types. Called when mobile or item types are registered;
+     * either set is null, if it did not change. The item types are still
+     * unknown while ItemType is being initialized; they are passed right
+     * after.
+     */
+    static synchronized void updateRelations(final MobileType[] allMobiles,
+            final ItemType[] allItems) {
+        if (allMobiles != null) {
+            mobileTypes = allMobiles;
+        }
+        if (allItems != null) {
+            itemTypes = allItems;
+        }
+        if (mobileTypes != null) {
+            final ItemType[] items = (itemTypes == null) ? ItemType.EMPTY
+                    : itemTypes;
+            for (final MobileType type : mobileTypes) {
+                type.buildRelations(mobileTypes.length, items);
+            }
+        }
+    }
+
     /** Chooses one mobile type at random. */
     public static MobileType choose() {
         return ALL_SET[Util.nextInt(ALL_SET.length)];
@@ -155,6 +243,38 @@ public class MobileType extends Enum40<MobileType> implements Displayable {
         } else if (this == Human) {
             fears = new MobileType[] { Zombie };
         }
+        // Our fears change the bits of the types seen before us.
+        updateRelations(allSet, null);
+    }
+
+    /** Computes the relationship bits, from the relationship arrays. */
+    private void buildRelations(final int mobileTypes,
+            final ItemType[] itemTypes) {
+        final long[] newFears = bits(mobileTypes);
+        for (final MobileType type : fears) {
+            set(newFears, type.ordinal());
+        }
+        final long[] newHunts = bits(mobileTypes);
+        for (final MobileType type : hunts) {
+            set(newHunts, type.ordinal());
+        }
+        final long[] newEats = bits(itemTypes.length);
+        for (final ItemType type : food) {
+            set(newEats, type.ordinal());
+        }
+        final long[] newWants = bits(itemTypes.length);
+        if (isToolUser()) {
+            // Tool user wants everything!
+            for (final ItemType type : itemTypes) {
+                if (!isSet(newEats, type.ordinal())) {
+                    set(newWants, type.ordinal());
+                }
+            }
+        }
+        fearsBits = newFears;
+        huntsBits = newHunts;
+        eatsBits = newEats;
+        wantsBits = newWants;
     }
 
     /** The other mobiles type that it runs away from. */
@@ -162,6 +282,26 @@ public class MobileType extends Enum40<MobileType> implements Displayable {
         return fears;
     }
 
+    /** Returns true, if it runs away from the other mobile type. */
+    public boolean fears(final MobileType other) {
+        return isSet(fearsBits, other.ordinal());
+    }
+
+    /** Returns true, if it hunts/attacks the other mobile type on sight. */
+    public boolean hunts(final MobileType other) {
+        return isSet(huntsBits, other.ordinal());
+    }
+
+    /** Returns true, if it eats the item type. */
+    public boolean eats(final ItemType itemType) {
+        return isSet(eatsBits, itemType.ordinal());
+    }
+
+    /** Returns true, if it wants the item type, for other reasons than food. */
+    public boolean wants(final ItemType itemType) {
+        return isSet(wantsBits, itemType.ordinal());
+    }
+
     /** Returns the display character color. */
     @Override
     public Color getColor() {
@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Encodes positions as a long, so they can be used as cheap keys and values,
+ * without allocating Position objects.
+ *
+ * Bits 0-15 are x, bits 16-31 are y, bits 32-47 are z, and bits 48-55 are
+ * the direction ordinal plus one; zero means no direction. The world is not
+ * encoded. Coordinates are stored unsigned, so stepping outside of the world
+ * gives a position that is not valid.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public final class PackedPosition {
+    /** Mask of one coordinate. */
+    private static final long MASK = 0xFFFFL;
+
+    /** Shift of y. */
+    private static final int Y_SHIFT = 16;
+
+    /** Shift of z. */
+    private static final int Z_SHIFT = 32;
+
+    /** Shift of the direction. */
+    private static final int DIRECTION_SHIFT = 48;
+
+    /** Mask of the coordinates, without direction. */
+    private static final long COORDINATES = (1L << DIRECTION_SHIFT) - 1;
+
+    /** NO creation */
+    private PackedPosition() {
+        // NOP
+    }
+
+    /** Encodes coordinates, and an optional direction. */
+    public static long encode(final int x, final int y, final int z,
+            final Direction direction) {
+        final long dir = (direction == null) ? 0 : direction.ordinal() + 1;
+        return (x & MASK) | ((y & MASK) << Y_SHIFT) | ((z & MASK) << Z_SHIFT)
+                | (dir << DIRECTION_SHIFT);
+    }
+
+    /** Encodes coordinates, without direction. */
+    public static long encode(final int x, final int y, final int z) {
+        return encode(x, y, z, null);
+    }
+
+    /** Encodes a Position. The world is ignored. */
+    public static long of(final Position position) {
+        return encode(position.getX(), position.getY(), position.getZ(),
+                position.getDirection());
+    }
+
+    /** Returns x. */
+    public static int x(final long packed) {
+        return (int) (packed & MASK);
+    }
+
+    /** Returns y. */
+    public static int y(final long packed) {
+        return (int) ((packed >>> Y_SHIFT) & MASK);
+    }
+
+    /** Returns z. */
+    public static int z(final long packed) {
+        return (int) ((packed >>> Z_SHIFT) & MASK);
+    }
+
+    /** Returns the direction, if any. */
+    public static Direction direction(final long packed) {
+        final int dir = (int) (packed >>> DIRECTION_SHIFT) & 0xFF;
+        return (dir == 0) ? null : Direction.VALUES[dir - 1];
+    }
+
+    /** Returns the packed position, with another direction. */
+    public static long withDirection(final long packed,
+            final Direction direction) {
+        return encode(x(packed), y(packed), z(packed), direction);
+    }
+
+    /** Returns the packed position, without direction. */
+    public static long withoutDirection(final long packed) {
+        return packed & COORDINATES;
+    }
+
+    /** Returns the packed position one step in the given direction. */
+    public static long step(final long packed, final Direction direction) {
+        return encode(x(packed) + direction.getDX(),
+                y(packed) + direction.getDY(), z(packed), direction(packed));
+    }
+
+    /**
+     * Returns the packed position one step in it's own direction, or the
+     * packed position itself, if it has no direction.
+     */
+    public static long step(final long packed) {
+        final Direction direction = direction(packed);
+        return (direction == null) ? packed : step(packed, direction);
+    }
+
+    /** Returns true, if the coordinates are within the world. */
+    public static boolean isValid(final long packed) {
+        return (x(packed) < World.X) && (y(packed) < World.Y)
+                && (z(packed) < World.Z);
+    }
+
+    /** Returns the distance between two positions, taking only x and y in account. */
+    public static float distance(final long a, final long b) {
+        return Position.distance(x(a), y(a), x(b), y(b));
+    }
+
+    /**
+     * Returns the direction pointing from a toward b.
+     * Will return null if both have same x and y.
+     */
+    public static Direction towards(final long a, final long b) {
+        return Position.towards(x(a), y(a), x(b), y(b));
+    }
+
+    /** Copies a packed position into a Position. The world is not changed. */
+    public static void set(final Position position, final long packed) {
+        position.setX(x(packed));
+        position.setY(y(packed));
+        position.setZ(z(packed));
+        final Direction direction = direction(packed);
+        if (direction != null) {
+            position.setDirection(direction);
+        }
+    }
+
+    /** Creates a Position from a packed position, in the given world. */
+    public static Position toPosition(final long packed, final World world) {
+        final Position result = new Position();
+        set(result, packed);
+        result.setWorld(world);
+        return result;
+    }
+
+    /** Returns a readable form of a packed position. */
+    public static String toString(final long packed) {
+        return "(" + x(packed) + "," + y(packed) + "," + z(packed) + ","
+                + direction(packed) + ")";
+    }
+}
@@ -0,0 +1,590 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Finds long-range paths, within a level, using a hierarchy of chunks.
+ *
+ * Every chunk is abstracted as a few portal nodes: one in the middle of
+ * each run of open cells along a border, where the cells on both sides
+ * of the border are open. The distances between the portals of a chunk
+ * are precomputed. A* then runs over the portals only, and the path is
+ * refined, cell by cell, only within the first chunk.
+ *
+ * The abstract graph of a chunk is cached, and rebuilt when the solid
+ * version of the chunk, or of one of it's neighbours, changed.
+ * Ungenerated chunks are never entered. Mobiles are ignored.
+ *
+ * Paths can be searched from several threads at once, as long as no block
+ * changes meanwhile: every thread has it's own search state, and the
+ * graphs are shared, but never modified once built; a rebuilt graph
+ * replaces the old one.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class PathFinder {
+    /** Maximum number of portals of a chunk: runs alternate at best. */
+    private static final int MAX_NODES = 2 * (Chunk.X + Chunk.Y);
+
+    /** Id of the virtual goal node. */
+    private static final int GOAL = Level.SIZE * MAX_NODES;
+
+    /** Id of the virtual start node. */
+    private static final int START = GOAL + 1;
+
+    /** Distance of unreachable cells. */
+    private static final short UNREACHABLE = -1;
+
+    /** The abstract graph of one chunk; not modified once shared. */
+    private static final class ChunkGraph {
+        /** The solid versions of the chunk, then of it's neighbours. */
+        final long[] versions = new long[1 + Direction.VALUES.length];
+
+        /** Number of portals. */
+        int nodeCount;
+
+        /** The local cell index of every portal. */
+        final int[] cells = new int[MAX_NODES];
+
+        /** The border of every portal. */
+        final Direction[] borders = new Direction[MAX_NODES];
+
+        /** The distances between the portals, within the chunk. */
+        final short[] distances = new short[MAX_NODES * MAX_NODES];
+    }
+
+    /** The game World */
+    private final World world;
+
+    /** The cached graphs, by chunk slot in the world. */
+    private final AtomicReferenceArray<ChunkGraph> graphs =
+            new AtomicReferenceArray<>(World.Z * Level.SIZE);
+
+    /** Number of graphs built so far. */
+    private final AtomicInteger buildCount = new AtomicInteger();
+
+    /** The search state of each thread. */
+    private final ThreadLocal<Search> searches = new ThreadLocal<Search>() {
+        @Override
+        protected Search initialValue() {
+            return new Search();
+        }
+    };
+
+    /** Constructor */
+    public PathFinder(final World theWorld) {
+        world = Preconditions.checkNotNull(theWorld);
+    }
+
+    /** Returns the number of chunk graphs built so far. */
+    public int getBuildCount() {
+        return buildCount.get();
+    }
+
+    /** Returns the slot of a chunk, using chunk position. */
+    private static int slot(final int z, final int cx, final int cy) {
+        return z * Level.SIZE + cx + Level.X * cy;
+    }
+
+    /**
+     * Returns the chunk, using chunk position, or null. Looking at a chunk
+     * to plan a path does not count as using it, for the ChunkCache.
+     */
+    private static Chunk chunk(final Level level, final int cx, final int cy) {
+        if ((cx < 0) || (cx >= Level.X) || (cy < 0) || (cy >= Level.Y)) {
+            return null;
+        }
+        return level.getChunks()[cx + Level.X * cy];
+    }
+
+    /** Returns the solid version of a chunk, or 0 if it is missing. */
+    private static long version(final Chunk chunk) {
+        return (chunk == null) ? 0 : chunk.getSolidVersion();
+    }
+
+    /** Returns the local index of a cell. */
+    private static int cell(final int x, final int y) {
+        return x + Chunk.X * y;
+    }
+
+    /**
+     * Adds the portals of one border. A border cell is open if it is not
+     * solid, and the cell beyond it is not solid either. Both chunks find
+     * the same runs, and so the same portals.
+     */
+    private static void addPortals(final Chunk chunk, final Chunk other,
+            final Direction border, final ChunkGraph graph) {
+        final boolean alongY = (border.getDX() != 0);
+        final int length = alongY ? Chunk.Y : Chunk.X;
+        int start = -1;
+        for (int t = 0; t <= length; t++) {
+            boolean open = false;
+            if (t < length) {
+                final int x = alongY ? ((border.getDX() > 0) ? Chunk.X - 1 : 0)
+                        : t;
+                final int y = alongY ? t : ((border.getDY() > 0) ? Chunk.Y - 1
+                        : 0);
+                final int ox = alongY ? (Chunk.X - 1 - x) : x;
+                final int oy = alongY ? y : (Chunk.Y - 1 - y);
+                open = !chunk.solidLocal(x, y) && !other.solidLocal(ox, oy);
+            }
+            if (open && (start < 0)) {
+                start = t;
+            } else if (!open && (start >= 0)) {
+                final int t2 = (start + t - 1) / 2;
+                final int x = alongY ? ((border.getDX() > 0) ? Chunk.X - 1 : 0)
+                        : t2;
+                final int y = alongY ? t2 : ((border.getDY() > 0) ? Chunk.Y - 1
+                        : 0);
+                graph.cells[graph.nodeCount] = cell(x, y);
+                graph.borders[graph.nodeCount] = border;
+                graph.nodeCount++;
+                start = -1;
+            }
+        }
+    }
+
+    /** Returns the direction of the next step of the mobile toward the goal. */
+    public Direction nextStep(final Mobile mobile, final int goalX,
+            final int goalY) {
+        if (mobile.getWorld() != world) {
+            return null;
+        }
+        return nextStep(mobile.getZ(), mobile.getX(), mobile.getY(), goalX,
+                goalY);
+    }
+
+    /**
+     * Returns the direction of the next step from (x,y) toward the goal,
+     * on level z. Returns null if already there, or if there is no path
+     * through the generated chunks.
+     */
+    public Direction nextStep(final int z, final int x, final int y,
+            final int goalX, final int goalY) {
+        return searches.get().nextStep(z, x, y, goalX, goalY);
+    }
+
+    /** Returns the node id of a portal. */
+    private static int id(final int cx, final int cy, final int node) {
+        return (cx + Level.X * cy) * MAX_NODES + node;
+    }
+
+    /** Returns the world X of a node; not valid for GOAL and START. */
+    private int nodeX(final int z, final int id) {
+        final int chunk = id / MAX_NODES;
+        final int cx = chunk % Level.X;
+        final ChunkGraph graph = graphs.get(slot(z, cx, chunk / Level.X));
+        return cx * Chunk.X + graph.cells[id % MAX_NODES] % Chunk.X;
+    }
+
+    /** Returns the world Y of a node; not valid for GOAL and START. */
+    private int nodeY(final int z, final int id) {
+        final int chunk = id / MAX_NODES;
+        final int cy = chunk / Level.X;
+        final ChunkGraph graph = graphs.get(slot(z, chunk % Level.X, cy));
+        return cy * Chunk.Y + graph.cells[id % MAX_NODES] / Chunk.X;
+    }
+
+    /** The search state of one thread. */
+    private final class Search {
+        /** Distances within one chunk, reused. */
+        final short[] local = new short[Chunk.SIZE];
+
+        /** Second set of distances within one chunk, reused. */
+        final short[] local2 = new short[Chunk.SIZE];
+
+        /** BFS queue within one chunk, reused. */
+        final int[] queue = new int[Chunk.SIZE];
+
+        /** The cost from the start, of every node. */
+        final int[] costs = new int[START + 1];
+
+        /** The node we came from, for every node. */
+        final int[] parents = new int[START + 1];
+
+        /** The search in which a node was last seen. */
+        final int[] seen = new int[START + 1];
+
+        /** Is the node closed, in the current search? */
+        final int[] closed = new int[START + 1];
+
+        /** The open nodes, as a binary heap on estimated total cost. */
+        final int[] heap = new int[START + 1];
+
+        /** The index in the heap of every open node; -1 if not open. */
+        final int[] positions = new int[START + 1];
+
+        /** The estimated total cost of every node. */
+        final int[] estimates = new int[START + 1];
+
+        /** The cost from every portal of the goal chunk to the goal. */
+        final short[] goalCosts = new short[MAX_NODES];
+
+        /** Number of open nodes. */
+        int heapSize;
+
+        /** Id of the current search. */
+        int search;
+
+        /**
+         * Returns the up-to-date graph of a chunk, using chunk position.
+         * Returns null if the chunk is missing.
+         */
+        private ChunkGraph graph(final Level level, final int z, final int cx,
+                final int cy) {
+            final int slot = slot(z, cx, cy);
+            final Chunk chunk = chunk(level, cx, cy);
+            if (chunk == null) {
+                graphs.set(slot, null);
+                return null;
+            }
+            final ChunkGraph cached = graphs.get(slot);
+            if (cached != null) {
+                boolean valid = (cached.versions[0] == chunk.getSolidVersion());
+                for (int d = 0; valid && (d < Direction.VALUES.length); d++) {
+                    final Direction dir = Direction.VALUES[d];
+                    valid = (cached.versions[d + 1] == version(chunk(level, cx
+                            + dir.getDX(), cy + dir.getDY())));
+                }
+                if (valid) {
+                    return cached;
+                }
+            }
+            // Other threads can be reading the old graph.
+            final ChunkGraph result = new ChunkGraph();
+            build(level, cx, cy, chunk, result);
+            graphs.set(slot, result);
+            return result;
+        }
+
+        /** Builds the graph of a chunk. */
+        private void build(final Level level, final int cx, final int cy,
+                final Chunk chunk, final ChunkGraph graph) {
+            buildCount.incrementAndGet();
+            graph.versions[0] = chunk.getSolidVersion();
+            graph.nodeCount = 0;
+            for (int d = 0; d < Direction.VALUES.length; d++) {
+                final Direction dir = Direction.VALUES[d];
+                final Chunk other = chunk(level, cx + dir.getDX(), cy
+                        + dir.getDY());
+                graph.versions[d + 1] = version(other);
+                if (other != null) {
+                    addPortals(chunk, other, dir, graph);
+                }
+            }
+            final int count = graph.nodeCount;
+            for (int i = 0; i < count; i++) {
+                bfs(chunk, graph.cells[i], local);
+                for (int j = 0; j < count; j++) {
+                    graph.distances[i * MAX_NODES + j] = local[graph.cells[j]];
+                }
+            }
+        }
+
+        /** Computes the distances from a cell to all cells of a chunk. */
+        private void bfs(final Chunk chunk, final int from,
+                final short[] result) {
+            Arrays.fill(result, UNREACHABLE);
+            int head = 0;
+            int tail = 0;
+            result[from] = 0;
+            queue[tail++] = from;
+            while (head < tail) {
+                final int cell = queue[head++];
+                final int x = cell % Chunk.X;
+                final int y = cell / Chunk.X;
+                final short next = (short) (result[cell] + 1);
+                for (final Direction dir : Direction.VALUES) {
+                    final int nx = x + dir.getDX();
+                    final int ny = y + dir.getDY();
+                    if ((nx >= 0) && (nx < Chunk.X) && (ny >= 0)
+                            && (ny < Chunk.Y)) {
+                        final int neighbour = cell(nx, ny);
+                        if ((result[neighbour] == UNREACHABLE)
+                                && !chunk.solidLocal(nx, ny)) {
+                            result[neighbour] = next;
+                            queue[tail++] = neighbour;
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * Returns the direction of the first step toward a cell, within a
+         * chunk.
+         */
+        private Direction refine(final Chunk chunk, final int from,
+                final int to) {
+            bfs(chunk, to, local2);
+            final int x = from % Chunk.X;
+            final int y = from / Chunk.X;
+            Direction result = null;
+            int best = local2[from];
+            for (final Direction dir : Direction.VALUES) {
+                final int nx = x + dir.getDX();
+                final int ny = y + dir.getDY();
+                if ((nx >= 0) && (nx < Chunk.X) && (ny >= 0)
+                        && (ny < Chunk.Y)) {
+                    final int dst = local2[cell(nx, ny)];
+                    if ((dst != UNREACHABLE) && (dst < best)) {
+                        best = dst;
+                        result = dir;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /** Returns the direction of the next step, like nextStep(). */
+        Direction nextStep(final int z, final int x, final int y,
+                final int goalX, final int goalY) {
+            if (!world.isValid(x, y, z) || !world.isValid(goalX, goalY, z)
+                    || ((x == goalX) && (y == goalY))) {
+                return null;
+            }
+            final Level level = world.getLevel(z);
+            if (level == null) {
+                return null;
+            }
+            final int scx = x / Chunk.X;
+            final int scy = y / Chunk.Y;
+            final int gcx = goalX / Chunk.X;
+            final int gcy = goalY / Chunk.Y;
+            final Chunk startChunk = chunk(level, scx, scy);
+            final Chunk goalChunk = chunk(level, gcx, gcy);
+            if ((startChunk == null) || (goalChunk == null)) {
+                return null;
+            }
+            final int from = cell(x % Chunk.X, y % Chunk.Y);
+            final int to = cell(goalX % Chunk.X, goalY % Chunk.Y);
+            if ((scx == gcx) && (scy == gcy)) {
+                final Direction result = refine(startChunk, from, to);
+                if (result != null) {
+                    return result;
+                }
+                // Maybe through the neighbours ...
+            }
+            final ChunkGraph goalGraph = graph(level, z, gcx, gcy);
+            bfs(goalChunk, to, local);
+            for (int i = 0; i < goalGraph.nodeCount; i++) {
+                goalCosts[i] = local[goalGraph.cells[i]];
+            }
+            final int first = search(level, z, scx, scy, from, gcx, gcy, goalX,
+                    goalY);
+            if (first < 0) {
+                return null;
+            }
+            return firstStep(level, z, startChunk, scx, scy, from, first, to);
+        }
+
+        /** Opens or improves a node, if the new cost is better. */
+        private void relax(final int id, final int parent, final int cost,
+                final int heuristic) {
+            if (seen[id] != search) {
+                seen[id] = search;
+                costs[id] = Integer.MAX_VALUE;
+                positions[id] = -1;
+            }
+            if ((closed[id] == search) || (cost >= costs[id])) {
+                return;
+            }
+            costs[id] = cost;
+            parents[id] = parent;
+            estimates[id] = cost + heuristic;
+            // An open node moves up from where it is, since the keys of
+            // the heap must not change behind it's back.
+            int i = positions[id];
+            if (i < 0) {
+                i = heapSize++;
+            }
+            while (i > 0) {
+                final int up = (i - 1) / 2;
+                if (estimates[heap[up]] <= estimates[id]) {
+                    break;
+                }
+                heap[i] = heap[up];
+                positions[heap[i]] = i;
+                i = up;
+            }
+            heap[i] = id;
+            positions[id] = i;
+        }
+
+        /** Removes and returns the open node with the lowest estimate. */
+        private int pop() {
+            final int result = heap[0];
+            positions[result] = -1;
+            final int last = heap[--heapSize];
+            if (heapSize == 0) {
+                return result;
+            }
+            int i = 0;
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= heapSize) {
+                    break;
+                }
+                if ((child + 1 < heapSize)
+                        && (estimates[heap[child + 1]]
+                                < estimates[heap[child]])) {
+                    child++;
+                }
+                if (estimates[heap[child]] >= estimates[last]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                positions[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = last;
+            positions[last] = i;
+            return result;
+        }
+
+        /**
+         * Runs A* over the portals. Returns the first node after START of the
+         * best path, which can be GOAL, or -1 if there is no path.
+         */
+        private int search(final Level level, final int z, final int scx,
+                final int scy, final int from, final int gcx, final int gcy,
+                final int goalX, final int goalY) {
+            search++;
+            if (search == 0) {
+                // Wrapped around: forget everything.
+                Arrays.fill(seen, 0);
+                Arrays.fill(closed, 0);
+                search = 1;
+            }
+            heapSize = 0;
+            final ChunkGraph startGraph = graph(level, z, scx, scy);
+            bfs(chunk(level, scx, scy), from, local);
+            for (int i = 0; i < startGraph.nodeCount; i++) {
+                final short dst = local[startGraph.cells[i]];
+                if (dst != UNREACHABLE) {
+                    final int id = id(scx, scy, i);
+                    relax(id, START, dst, Math.abs(nodeX(z, id) - goalX)
+                            + Math.abs(nodeY(z, id) - goalY));
+                }
+            }
+            while (heapSize > 0) {
+                final int id = pop();
+                closed[id] = search;
+                if (id == GOAL) {
+                    // Walk back to the first node.
+                    int result = id;
+                    while (parents[result] != START) {
+                        result = parents[result];
+                    }
+                    return result;
+                }
+                final int chunkIndex = id / MAX_NODES;
+                final int cx = chunkIndex % Level.X;
+                final int cy = chunkIndex / Level.X;
+                final int node = id % MAX_NODES;
+                final ChunkGraph graph = graphs.get(slot(z, cx, cy));
+                final int cost = costs[id];
+                if ((cx == gcx) && (cy == gcy)
+                        && (goalCosts[node] != UNREACHABLE)) {
+                    relax(GOAL, id, cost + goalCosts[node], 0);
+                }
+                for (int j = 0; j < graph.nodeCount; j++) {
+                    final short dst = graph.distances[node * MAX_NODES + j];
+                    if ((j != node) && (dst != UNREACHABLE)) {
+                        final int other = id(cx, cy, j);
+                        relax(other, id, cost + dst,
+                                Math.abs(nodeX(z, other) - goalX)
+                                        + Math.abs(nodeY(z, other) - goalY));
+                    }
+                }
+                // Cross the border, to the matching portal of the neighbour.
+                final Direction border = graph.borders[node];
+                final int ncx = cx + border.getDX();
+                final int ncy = cy + border.getDY();
+                final ChunkGraph next = graph(level, z, ncx, ncy);
+                if (next != null) {
+                    final int x = nodeX(z, id) + border.getDX();
+                    final int y = nodeY(z, id) + border.getDY();
+                    final int target = cell(x % Chunk.X, y % Chunk.Y);
+                    final Direction back = border.opposite();
+                    for (int j = 0; j < next.nodeCount; j++) {
+                        if ((next.cells[j] == target)
+                                && (next.borders[j] == back)) {
+                            relax(id(ncx, ncy, j), id, cost + 1, Math.abs(x
+                                    - goalX)
+                                    + Math.abs(y - goalY));
+                            break;
+                        }
+                    }
+                }
+            }
+            return -1;
+        }
+
+        /** Returns the direction of the first step, toward the first node. */
+        private Direction firstStep(final Level level, final int z,
+                final Chunk startChunk, final int scx, final int scy,
+                final int from, final int first, final int to) {
+            int node = first;
+            while (true) {
+                if (node == GOAL) {
+                    // Only when the goal is in the start chunk.
+                    return refine(startChunk, from, to);
+                }
+                final int chunkIndex = node / MAX_NODES;
+                if (chunkIndex != scx + Level.X * scy) {
+                    // The node is just across the border.
+                    final int dx = chunkIndex % Level.X - scx;
+                    final int dy = chunkIndex / Level.X - scy;
+                    for (final Direction dir : Direction.VALUES) {
+                        if ((dir.getDX() == dx) && (dir.getDY() == dy)) {
+                            return dir;
+                        }
+                    }
+                    return null;
+                }
+                final int cell = graphs.get(slot(z, scx, scy)).cells[node
+                        % MAX_NODES];
+                if (cell != from) {
+                    return refine(startChunk, from, cell);
+                }
+                // We are standing on that portal; look further.
+                node = next(node);
+                if (node < 0) {
+                    return null;
+                }
+            }
+        }
+
+        /** Returns the node after the given one, on the path found last. */
+        private int next(final int node) {
+            int result = GOAL;
+            while ((result != START) && (parents[result] != node)) {
+                result = parents[result];
+            }
+            return (result == START) ? -1 : result;
+        }
+    }
+}
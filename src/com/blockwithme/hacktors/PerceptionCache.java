@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Caches, for the current cycle, the mobiles and items around a chunk, so
+ * that the mobiles of the same chunk do not all scan the level again.
+ *
+ * A snapshot covers the chunk, plus a halo as wide as the longest
+ * perception. It is taken the first time a mobile of the chunk looks
+ * around, and dropped at the end of the cycle, or of the slot, when the
+ * Scheduler catches up with several cycles at once. The positions of the
+ * mobiles are always the current ones, but mobiles coming from outside the
+ * halo, and items appearing, are only seen in the next cycle. Items taken
+ * in the meantime are still seen.
+ *
+ * The mobiles of a snapshot are sorted by row, so a query only looks at
+ * the rows within it's radius.
+ *
+ * Queries can be made from several threads at once, as long as the
+ * snapshots they need were taken beforehand, with prepare().
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class PerceptionCache {
+    /** Width of the area around a chunk, covered by a snapshot. */
+    public static final int HALO = MobileType.MAX_PERCEPTION;
+
+    /** Number of rows covered by a snapshot. */
+    private static final int ROWS = Chunk.Y + 2 * HALO;
+
+    /** What can be seen from one chunk. */
+    private static final class Snapshot {
+        /** The chunk. */
+        Chunk chunk;
+
+        /** The slot of the chunk. */
+        int slot;
+
+        /** The mobiles around the chunk, sorted by row. */
+        Mobile[] mobiles = Mobile.EMPTY;
+
+        /** The X of the mobiles, when the snapshot was taken. */
+        int[] xs = new int[0];
+
+        /** Where the mobiles of every row start; the last is the count. */
+        final int[] rowStarts = new int[ROWS + 1];
+
+        /** The items around the chunk. */
+        final ItemHits items = new ItemHits();
+    }
+
+    /** The game World */
+    private final World world;
+
+    /** The snapshots of the current cycle, by chunk slot in the world. */
+    private final Snapshot[] snapshots = new Snapshot[World.Z * Level.SIZE];
+
+    /** The snapshots in use, in the first used entries. Then free ones. */
+    private final List<Snapshot> pool = new ArrayList<>();
+
+    /** Number of snapshots in use. */
+    private int used;
+
+    /** The mobiles of a snapshot being taken, reused. */
+    private final List<Mobile> found = new ArrayList<>();
+
+    /** Number of snapshots taken so far. */
+    private int snapshotCount;
+
+    /** Number of queries answered from a snapshot so far. */
+    private final AtomicInteger queryCount = new AtomicInteger();
+
+    /** Constructor */
+    public PerceptionCache(final World theWorld) {
+        world = Preconditions.checkNotNull(theWorld);
+    }
+
+    /** Returns the number of snapshots taken so far. */
+    public int getSnapshotCount() {
+        return snapshotCount;
+    }
+
+    /** Returns the number of queries answered from a snapshot so far. */
+    public int getQueryCount() {
+        return queryCount.get();
+    }
+
+    /**
+     * Takes the snapshot of the chunk now, if it was not yet taken in this
+     * cycle, so that the queries for the chunk do not change anything.
+     */
+    public void prepare(final Chunk chunk) {
+        snapshot(chunk);
+    }
+
+    /** Returns the snapshot of a chunk. Takes it if needed. */
+    private Snapshot snapshot(final Chunk chunk) {
+        final Position pos = chunk.getPosition();
+        final int x = pos.getX();
+        final int y = pos.getY();
+        final int z = pos.getZ();
+        final int slot = z * Level.SIZE + x / Chunk.X + Level.X
+                * (y / Chunk.Y);
+        Snapshot result = snapshots[slot];
+        if ((result == null) || (result.chunk != chunk)) {
+            if (result == null) {
+                if (used == pool.size()) {
+                    pool.add(new Snapshot());
+                }
+                result = pool.get(used++);
+                result.slot = slot;
+                snapshots[slot] = result;
+            } else {
+                result.items.clear();
+            }
+            snapshotCount++;
+            result.chunk = chunk;
+            final Level level = world.getLevel(z);
+            level.queryMobiles(x - HALO, y - HALO, x + Chunk.X - 1 + HALO, y
+                    + Chunk.Y - 1 + HALO, null, found);
+            sortByRow(result, y - HALO);
+            level.queryItems(x - HALO, y - HALO, x + Chunk.X - 1 + HALO, y
+                    + Chunk.Y - 1 + HALO, null, result.items);
+        }
+        return result;
+    }
+
+    /** Moves the found mobiles to the snapshot, sorted by row. */
+    private void sortByRow(final Snapshot snapshot, final int top) {
+        final int count = found.size();
+        if (snapshot.mobiles.length < count) {
+            final int capacity = Math.max(count, 2 * snapshot.mobiles.length);
+            snapshot.mobiles = new Mobile[capacity];
+            snapshot.xs = new int[capacity];
+        }
+        // Counting sort: count the mobiles per row, then place them.
+        final int[] starts = snapshot.rowStarts;
+        Arrays.fill(starts, 0);
+        for (int i = 0; i < count; i++) {
+            starts[found.get(i).getY() - top + 1]++;
+        }
+        for (int row = 0; row < ROWS; row++) {
+            starts[row + 1] += starts[row];
+        }
+        for (int i = 0; i < count; i++) {
+            final Mobile mobile = found.get(i);
+            final int index = starts[mobile.getY() - top]++;
+            snapshot.mobiles[index] = mobile;
+            snapshot.xs[index] = mobile.getX();
+        }
+        // Placing moved every start to the next row; move them back.
+        System.arraycopy(starts, 0, starts, 1, ROWS);
+        starts[0] = 0;
+        Arrays.fill(snapshot.mobiles, count, snapshot.mobiles.length, null);
+        found.clear();
+    }
+
+    /** Returns true, if the snapshot of the chunk can answer the query. */
+    private boolean covers(final Chunk chunk, final int x, final int y,
+            final int radius) {
+        final Position pos = chunk.getPosition();
+        final int dx = x - pos.getX();
+        final int dy = y - pos.getY();
+        return (radius <= HALO) && (pos.getWorld() == world) && (dx >= 0)
+                && (dx < Chunk.X) && (dy >= 0) && (dy < Chunk.Y);
+    }
+
+    /**
+     * Adds the mobiles at most radius cells away from (x,y) on both axis,
+     * accepted by the filter, to the result, like Level.queryMobiles().
+     * (x,y) should be in the chunk; otherwise the level is queried.
+     * Returns the number of mobiles added.
+     */
+    public int queryMobiles(final Chunk chunk, final int x, final int y,
+            final int radius, final MobileFilter filter,
+            final List<Mobile> result) {
+        if (!covers(chunk, x, y, radius)) {
+            return world.getLevel(chunk.getPosition().getZ()).queryMobiles(x,
+                    y, radius, filter, result);
+        }
+        queryCount.incrementAndGet();
+        final int z = chunk.getPosition().getZ();
+        final Snapshot snapshot = snapshot(chunk);
+        final Mobile[] mobiles = snapshot.mobiles;
+        final int[] xs = snapshot.xs;
+        final int[] starts = snapshot.rowStarts;
+        // A mobile acts at most once per cycle, so moves at most one cell.
+        final int near = radius + 1;
+        final int top = chunk.getPosition().getY() - HALO;
+        final int first = starts[Math.max(y - near - top, 0)];
+        final int end = starts[Math.min(y + near - top + 1, ROWS)];
+        final int before = result.size();
+        for (int i = first; i < end; i++) {
+            if (Math.abs(xs[i] - x) <= near) {
+                final Mobile mobile = mobiles[i];
+                // Mobiles can die, or change level, during the cycle.
+                if ((mobile.getWorld() == world) && (mobile.getZ() == z)
+                        && (Math.abs(mobile.getX() - x) <= radius)
+                        && (Math.abs(mobile.getY() - y) <= radius)
+                        && ((filter == null) || filter.accept(mobile))) {
+                    result.add(mobile);
+                }
+            }
+        }
+        return result.size() - before;
+    }
+
+    /**
+     * Adds the items at most radius cells away from (x,y) on both axis,
+     * accepted by the filter, to the result, like Level.queryItems().
+     * (x,y) should be in the chunk; otherwise the level is queried.
+     * Returns the number of items added.
+     */
+    public int queryItems(final Chunk chunk, final int x, final int y,
+            final int radius, final ItemFilter filter, final ItemHits result) {
+        if (!covers(chunk, x, y, radius)) {
+            return world.getLevel(chunk.getPosition().getZ()).queryItems(x,
+                    y, radius, filter, result);
+        }
+        queryCount.incrementAndGet();
+        final ItemHits items = snapshot(chunk).items;
+        final int before = result.size();
+        for (int i = 0; i < items.size(); i++) {
+            if ((Math.abs(items.getX(i) - x) <= radius)
+                    && (Math.abs(items.getY(i) - y) <= radius)) {
+                final Item item = items.getItem(i);
+                if ((filter == null) || filter.accept(item)) {
+                    result.add(item, items.getPosition(i));
+                }
+            }
+        }
+        return result.size() - before;
+    }
+
+    /** Runs at the end of a cycle, or slot: drops all the snapshots. */
+    public void clear() {
+        for (int i = 0; i < used; i++) {
+            final Snapshot snapshot = pool.get(i);
+            snapshots[snapshot.slot] = null;
+            snapshot.chunk = null;
+            Arrays.fill(snapshot.mobiles, null);
+            snapshot.items.clear();
+        }
+        used = 0;
+    }
+}
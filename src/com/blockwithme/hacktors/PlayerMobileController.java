@@ -15,6 +15,7 @@
  */
 package com.blockwithme.hacktors;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -277,11 +278,11 @@ public class PlayerMobileController implements MobileController {
 
     /** Display game area around player. */
     private void displayArea(final World world) {
-        final Position pos = mobile.getPositionClone();
         final MobileType type = mobile.getType();
         final int perception = type.getPerception();
-        final int x = pos.getX();
-        final int y = pos.getY();
+        final int x = mobile.getX();
+        final int y = mobile.getY();
+        final int z = mobile.getZ();
         final int xMin = x - perception;
         final int xMax = x + perception;
         final int yMin = y - perception;
@@ -292,46 +293,52 @@ public class PlayerMobileController implements MobileController {
             area[i] = new char[size];
             Arrays.fill(area[i], ' ');
         }
-        final Level level = world.getOrCreateLevel(pos.getZ());
+        final Level level = world.getLevel(z);
+        // Blocks first, then items over them, then mobiles over everything.
+        // Chunks that were not generated yet, and hidden cells, stay blank.
+        final FieldOfView.View view = world.getFieldOfView().view(mobile);
         for (int px = xMin; px <= xMax; px++) {
-            pos.setX(px);
             final int m = px - xMin;
             for (int py = yMin; py <= yMax; py++) {
-                pos.setY(py);
                 final int n = py - yMin;
-                if (world.isValid(pos)) {
-                    if ((px == x) && (py == y)) {
-                        area[m][n] = '@';
-                    } else {
-                        final Chunk chunk = level.getOrCreateChunkOf(px, py);
-                        final Mobile mob = chunk.getMobile(px, py);
-                        if (mob != null) {
-                            final int color = mob.getType().getColor()
-                                    .ordinal();
-                            area[m][n] = (char) (mob.getType().getDisplay() | (color << 8));
-                        } else {
-                            final Item[] items = chunk.getItems(px, py);
-                            if (items.length > 0) {
-                                if (items.length == 1) {
-                                    final int color = items[0].getType()
-                                            .getColor().ordinal();
-                                    area[m][n] = (char) (items[0].getType()
-                                            .getDisplay() | (color << 8));
-                                } else {
-                                    area[m][n] = '*';
-                                }
-                            } else {
-                                final Block block = chunk.getBlock(px, py);
-                                final int color = block.getType().getColor()
-                                        .ordinal();
-                                area[m][n] = (char) (block.getType()
-                                        .getDisplay() | (color << 8));
-                            }
-                        }
-                    }
+                final Chunk chunk = (world.isValid(px, py, z) && view
+                        .isVisible(px, py)) ? level.getChunkOf(px, py) : null;
+                if (chunk != null) {
+                    final BlockType block = chunk.getBlockType(px, py);
+                    final int color = block.getColor().ordinal();
+                    area[m][n] = (char) (block.getDisplay() | (color << 8));
                 }
             }
         }
+        final boolean[][] hasItem = new boolean[size][size];
+        final ItemHits items = new ItemHits();
+        level.queryItems(x, y, perception, null, items);
+        for (int i = 0; i < items.size(); i++) {
+            if (!view.isVisible(items.getX(i), items.getY(i))) {
+                continue;
+            }
+            final int m = items.getX(i) - xMin;
+            final int n = items.getY(i) - yMin;
+            if (hasItem[m][n]) {
+                area[m][n] = '*';
+            } else {
+                hasItem[m][n] = true;
+                final ItemType it = items.getItem(i).getType();
+                final int color = it.getColor().ordinal();
+                area[m][n] = (char) (it.getDisplay() | (color << 8));
+            }
+        }
+        final List<Mobile> mobiles = new ArrayList<>();
+        level.queryMobiles(x, y, perception, null, mobiles);
+        for (final Mobile mob : mobiles) {
+            if (!view.isVisible(mob.getX(), mob.getY())) {
+                continue;
+            }
+            final int color = mob.getType().getColor().ordinal();
+            area[mob.getX() - xMin][mob.getY() - yMin] = (char) (mob.getType()
+                    .getDisplay() | (color << 8));
+        }
+        area[x - xMin][y - yMin] = '@';
         for (int i = 0; i < area.length; i++) {
             output.append(area[i]).append('\n');
         }
@@ -339,14 +346,13 @@ public class PlayerMobileController implements MobileController {
 
     /** Display player stats. */
     private void displayStats(final World world) {
-        final Position pos = mobile.getPositionClone();
-        final int x = pos.getX();
-        final int y = pos.getY();
-        final int z = pos.getZ();
+        final int x = mobile.getX();
+        final int y = mobile.getY();
+        final int z = mobile.getZ();
         final int cycle = world.getClock().getCycle();
         final int life = mobile.getLife();
         final MobileType type = mobile.getType();
-        final char dir = pos.getDirection().getDisplay();
+        final char dir = mobile.getDirection().getDisplay();
         output.append("(").append(x).append(",").append(y).append(",")
                 .append(z).append(") TIME: ").append(cycle).append(" HP: ")
                 .append(life).append(" DIR: ").append(dir).append(" RACE: ")
@@ -366,12 +372,11 @@ public class PlayerMobileController implements MobileController {
                 newline = false;
             }
         }
-        final Level level = world.getOrCreateLevel(pos.getZ());
-        final Chunk chunk = level.getOrCreateChunkOf(x, y);
+        final Chunk chunk = world.getChunk(x, y, z);
         final Item[] itemsUnderAvatar = chunk.getItems(x, y);
-        final Block blockUnderAvatar = chunk.getBlock(x, y);
+        final BlockType blockUnderAvatar = chunk.getBlockType(x, y);
         final boolean stuff = (itemsUnderAvatar.length > 0);
-        final boolean notEmpty = (blockUnderAvatar.getType() != BlockType.Empty);
+        final boolean notEmpty = (blockUnderAvatar != BlockType.Empty);
         if (stuff || notEmpty) {
             if (newline) {
                 output.append('\n');
@@ -621,4 +626,20 @@ public class PlayerMobileController implements MobileController {
             output.setLength(0);
         }
     }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.hacktors.MobileController#write(java.nio.ByteBuffer)
+     */
+    @Override
+    public void write(final ByteBuffer buffer) {
+        // Players are never evicted.
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.hacktors.MobileController#read(java.nio.ByteBuffer)
+     */
+    @Override
+    public void read(final ByteBuffer buffer) {
+        // Players are never evicted.
+    }
 }
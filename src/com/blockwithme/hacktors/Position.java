@@ -93,15 +93,8 @@ public class Position implements Cloneable {
     /** Returns the next position in the current direction. */
     public Position next() {
         final Position result = clone();
-        if (direction == Direction.XDown) {
-            result.x++;
-        } else if (direction == Direction.XUp) {
-            result.x--;
-        } else if (direction == Direction.YUp) {
-            result.y++;
-        } else if (direction == Direction.YDown) {
-            result.y--;
-        }
+        result.x += direction.getDX();
+        result.y += direction.getDY();
         return result;
     }
 
@@ -117,9 +110,7 @@ public class Position implements Cloneable {
      * Will return null if both position have same x and y.
      */
     public Direction towards(final Position other) {
-        final int dx = x - other.x;
-        final int dy = y - other.y;
-        return towards2(dx, dy);
+        return towards(x, y, other.x, other.y);
     }
 
     /**
@@ -127,12 +118,17 @@ public class Position implements Cloneable {
      * Will return null if both position have same x and y.
      */
     public Direction towards(final int px, final int py) {
-        final int dx = x - px;
-        final int dy = y - py;
-        return towards2(dx, dy);
+        return towards(x, y, px, py);
     }
 
-    private Direction towards2(final int dx, final int dy) {
+    /**
+     * Returns the direction pointing from (fromX,fromY) toward (toX,toY).
+     * Will return null if both have same x and y.
+     */
+    public static Direction towards(final int fromX, final int fromY,
+            final int toX, final int toY) {
+        final int dx = fromX - toX;
+        final int dy = fromY - toY;
         if ((dx == 0) && (dy == 0)) {
             return null;
         }
@@ -144,26 +140,32 @@ public class Position implements Cloneable {
 
     /** Returns the direction pointing away from the other position. */
     public Direction awayFrom(final Position other) {
-        final Direction towards = towards(other);
+        return awayFrom(x, y, other.x, other.y);
+    }
+
+    /** Returns the direction pointing from (fromX,fromY) away from (px,py). */
+    public static Direction awayFrom(final int fromX, final int fromY,
+            final int px, final int py) {
+        final Direction towards = towards(fromX, fromY, px, py);
         // if both position are the same, any direction will do ...
         return (towards == null) ? Direction.choose() : towards.opposite();
     }
 
     /** Returns the distance to another position, taking only x and y in account. */
     public float distance(final Position other) {
-        final int dx = x - other.x;
-        final int dy = y - other.y;
-        return distance2(dx, dy);
+        return distance(x, y, other.x, other.y);
     }
 
     /** Returns the distance to another position, taking only x and y in account. */
     public float distance(final int px, final int py) {
-        final int dx = x - px;
-        final int dy = y - py;
-        return distance2(dx, dy);
+        return distance(x, y, px, py);
     }
 
-    private float distance2(final int dx, final int dy) {
+    /** Returns the distance between (x1,y1) and (x2,y2). */
+    public static float distance(final int x1, final int y1, final int x2,
+            final int y2) {
+        final int dx = x1 - x2;
+        final int dy = y1 - y2;
         if ((dx == 0) && (dy == 0)) {
             return 0.0f;
         }
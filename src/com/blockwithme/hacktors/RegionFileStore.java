@@ -0,0 +1,308 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.BitSet;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * A ChunkStore that keeps the chunks of each level in one "region" file.
+ *
+ * The file starts with a header with one entry per chunk of the level: the
+ * first sector, and the length in bytes, of the chunk data, or zero if the
+ * chunk is not stored. The chunk data follows, in sectors of SECTOR bytes.
+ *
+ * Region files are memory-mapped. Loading a chunk reads directly from a
+ * slice of the mapping; storing a chunk copies it's encoded form into the
+ * mapping, reusing it's previous sectors if they are large enough. A
+ * loaded chunk stays in the file, until it is written back, so that the
+ * file always holds the last saved state of every chunk.
+ *
+ * When a file grows, it is mapped again, and the old mapping is released
+ * right away, rather than whenever the garbage collector gets to it.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class RegionFileStore implements ChunkStore, Closeable {
+    /** Size of a sector; the allocation unit of region files. */
+    public static final int SECTOR = 4096;
+
+    /** Size of a header entry: first sector and length. */
+    private static final int ENTRY = 8;
+
+    /** Number of sectors used by the header. */
+    private static final int HEADER_SECTORS = (Level.SIZE * ENTRY + SECTOR - 1)
+            / SECTOR;
+
+    /** The region file of a level. */
+    private static final class Region {
+        /** The file. */
+        private final RandomAccessFile file;
+
+        /** The file mapping. */
+        private MappedByteBuffer map;
+
+        /** Number of sectors in the file. */
+        private int sectors;
+
+        /** The used sectors. */
+        private final BitSet used = new BitSet();
+
+        /** Opens, or creates, a region file. */
+        Region(final File path) throws IOException {
+            file = new RandomAccessFile(path, "rw");
+            final long length = file.length();
+            sectors = (int) Math.max(HEADER_SECTORS, (length + SECTOR - 1)
+                    / SECTOR);
+            map(sectors);
+            used.set(0, HEADER_SECTORS);
+            for (int i = 0; i < Level.SIZE; i++) {
+                final int size = length(i);
+                if (size > 0) {
+                    final int first = first(i);
+                    used.set(first, first + count(size));
+                }
+            }
+        }
+
+        /** Resizes the file, and maps all of it. */
+        private void map(final int theSectors) throws IOException {
+            if (map != null) {
+                map.force();
+                unmap(map);
+                map = null;
+            }
+            file.setLength((long) theSectors * SECTOR);
+            map = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+                    (long) theSectors * SECTOR);
+            sectors = theSectors;
+        }
+
+        /** Returns the first sector of a chunk. */
+        private int first(final int index) {
+            return map.getInt(index * ENTRY);
+        }
+
+        /** Returns the length of a chunk, or 0 if not stored. */
+        int length(final int index) {
+            return map.getInt(index * ENTRY + 4);
+        }
+
+        /** Returns the number of sectors needed for length bytes. */
+        private static int count(final int length) {
+            return (length + SECTOR - 1) / SECTOR;
+        }
+
+        /** Returns a read-only view of the data of a stored chunk. */
+        ByteBuffer slice(final int index) {
+            final ByteBuffer result = map.asReadOnlyBuffer();
+            final int start = first(index) * SECTOR;
+            result.limit(start + length(index));
+            result.position(start);
+            return result.slice();
+        }
+
+        /** Writes the data of a chunk. */
+        void write(final int index, final ByteBuffer data) throws IOException {
+            final int length = data.remaining();
+            final int needed = count(length);
+            int first = first(index);
+            final int before = count(length(index));
+            if (needed <= before) {
+                used.clear(first + needed, first + before);
+            } else {
+                used.clear(first, first + before);
+                first = allocate(needed);
+            }
+            final ByteBuffer target = map.duplicate();
+            target.position(first * SECTOR);
+            target.put(data);
+            map.putInt(index * ENTRY, first);
+            map.putInt(index * ENTRY + 4, length);
+        }
+
+        /** Finds, and marks as used, a run of free sectors. */
+        private int allocate(final int count) throws IOException {
+            int result = used.nextClearBit(HEADER_SECTORS);
+            int next = used.nextSetBit(result);
+            while ((next >= 0) && (next < result + count)) {
+                result = used.nextClearBit(next);
+                next = used.nextSetBit(result);
+            }
+            if (result + count > sectors) {
+                map(Math.max(sectors * 2, result + count));
+            }
+            used.set(result, result + count);
+            return result;
+        }
+
+        /** Writes the changes to disk, and closes the file. */
+        void close() throws IOException {
+            map.force();
+            unmap(map);
+            map = null;
+            file.close();
+        }
+    }
+
+    /**
+     * Releases a mapping right away. Nothing must use it afterward. If the
+     * JVM does not allow it, the garbage collector releases it later.
+     */
+    static void unmap(final MappedByteBuffer buffer) {
+        try {
+            // Java 9 and later.
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafeClass.getMethod("invokeCleaner", ByteBuffer.class).invoke(
+                    field.get(null), buffer);
+            return;
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            // Not available; try the Java 7 way.
+        }
+        try {
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (final ReflectiveOperationException | RuntimeException e) {
+            // Left to the garbage collector.
+        }
+    }
+
+    /** The directory of the region files. */
+    private final File directory;
+
+    /** The region files, opened on demand. */
+    private final Region[] regions = new Region[World.Z];
+
+    /** Buffer used to encode the chunks. */
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(4 * SECTOR);
+
+    /** Constructor */
+    public RegionFileStore(final File theDirectory) {
+        directory = Preconditions.checkNotNull(theDirectory);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create directory "
+                    + directory);
+        }
+    }
+
+    /** Returns the region file of a level, opening it if needed. */
+    private Region region(final int z) {
+        Region result = regions[z];
+        if (result == null) {
+            final File path = new File(directory, "level-" + z + ".region");
+            try {
+                result = new Region(path);
+            } catch (final IOException e) {
+                throw new IllegalStateException("Cannot open " + path, e);
+            }
+            regions[z] = result;
+        }
+        return result;
+    }
+
+    /** Computes the index of a chunk in the region file. */
+    private static int index(final int x, final int y) {
+        return x + Level.X * y;
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.hacktors.ChunkStore#contains(int, int, int)
+     */
+    @Override
+    public boolean contains(final int z, final int x, final int y) {
+        return region(z).length(index(x, y)) > 0;
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.hacktors.ChunkStore#load(int, int, int)
+     */
+    @Override
+    public Chunk load(final int z, final int x, final int y) {
+        final Region region = region(z);
+        final int index = index(x, y);
+        if (region.length(index) == 0) {
+            return null;
+        }
+        final Chunk result = new Chunk();
+        final Position pos = result.getPosition();
+        pos.setX(x * Chunk.X);
+        pos.setY(y * Chunk.Y);
+        pos.setZ(z);
+        result.read(region.slice(index));
+        return result;
+    }
+
+    /* (non-Javadoc)
+     * @see com.blockwithme.hacktors.ChunkStore#store(com.blockwithme.hacktors.Chunk)
+     */
+    @Override
+    public void store(final Chunk chunk) {
+        while (true) {
+            try {
+                buffer.clear();
+                chunk.write(buffer);
+                break;
+            } catch (final BufferOverflowException e) {
+                buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+            }
+        }
+        buffer.flip();
+        final Position pos = chunk.getPosition();
+        final int z = pos.getZ();
+        try {
+            region(z).write(index(pos.getX() / Chunk.X, pos.getY() / Chunk.Y),
+                    buffer);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Cannot store chunk of level " + z,
+                    e);
+        }
+    }
+
+    /**
+     * Writes the changes to disk, and closes all region files. They are
+     * opened again, if the store is used again.
+     */
+    @Override
+    public void close() throws IOException {
+        for (int z = 0; z < regions.length; z++) {
+            final Region region = regions[z];
+            if (region != null) {
+                regions[z] = null;
+                region.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,533 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Decides which mobiles act in which cycle.
+ *
+ * It is a timing wheel, with one slot per cycle, up to Clock.MAX_SPEED.
+ * Every mobile in the world is filed in the slot of the cycle it is next
+ * due, so a tick only visits the mobiles that act in that cycle. A mobile
+ * acts on the cycles that are a multiple of it's MobileType speed, as it
+ * did when the chunks checked every resident on every cycle. Mobiles due
+ * further away than the wheel size are simply filed again when their slot
+ * comes up too early.
+ *
+ * Mobiles register themselves when they enter the world, and unregister
+ * when they leave it, by dying, being detached, or because their level or
+ * chunk was evicted.
+ *
+ * Mobiles with nothing to do can also be put to sleep. A sleeping mobile
+ * is taken off the wheel, until something it could care about happens
+ * within it's perception range: a mobile it fears or hunts comes by, an
+ * item it eats or wants is dropped, or a cell becomes solid or free. Being
+ * damaged also wakes it up. The cost of a tick then depends on the number
+ * of mobiles with something to do, and not on the whole population.
+ *
+ * With a parallelism of 1 or more, a tick runs in two phases. First, the
+ * mobiles due decide what they intend to do; this only reads the world,
+ * so it runs on several threads when the parallelism is above 1. Then the
+ * intents are applied one after the other, in the order of the slot. An
+ * intent that became impossible, because of a mobile applied before, just
+ * fails; the first one wins. The result does not depend on the number of
+ * threads. Controllers that are not IntentControllers act in the second
+ * phase. With a parallelism of 0, the mobiles decide and act one after the
+ * other, as before.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class Scheduler {
+
+    /** The slot of a mobile that is not scheduled. */
+    static final int NONE = -1;
+
+    /** The slot of a mobile taken out of it's slot, to act in this tick. */
+    private static final int RUNNING = -2;
+
+    /** The slot of a sleeping mobile. */
+    static final int SLEEPING = -3;
+
+    /** Number of slots. */
+    private static final int SLOTS = Clock.MAX_SPEED;
+
+    /** By default, fewer mobiles than that decide in the same thread. */
+    private static final int SPLIT = 64;
+
+    /** Lets a range of the running mobiles decide, splitting it if large. */
+    private final class Decide extends RecursiveAction {
+        /** serialVersionUID */
+        private static final long serialVersionUID = 1L;
+
+        /** The first mobile. */
+        private final int from;
+
+        /** After the last mobile. */
+        private final int to;
+
+        /** Constructor */
+        Decide(final int theFrom, final int theTo) {
+            from = theFrom;
+            to = theTo;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= split) {
+                decide(from, to);
+            } else {
+                final int middle = (from + to) >>> 1;
+                invokeAll(new Decide(from, middle), new Decide(middle, to));
+            }
+        }
+    }
+
+    /** The game World */
+    private final World world;
+
+    /** The mobiles of each slot. */
+    private final Mobile[][] wheel = new Mobile[SLOTS][];
+
+    /** Number of mobiles in each slot. */
+    private final int[] sizes = new int[SLOTS];
+
+    /** Copy of the slot being run, reused by tick(). */
+    private Mobile[] running = Mobile.EMPTY;
+
+    /** Number of mobiles scheduled, and awake. */
+    private int count;
+
+    /** Number of mobiles sleeping. */
+    private int sleeping;
+
+    /** The first cycle that was not ticked yet. */
+    private int now;
+
+    /** Number of times a mobile acted, since the creation. */
+    private long actions;
+
+    /** The intents of the running mobiles, reused. */
+    private Intent[] intents = new Intent[0];
+
+    /** 0 to decide and act at once; otherwise, the number of threads. */
+    private int parallelism;
+
+    /** Fewer mobiles than that decide in the same thread. */
+    private int split = SPLIT;
+
+    /**
+     * The threads deciding, if the parallelism is above 1. Created on the
+     * first tick, and again after close().
+     */
+    private ForkJoinPool pool;
+
+    /** Constructor */
+    public Scheduler(final World theWorld) {
+        world = Preconditions.checkNotNull(theWorld);
+        for (int i = 0; i < SLOTS; i++) {
+            wheel[i] = Mobile.EMPTY;
+        }
+    }
+
+    /** Returns the number of mobiles scheduled, and awake. */
+    public int getCount() {
+        return count;
+    }
+
+    /** Returns the number of mobiles sleeping. */
+    public int getSleeping() {
+        return sleeping;
+    }
+
+    /** Returns the number of times a mobile acted, since the creation. */
+    public long getActions() {
+        return actions;
+    }
+
+    /** Returns 0 if the mobiles decide and act at once; otherwise, the number of threads. */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the parallelism: 0 to decide and act at once, as before, 1 to
+     * decide first and act afterward, and more to also decide in that many
+     * threads.
+     */
+    public void setParallelism(final int theParallelism) {
+        Preconditions.checkArgument(theParallelism >= 0,
+                "theParallelism must not be negative: %s", theParallelism);
+        close();
+        parallelism = theParallelism;
+    }
+
+    /**
+     * Sets how many mobiles at most decide in the same thread. Lets the
+     * tests fork with few mobiles awake.
+     */
+    void setSplit(final int theSplit) {
+        Preconditions.checkArgument(theSplit > 0,
+                "theSplit must be positive: %s", theSplit);
+        split = theSplit;
+    }
+
+    /**
+     * Stops the threads deciding, if any. They are started again, if the
+     * scheduler ticks again.
+     */
+    public void close() {
+        if (pool != null) {
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /** Returns true, if the mobile is scheduled. */
+    public boolean contains(final Mobile mobile) {
+        return (mobile.getScheduledSlot() != NONE)
+                && (mobile.getWorld() == world);
+    }
+
+    /** Returns the first multiple of speed, at or after cycle. */
+    private static int nextDue(final int speed, final int cycle) {
+        return ((cycle + speed - 1) / speed) * speed;
+    }
+
+    /**
+     * Schedules the mobile for the first cycle, not yet ticked, that is a
+     * multiple of it's speed. Does nothing if it is already scheduled.
+     */
+    public void add(final Mobile mobile) {
+        if (mobile.getScheduledSlot() == NONE) {
+            count++;
+            file(mobile, nextDue(mobile.getType().getSpeed(), now));
+        }
+    }
+
+    /**
+     * Unschedules the mobile, awake or not. Does nothing if it is not
+     * scheduled. The chunk of a sleeping mobile must have already
+     * forgotten it.
+     */
+    public void remove(final Mobile mobile) {
+        final int slot = mobile.getScheduledSlot();
+        if (slot == SLEEPING) {
+            sleeping--;
+        } else if (slot != NONE) {
+            if (slot != RUNNING) {
+                unfile(mobile, slot);
+            }
+            count--;
+        }
+        mobile.setScheduledSlot(NONE);
+    }
+
+    /** Returns true, if the mobile is sleeping. */
+    public static boolean isSleeping(final Mobile mobile) {
+        return mobile.getScheduledSlot() == SLEEPING;
+    }
+
+    /**
+     * Puts a scheduled mobile to sleep; it will not act again until it is
+     * woken up. Does nothing if it is not scheduled, or already sleeping.
+     */
+    public void sleep(final Mobile mobile) {
+        final int slot = mobile.getScheduledSlot();
+        if ((slot == NONE) || (slot == SLEEPING)) {
+            return;
+        }
+        final Chunk chunk = mobile.getChunk();
+        if (chunk == null) {
+            return;
+        }
+        if (slot != RUNNING) {
+            unfile(mobile, slot);
+        }
+        count--;
+        sleeping++;
+        mobile.setScheduledSlot(SLEEPING);
+        chunk.updateSleeperCount(1);
+    }
+
+    /**
+     * Wakes up a sleeping mobile. It acts on the next cycle due. Does
+     * nothing if it is not sleeping.
+     */
+    public void wake(final Mobile mobile) {
+        if (mobile.getScheduledSlot() == SLEEPING) {
+            final Chunk chunk = mobile.getChunk();
+            if (chunk != null) {
+                chunk.updateSleeperCount(-1);
+            }
+            sleeping--;
+            mobile.setScheduledSlot(NONE);
+            add(mobile);
+        }
+    }
+
+    /** Wakes up the sleeping mobiles that care about the mobile, now at (x,y,z). */
+    void mobileEntered(final Mobile mobile, final int x, final int y,
+            final int z) {
+        if (sleeping > 0) {
+            disturb(x, y, z, mobile, null);
+        }
+    }
+
+    /** Wakes up the sleeping mobiles that care about the item, dropped at (x,y,z). */
+    void itemDropped(final Item item, final int x, final int y, final int z) {
+        if (sleeping > 0) {
+            disturb(x, y, z, null, item);
+        }
+    }
+
+    /** Wakes up the sleeping mobiles that see (x,y,z), which became solid, or free. */
+    void solidChanged(final int x, final int y, final int z) {
+        if (sleeping > 0) {
+            disturb(x, y, z, null, null);
+        }
+    }
+
+    /**
+     * Wakes up the sleeping mobiles that perceive (x,y,z), and care about
+     * the mobile, or the item; all of them, if both are null.
+     */
+    private void disturb(final int x, final int y, final int z,
+            final Mobile mobile, final Item item) {
+        final Level level = world.getLevel(z);
+        if (level == null) {
+            return;
+        }
+        final Chunk[] chunks = level.getChunks();
+        final int range = MobileType.MAX_PERCEPTION;
+        final int xMin = Math.max(x - range, 0) / Chunk.X;
+        final int xMax = Math.min(x + range, World.X - 1) / Chunk.X;
+        final int yMin = Math.max(y - range, 0) / Chunk.Y;
+        final int yMax = Math.min(y + range, World.Y - 1) / Chunk.Y;
+        for (int cx = xMin; cx <= xMax; cx++) {
+            for (int cy = yMin; cy <= yMax; cy++) {
+                final Chunk chunk = chunks[cx + Level.X * cy];
+                if ((chunk != null) && (chunk.getSleeperCount() > 0)) {
+                    disturb(chunk, x, y, mobile, item);
+                }
+            }
+        }
+    }
+
+    /** Same as disturb(x,y,z,mobile,item), for the sleepers of one chunk. */
+    private void disturb(final Chunk chunk, final int x, final int y,
+            final Mobile mobile, final Item item) {
+        // Indexed backward, since waking up does not move anybody.
+        for (int i = chunk.getMobileCount() - 1; i >= 0; i--) {
+            final Mobile sleeper = chunk.getResident(i);
+            if ((sleeper.getScheduledSlot() != SLEEPING) || (sleeper == mobile)) {
+                continue;
+            }
+            final MobileType type = sleeper.getType();
+            final int perception = type.getPerception();
+            if ((Math.abs(sleeper.getX() - x) > perception)
+                    || (Math.abs(sleeper.getY() - y) > perception)) {
+                continue;
+            }
+            final boolean cares;
+            if (mobile != null) {
+                final MobileType other = mobile.getType();
+                cares = type.fears(other) || type.hunts(other)
+                        || (sleeper.getLastAttacker() == mobile);
+            } else if (item != null) {
+                final ItemType itemType = item.getType();
+                cares = type.eats(itemType) || type.wants(itemType);
+            } else {
+                cares = true;
+            }
+            if (cares) {
+                wake(sleeper);
+            }
+        }
+    }
+
+    /** Files the mobile in the slot of the cycle. */
+    private void file(final Mobile mobile, final int cycle) {
+        final int slot = cycle % SLOTS;
+        final int size = sizes[slot];
+        Mobile[] mobiles = wheel[slot];
+        if (size == mobiles.length) {
+            mobiles = Arrays.copyOf(mobiles, Math.max(16, size * 2));
+            wheel[slot] = mobiles;
+        }
+        mobiles[size] = mobile;
+        sizes[slot] = size + 1;
+        mobile.setScheduledCycle(cycle);
+        mobile.setScheduledSlot(slot);
+        mobile.setScheduledIndex(size);
+    }
+
+    /** Removes the mobile from it's slot; the last one takes it's place. */
+    private void unfile(final Mobile mobile, final int slot) {
+        final Mobile[] mobiles = wheel[slot];
+        final int index = mobile.getScheduledIndex();
+        final int last = --sizes[slot];
+        final Mobile moved = mobiles[last];
+        mobiles[index] = moved;
+        moved.setScheduledIndex(index);
+        mobiles[last] = null;
+    }
+
+    /**
+     * Lets the mobiles due in the cycle act. Cycles skipped since the last
+     * tick are caught up, so that every mobile acts at most once. Mobiles
+     * scheduled while ticking do not act before the next cycle. What was
+     * seen in a caught up slot is forgotten before the next one, since the
+     * mobiles of that slot acted in the meantime.
+     */
+    public void tick(final int cycle) {
+        if (cycle < now) {
+            return;
+        }
+        final int first = (cycle - now >= SLOTS) ? cycle - SLOTS + 1 : now;
+        now = cycle + 1;
+        for (int c = first; c <= cycle; c++) {
+            if (c > first) {
+                world.getPerceptionCache().clear();
+            }
+            run(c % SLOTS, cycle);
+        }
+    }
+
+    /** Lets the mobiles of the slot that are due at or before cycle act. */
+    private void run(final int slot, final int cycle) {
+        final int size = sizes[slot];
+        if (size == 0) {
+            return;
+        }
+        if (running.length < size) {
+            running = new Mobile[wheel[slot].length];
+        }
+        final Mobile[] mobiles = wheel[slot];
+        System.arraycopy(mobiles, 0, running, 0, size);
+        Arrays.fill(mobiles, 0, size, null);
+        sizes[slot] = 0;
+        for (int i = 0; i < size; i++) {
+            running[i].setScheduledSlot(RUNNING);
+        }
+        if (parallelism > 0) {
+            runPhased(size, cycle);
+            return;
+        }
+        for (int i = 0; i < size; i++) {
+            final Mobile mobile = running[i];
+            running[i] = null;
+            // Unscheduled, or scheduled anew, by someone that acted before.
+            if (mobile.getScheduledSlot() != RUNNING) {
+                continue;
+            }
+            final int due = mobile.getScheduledCycle();
+            if (due > cycle) {
+                // Further away than the wheel size.
+                file(mobile, due);
+                continue;
+            }
+            mobile.getController().act();
+            mobile.forgetAttacker();
+            actions++;
+            if (mobile.getScheduledSlot() == RUNNING) {
+                file(mobile, nextDue(mobile.getType().getSpeed(), cycle + 1));
+            }
+        }
+    }
+
+    /**
+     * Same as run(), in two phases: the due mobiles decide, and then their
+     * intents are applied in order.
+     */
+    private void runPhased(final int size, final int cycle) {
+        // Keeps only the mobiles due; runs never refile anyone before this.
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            final Mobile mobile = running[i];
+            running[i] = null;
+            final int due = mobile.getScheduledCycle();
+            if (due > cycle) {
+                // Further away than the wheel size.
+                file(mobile, due);
+            } else {
+                running[count++] = mobile;
+            }
+        }
+        if (intents.length < count) {
+            final int old = intents.length;
+            intents = Arrays.copyOf(intents, running.length);
+            for (int i = old; i < intents.length; i++) {
+                intents[i] = new Intent();
+            }
+        }
+        // Snapshots are taken now, so that deciding changes nothing.
+        final PerceptionCache perceived = world.getPerceptionCache();
+        for (int i = 0; i < count; i++) {
+            final Chunk chunk = running[i].getChunk();
+            if (chunk != null) {
+                perceived.prepare(chunk);
+            }
+        }
+        if ((parallelism > 1) && (count > split)) {
+            if (pool == null) {
+                pool = new ForkJoinPool(parallelism);
+            }
+            pool.invoke(new Decide(0, count));
+        } else {
+            decide(0, count);
+        }
+        for (int i = 0; i < count; i++) {
+            final Mobile mobile = running[i];
+            running[i] = null;
+            // Unscheduled, or scheduled anew, by someone that acted before.
+            if (mobile.getScheduledSlot() != RUNNING) {
+                intents[i].clear();
+                continue;
+            }
+            final MobileController controller = mobile.getController();
+            if (controller instanceof IntentController) {
+                final Intent intent = intents[i];
+                ((IntentController) controller).applied(intent,
+                        intent.apply(mobile));
+            } else {
+                controller.act();
+            }
+            mobile.forgetAttacker();
+            actions++;
+            if (mobile.getScheduledSlot() == RUNNING) {
+                file(mobile, nextDue(mobile.getType().getSpeed(), cycle + 1));
+            }
+        }
+    }
+
+    /** Lets the running mobiles, from from to before to, decide. */
+    private void decide(final int from, final int to) {
+        for (int i = from; i < to; i++) {
+            final MobileController controller = running[i].getController();
+            if (controller instanceof IntentController) {
+                ((IntentController) controller).decide(intents[i]);
+            }
+        }
+    }
+}
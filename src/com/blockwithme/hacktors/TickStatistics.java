@@ -0,0 +1,167 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Records how long the update cycles of a Clock take, and how late they
+ * are.
+ *
+ * Durations go in a histogram of BUCKET nanoseconds wide buckets, up to
+ * BUCKETS times that, so percentiles are precise to a bucket; longer
+ * durations all go in the last bucket. There is a single writer, the
+ * Clock thread, but the values can be read from any thread, for example
+ * through JMX.
+ *
+ * @author monster
+ */
+@ParametersAreNonnullByDefault
+public class TickStatistics {
+    /** The width of one histogram bucket, in nanoseconds. */
+    public static final long BUCKET = 100000L;
+
+    /** Number of histogram buckets. */
+    public static final int BUCKETS = 4000;
+
+    /** Number of cycles per duration bucket. */
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    /** Number of cycles recorded. */
+    private volatile long cycles;
+
+    /** Total duration of the cycles, in nanoseconds. */
+    private volatile long totalNanos;
+
+    /** Longest cycle, in nanoseconds. */
+    private volatile long maxNanos;
+
+    /**
+     * Number of cycles that ended after the deadline of the next one.
+     * Cycles that started late, to catch up, do not count.
+     */
+    private volatile long overruns;
+
+    /** Number of cycles of real time that the game did not run. */
+    private volatile long droppedCycles;
+
+    /** How late the last cycle started, in nanoseconds. */
+    private volatile long lagNanos;
+
+    /** How late a cycle started at most, in nanoseconds. */
+    private volatile long maxLagNanos;
+
+    /** Records a cycle, that took that long, and started that late. */
+    public void record(final long nanos, final long lag) {
+        final int bucket = (int) Math.min(nanos / BUCKET, BUCKETS - 1);
+        histogram.incrementAndGet(bucket);
+        totalNanos += nanos;
+        if (nanos > maxNanos) {
+            maxNanos = nanos;
+        }
+        lagNanos = lag;
+        if (lag > maxLagNanos) {
+            maxLagNanos = lag;
+        }
+        cycles++;
+    }
+
+    /** Records a cycle that ended after the deadline of the next one. */
+    public void overrun() {
+        overruns++;
+    }
+
+    /** Records cycles of real time that the game will not run. */
+    public void dropped(final long count) {
+        droppedCycles += count;
+    }
+
+    /** Forgets everything recorded. Must be called by the writer. */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            histogram.set(i, 0);
+        }
+        cycles = 0;
+        totalNanos = 0;
+        maxNanos = 0;
+        overruns = 0;
+        droppedCycles = 0;
+        lagNanos = 0;
+        maxLagNanos = 0;
+    }
+
+    /** Returns the number of cycles recorded. */
+    public long getCycles() {
+        return cycles;
+    }
+
+    /** Returns the mean duration of a cycle, in nanoseconds. */
+    public long getMeanNanos() {
+        final long count = cycles;
+        return (count == 0) ? 0 : totalNanos / count;
+    }
+
+    /** Returns the longest duration of a cycle, in nanoseconds. */
+    public long getMaxNanos() {
+        return maxNanos;
+    }
+
+    /**
+     * Returns the duration, in nanoseconds, that the given percentage of
+     * the cycles did not exceed. It is the upper bound of a bucket, and so
+     * at most BUCKET too high.
+     */
+    public long getPercentileNanos(final double percent) {
+        if ((percent < 0) || (percent > 100)) {
+            throw new IllegalArgumentException("percent: " + percent);
+        }
+        final long count = cycles;
+        if (count == 0) {
+            return 0;
+        }
+        final long wanted = (long) Math.ceil(count * percent / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += histogram.get(i);
+            if (seen >= wanted) {
+                return Math.min((i + 1) * BUCKET, maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    /** Returns the number of cycles that ended after the deadline of the next one. */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    /** Returns the number of cycles of real time that the game did not run. */
+    public long getDroppedCycles() {
+        return droppedCycles;
+    }
+
+    /** Returns how late the last cycle started, in nanoseconds. */
+    public long getLagNanos() {
+        return lagNanos;
+    }
+
+    /** Returns how late a cycle started at most, in nanoseconds. */
+    public long getMaxLagNanos() {
+        return maxLagNanos;
+    }
+}
@@ -36,30 +36,62 @@ public final class Util {
     /** Shared random number generator. */
     private static final Random RND = new Random();
 
+    /** The random number generators of threads that do not use the shared one. */
+    private static final ThreadLocal<Random> THREAD_RND = new ThreadLocal<>();
+
+    /**
+     * Seeds the shared random number generator, so that a run can be
+     * repeated.
+     */
+    public static void setSeed(final long seed) {
+        RND.setSeed(seed);
+    }
+
+    /**
+     * Makes the current thread use it's own random number generator,
+     * instead of the shared one, or the shared one again, if null.
+     * Returns the one used before, or null if it was the shared one.
+     */
+    public static Random setThreadRandom(final Random random) {
+        final Random result = THREAD_RND.get();
+        if (random == null) {
+            THREAD_RND.remove();
+        } else {
+            THREAD_RND.set(random);
+        }
+        return result;
+    }
+
+    /** Returns the random number generator of the current thread. */
+    private static Random rnd() {
+        final Random result = THREAD_RND.get();
+        return (result == null) ? RND : result;
+    }
+
     /** Returns a random float. */
     public static float nextFloat() {
-        final float result = RND.nextFloat();
+        final float result = rnd().nextFloat();
         //        System.out.println("nextFloat(): " + result);
         return result;
     }
 
     /** Returns a random boolean. */
     public static boolean nextBoolean() {
-        final boolean result = RND.nextBoolean();
+        final boolean result = rnd().nextBoolean();
         //        System.out.println("nextBoolean(): " + result);
         return result;
     }
 
     /** Returns a random int. */
     public static int nextInt() {
-        final int result = RND.nextInt();
+        final int result = rnd().nextInt();
         //        System.out.println("nextInt(): " + result);
         return result;
     }
 
     /** Returns a random int in [0,maxExclusive[. */
     public static int nextInt(final int maxExclusive) {
-        final int result = RND.nextInt(maxExclusive);
+        final int result = rnd().nextInt(maxExclusive);
         //        System.out.println("nextInt(" + maxExclusive + "): " + result);
         return result;
     }
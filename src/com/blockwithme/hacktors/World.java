@@ -15,8 +15,14 @@
  */
 package com.blockwithme.hacktors;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import com.google.common.base.Preconditions;
+
 /**
  * Represents one game world; it is the core, upon which everything else hangs.
  *
@@ -39,15 +45,133 @@ public class World {
     /** All the levels. */
     private final Level[] levels = new Level[Z];
 
+    /** The generators of the levels, including the evicted ones. */
+    private final Generator[] generators = new Generator[Z];
+
     /** Number of mobiles contained. */
     private int mobileCount;
 
+    /** Number of chunks contained. */
+    private int chunkCount;
+
+    /** The active chunks; the ones containing mobiles. */
+    private Chunk[] active = new Chunk[0];
+
+    /** Number of active chunks. */
+    private int activeCount;
+
     /** The game clock. */
     private final Clock clock;
 
+    /** Decides which mobiles act in which cycle. */
+    private final Scheduler scheduler;
+
+    /** The player-controlled mobiles. */
+    private final List<Mobile> players = new ArrayList<>();
+
+    /** Generates chunks around the players in the background. */
+    private final ChunkPregenerator pregenerator;
+
+    /** Keeps the number of chunks in memory within a budget. */
+    private final ChunkCache chunkCache;
+
+    /** The paths toward the players. */
+    private final FlowFields flowFields;
+
+    /** Finds long-range paths. */
+    private final PathFinder pathFinder;
+
+    /** What the mobiles see, during the current cycle. */
+    private final PerceptionCache perceptionCache;
+
+    /** What can be seen from where, given the walls. */
+    private final FieldOfView fieldOfView;
+
+    /** Decides which mobiles may cause the generation of new chunks. */
+    private GenerationPolicy generationPolicy = GenerationPolicies.PLAYERS_ONLY;
+
     /** Constructor */
     public World() {
         clock = new Clock(this);
+        scheduler = new Scheduler(this);
+        pregenerator = new ChunkPregenerator(this);
+        chunkCache = new ChunkCache(this);
+        flowFields = new FlowFields(this);
+        pathFinder = new PathFinder(this);
+        perceptionCache = new PerceptionCache(this);
+        fieldOfView = new FieldOfView(this);
+    }
+
+    /** Returns the chunk generation policy. */
+    public GenerationPolicy getGenerationPolicy() {
+        return generationPolicy;
+    }
+
+    /** Sets the chunk generation policy. */
+    public void setGenerationPolicy(final GenerationPolicy theGenerationPolicy) {
+        generationPolicy = Preconditions.checkNotNull(theGenerationPolicy);
+    }
+
+    /** Returns the mobile scheduler. */
+    public Scheduler getScheduler() {
+        return scheduler;
+    }
+
+    /** Returns the chunk cache. */
+    public ChunkCache getChunkCache() {
+        return chunkCache;
+    }
+
+    /** Returns the background chunk generator. */
+    public ChunkPregenerator getPregenerator() {
+        return pregenerator;
+    }
+
+    /** Returns the paths toward the players. */
+    public FlowFields getFlowFields() {
+        return flowFields;
+    }
+
+    /** Returns the long-range path finder. */
+    public PathFinder getPathFinder() {
+        return pathFinder;
+    }
+
+    /** Returns what the mobiles see, during the current cycle. */
+    public PerceptionCache getPerceptionCache() {
+        return perceptionCache;
+    }
+
+    /** Returns what can be seen from where, given the walls. */
+    public FieldOfView getFieldOfView() {
+        return fieldOfView;
+    }
+
+    /** Registers a player-controlled mobile. */
+    public void addPlayer(final Mobile player) {
+        if (!players.contains(player)) {
+            players.add(player);
+        }
+    }
+
+    /** Unregisters a player-controlled mobile. */
+    public void removePlayer(final Mobile player) {
+        players.remove(player);
+    }
+
+    /** Returns true, if the mobile is player-controlled. */
+    public boolean isPlayer(final Mobile mobile) {
+        return players.contains(mobile);
+    }
+
+    /** Returns the number of player-controlled mobiles. */
+    public int getPlayerCount() {
+        return players.size();
+    }
+
+    /** Returns a player-controlled mobile. */
+    public Mobile getPlayer(final int index) {
+        return players.get(index);
     }
 
     /** The game clock. */
@@ -67,6 +191,41 @@ public class World {
         }
     }
 
+    /** Returns the number of chunks contained. */
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    /** Updates the chunk count. Called by the levels. */
+    void updateChunkCount(final int change) {
+        chunkCount += change;
+    }
+
+    /** Returns the number of active chunks. */
+    public int getActiveChunkCount() {
+        return activeCount;
+    }
+
+    /** Registers an active chunk. Called by the chunk itself. */
+    void activate(final Chunk chunk) {
+        if (activeCount == active.length) {
+            active = Arrays.copyOf(active, Math.max(16, activeCount * 2));
+        }
+        chunk.setActiveIndex(activeCount);
+        active[activeCount++] = chunk;
+    }
+
+    /** Unregisters an active chunk. Called by the chunk itself. */
+    void deactivate(final Chunk chunk) {
+        final int index = chunk.getActiveIndex();
+        activeCount--;
+        final Chunk last = active[activeCount];
+        active[index] = last;
+        last.setActiveIndex(index);
+        active[activeCount] = null;
+        chunk.setActiveIndex(-1);
+    }
+
     /** Returns the Level. */
     public Level getLevel(final int z) {
         return levels[z];
@@ -84,13 +243,39 @@ public class World {
                 && (y < Y) && (z >= 0) && (z < Z);
     }
 
+    /** Returns true, if the coordinates are within the world. */
+    public boolean isValid(final int x, final int y, final int z) {
+        return (x >= 0) && (x < X) && (y >= 0) && (y < Y) && (z >= 0)
+                && (z < Z);
+    }
+
     /** Returns the chunk, if position is valid, and Chunk at position exists. */
     public Chunk getChunk(final Position position) {
         if (!isValid(position)) {
             return null;
         }
-        return getLevel(position.getZ()).getChunkOf(position.getX(),
-                position.getY());
+        return getChunk(position.getX(), position.getY(), position.getZ());
+    }
+
+    /** Returns the chunk, if coordinates are valid, and Chunk at coordinates exists. */
+    public Chunk getChunk(final int x, final int y, final int z) {
+        if (!isValid(x, y, z)) {
+            return null;
+        }
+        final Level level = levels[z];
+        return (level == null) ? null : level.getChunkOf(x, y);
+    }
+
+    /**
+     * Returns the chunk, if coordinates are valid, and Chunk at coordinates
+     * exists, without marking it as recently used.
+     */
+    public Chunk peekChunk(final int x, final int y, final int z) {
+        if (!isValid(x, y, z)) {
+            return null;
+        }
+        final Level level = levels[z];
+        return (level == null) ? null : level.peekChunkOf(x, y);
     }
 
     /** Returns the chunk, if position is valid. */
@@ -98,16 +283,44 @@ public class World {
         if (!isValid(position)) {
             return null;
         }
-        return getOrCreateLevel(position.getZ()).getOrCreateChunkOf(
-                position.getX(), position.getY());
+        return getOrCreateChunk(position.getX(), position.getY(),
+                position.getZ());
+    }
+
+    /** Returns the chunk, if coordinates are valid. */
+    public Chunk getOrCreateChunk(final int x, final int y, final int z) {
+        if (!isValid(x, y, z)) {
+            return null;
+        }
+        return getOrCreateLevel(z).getOrCreateChunkOf(x, y);
+    }
+
+    /**
+     * Returns the chunk a mobile wants to act upon, if coordinates are valid.
+     * A missing chunk is only generated if the generation policy allows it;
+     * otherwise null is returned, as at the edge of the world.
+     */
+    public Chunk getChunkFor(final Mobile mobile, final int x, final int y,
+            final int z) {
+        final Chunk result = getChunk(x, y, z);
+        if ((result == null) && isValid(x, y, z)
+                && generationPolicy.mayGenerate(this, mobile, x, y, z)) {
+            return getOrCreateChunk(x, y, z);
+        }
+        return result;
     }
 
-    /** Returns the Level. Creates it if needed. */
+    /**
+     * Returns the Level. Creates it if needed.
+     * An evicted level gets back the generator it had.
+     */
     public Level getOrCreateLevel(final int z) {
         Level result = levels[z];
         if (result == null) {
             // TODO : we should have some kind of game world profiles, that dictates those probabilities.
-            if ((z == 0) || Util.nextBoolean()) {
+            if (generators[z] != null) {
+                result = new Level(generators[z]);
+            } else if ((z == 0) || Util.nextBoolean()) {
                 result = new Level(Generators.RANDOM);
             } else {
                 final int gen = Util
@@ -135,16 +348,19 @@ public class World {
             levels[z] = level;
             if (before != null) {
                 before.getPosition().setWorld(null);
-                level.updatedPosition();
+                before.updatedPosition();
             }
             if (level != null) {
+                generators[z] = level.getGenerator();
                 updateLevelPosition(z, level);
             }
             if (before != null) {
                 updateMobileCount(-before.getMobileCount());
+                updateChunkCount(-before.getChunkCount());
             }
             if (level != null) {
                 updateMobileCount(level.getMobileCount());
+                updateChunkCount(level.getChunkCount());
             }
         }
     }
@@ -154,15 +370,32 @@ public class World {
         return levels.clone();
     }
 
-    /** Runs an update cycle. */
+    /**
+     * Runs an update cycle.
+     *
+     * Only the mobiles due in the current cycle are visited, so the cost
+     * depends on the number of mobiles acting, and not on the size of the
+     * world, or on the number of mobiles waiting for their turn.
+     * Once all mobiles have acted, what they saw is forgotten, and chunks
+     * are evicted if over budget.
+     */
     public void update() {
-        if (mobileCount > 0) {
-            for (final Level level : levels) {
-                if (level != null) {
-                    level.update();
-                }
-            }
-        }
+        pregenerator.update();
+        flowFields.update();
+        scheduler.tick(clock.getCycle());
+        perceptionCache.clear();
+        chunkCache.evict();
+    }
+
+    /**
+     * Stops the background threads, once the clock stopped, and writes the
+     * chunks to the ChunkStore, if any. The threads are started again, and
+     * the store opened again, if the world is updated again.
+     */
+    public void close() {
+        pregenerator.close();
+        scheduler.close();
+        chunkCache.close();
     }
 
     /** Passes all mobiles to the visitor. */
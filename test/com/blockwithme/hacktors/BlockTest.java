@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that pristine blocks are shared, and cannot be changed.
+ *
+ * @author monster
+ */
+public class BlockTest {
+
+    /** Cells without a state of their own all return the same block. */
+    @Test
+    public void testPristineShared() {
+        final Chunk chunk = new Chunk();
+        chunk.setBlockTypeLocal(1, 1, BlockType.Stone);
+        chunk.setBlockTypeLocal(2, 2, BlockType.Stone);
+        final Block block = chunk.getBlockLocal(1, 1);
+        Assert.assertSame(block, chunk.getBlockLocal(2, 2));
+        Assert.assertSame(block, Block.pristine(BlockType.Stone));
+        Assert.assertTrue(block.isPristine());
+        Assert.assertEquals(BlockType.Stone.getLife(), block.getLife());
+    }
+
+    /** Shared blocks refuse changes; their mutable copy does not. */
+    @Test
+    public void testMutable() {
+        final Chunk chunk = new Chunk();
+        chunk.setBlockTypeLocal(1, 1, BlockType.Stone);
+        final Block shared = chunk.getBlockLocal(1, 1);
+        try {
+            shared.damage(1);
+            Assert.fail("shared block was damaged");
+        } catch (final IllegalStateException e) {
+            // Expected
+        }
+        final Block block = shared.mutable();
+        Assert.assertNotSame(shared, block);
+        Assert.assertSame(block, block.mutable());
+        Assert.assertFalse(block.damage(1));
+        chunk.setBlockLocal(1, 1, block);
+        Assert.assertSame(block, chunk.getBlockLocal(1, 1));
+        Assert.assertEquals(BlockType.Stone.getLife(), shared.getLife());
+    }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks where the catch-up policies put the next deadline, and how many
+ * cycles they drop.
+ *
+ * @author monster
+ */
+public class CatchUpPoliciesTest {
+
+    /** The duration of a cycle. */
+    private static final long CYCLE = 100;
+
+    /** SKIP waits for the next deadline, and drops the ones in between. */
+    @Test
+    public void testSkip() {
+        final CatchUpPolicy policy = CatchUpPolicies.SKIP;
+        final long next = policy.nextDeadline(1000, 1250, CYCLE);
+        Assert.assertEquals(1300, next);
+        Assert.assertEquals(3, policy.droppedCycles(1000, next, CYCLE));
+    }
+
+    /** BURST runs late cycles, and only drops those beyond MAX_BURST. */
+    @Test
+    public void testBurst() {
+        final CatchUpPolicy policy = CatchUpPolicies.BURST;
+        long next = policy.nextDeadline(1000, 1250, CYCLE);
+        Assert.assertEquals(1000, next);
+        Assert.assertEquals(0, policy.droppedCycles(1000, next, CYCLE));
+        final long late = 1000 + (CatchUpPolicies.MAX_BURST + 5) * CYCLE;
+        next = policy.nextDeadline(1000, late, CYCLE);
+        Assert.assertEquals(1500, next);
+        Assert.assertEquals(5, policy.droppedCycles(1000, next, CYCLE));
+    }
+
+    /** SLOW_MOTION runs the next cycle now, and drops nothing. */
+    @Test
+    public void testSlowMotion() {
+        final CatchUpPolicy policy = CatchUpPolicies.SLOW_MOTION;
+        final long next = policy.nextDeadline(1000, 1250, CYCLE);
+        Assert.assertEquals(1250, next);
+        Assert.assertEquals(0, policy.droppedCycles(1000, next, CYCLE));
+    }
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.io.Closeable;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the ChunkCache.
+ *
+ * @author monster
+ */
+public class ChunkCacheTest {
+    /** A ChunkStore in memory. */
+    private static final class MapStore implements ChunkStore, Closeable {
+        /** The stored chunks. */
+        final Map<Integer, Chunk> chunks = new HashMap<>();
+
+        /** Was the store closed? */
+        boolean closed;
+
+        /** Returns the key of a chunk position. */
+        private static Integer key(final int z, final int x, final int y) {
+            return (z * Level.Y + y) * Level.X + x;
+        }
+
+        @Override
+        public boolean contains(final int z, final int x, final int y) {
+            return chunks.containsKey(key(z, x, y));
+        }
+
+        @Override
+        public Chunk load(final int z, final int x, final int y) {
+            return chunks.get(key(z, x, y));
+        }
+
+        @Override
+        public void store(final Chunk chunk) {
+            final Position pos = chunk.getPosition();
+            chunks.put(key(pos.getZ(), pos.getX() / Chunk.X, pos.getY()
+                    / Chunk.Y), chunk);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    /** The world. */
+    private World world;
+
+    /** Creates a world, with a fully generated first level. */
+    @Before
+    public void setUp() {
+        Util.setSeed(7);
+        world = new World();
+        final Level level = world.getOrCreateLevel(0);
+        for (int x = 0; x < Level.X; x++) {
+            for (int y = 0; y < Level.Y; y++) {
+                level.getOrCreateChunk(x, y);
+            }
+        }
+    }
+
+    /** Releases the world. */
+    @After
+    public void tearDown() {
+        world.close();
+    }
+
+    /** Without a store, the mobiles and items must survive eviction. */
+    @Test
+    public void testNoStoreKeepsMobilesAndItems() {
+        final int mobiles = world.getMobileCount();
+        final Level level = world.getLevel(0);
+        final Chunk[] before = level.getChunks().clone();
+        final ChunkCache cache = world.getChunkCache();
+        cache.setMaxChunks(1);
+        cache.evict();
+        Assert.assertTrue("nothing evicted", cache.getEvictedCount() > 0);
+        Assert.assertEquals(mobiles, world.getMobileCount());
+        final Chunk[] after = level.getChunks();
+        for (int i = 0; i < before.length; i++) {
+            final Chunk chunk = before[i];
+            if ((chunk.getMobileCount() > 0) || (chunk.getItemCellCount() > 0)) {
+                Assert.assertSame(chunk, after[i]);
+            }
+        }
+    }
+
+    /**
+     * Without a store, changed chunks are kept, and regenerating the others
+     * does not spawn their mobiles again.
+     */
+    @Test
+    public void testNoStoreKeepsChanges() {
+        final Level level = world.getLevel(0);
+        Chunk changed = null;
+        for (final Chunk chunk : level.getChunks()) {
+            if ((chunk.getMobileCount() == 0)
+                    && (chunk.getItemCellCount() == 0)) {
+                Assert.assertFalse(chunk.isDirty());
+                if (changed == null) {
+                    changed = chunk;
+                }
+            }
+        }
+        Assert.assertNotNull(changed);
+        final Position pos = changed.getPosition();
+        changed.setBlockType(pos.getX(), pos.getY(), BlockType.Stone);
+        Assert.assertTrue(changed.isDirty());
+        final int mobiles = world.getMobileCount();
+        final ChunkCache cache = world.getChunkCache();
+        cache.setMaxChunks(1);
+        for (int round = 0; round < 3; round++) {
+            cache.evict();
+            Assert.assertTrue("nothing evicted", cache.getEvictedCount() > 0);
+            for (int x = 0; x < Level.X; x++) {
+                for (int y = 0; y < Level.Y; y++) {
+                    level.getOrCreateChunk(x, y);
+                }
+            }
+            Assert.assertEquals(mobiles, world.getMobileCount());
+        }
+        Assert.assertSame(changed, level.getChunkOf(pos.getX(), pos.getY()));
+        Assert.assertEquals(BlockType.Stone,
+                changed.getBlockType(pos.getX(), pos.getY()));
+    }
+
+    /** With a store, everything can be evicted, and loaded back. */
+    @Test
+    public void testStoreEvictsAndLoads() {
+        final int mobiles = world.getMobileCount();
+        final MapStore store = new MapStore();
+        final ChunkCache cache = world.getChunkCache();
+        cache.setStore(store);
+        cache.setMaxChunks(1);
+        cache.evict();
+        Assert.assertTrue(world.getChunkCount() <= 1);
+        Assert.assertEquals(cache.getEvictedCount(), store.chunks.size());
+        final Level level = world.getOrCreateLevel(0);
+        for (int x = 0; x < Level.X; x++) {
+            for (int y = 0; y < Level.Y; y++) {
+                level.getOrCreateChunk(x, y);
+            }
+        }
+        Assert.assertEquals(mobiles, world.getMobileCount());
+        Assert.assertEquals(cache.getEvictedCount(), store.chunks.size());
+    }
+
+    /** Closing the world writes the chunks in memory, and closes the store. */
+    @Test
+    public void testCloseFlushes() {
+        final MapStore store = new MapStore();
+        world.getChunkCache().setStore(store);
+        world.close();
+        Assert.assertEquals(world.getChunkCount(), store.chunks.size());
+        Assert.assertTrue(store.closed);
+    }
+
+    /** The memory budget is turned into a number of chunks. */
+    @Test
+    public void testMemoryBudget() {
+        final ChunkCache cache = world.getChunkCache();
+        cache.setMemoryBudget(10 * ChunkCache.CHUNK_BYTES + 1);
+        Assert.assertEquals(10, cache.getMaxChunks());
+        Assert.assertEquals(10 * ChunkCache.CHUNK_BYTES, cache.getMemoryBudget());
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the ChunkPregenerator.
+ *
+ * @author monster
+ */
+public class ChunkPregeneratorTest {
+
+    /** Creates a world, with the given seed. */
+    private static World world(final long seed) {
+        Util.setSeed(seed);
+        return new World();
+    }
+
+    /** Checks that both chunks have the same content. */
+    private static void assertSameContent(final Chunk expected,
+            final Chunk actual) {
+        for (int x = 0; x < Chunk.X; x++) {
+            for (int y = 0; y < Chunk.Y; y++) {
+                final String cell = "(" + x + "," + y + ")";
+                Assert.assertEquals(cell, expected.getBlockTypeLocal(x, y),
+                        actual.getBlockTypeLocal(x, y));
+                final Mobile em = expected.getMobileLocal(x, y);
+                final Mobile am = actual.getMobileLocal(x, y);
+                Assert.assertEquals(cell, (em == null) ? null : em.getType(),
+                        (am == null) ? null : am.getType());
+                Assert.assertEquals(cell, expected.getItemCountLocal(x, y),
+                        actual.getItemCountLocal(x, y));
+            }
+        }
+    }
+
+    /** A chunk is the same, whether it is generated in the background or not. */
+    @Test
+    public void testSameChunkOnAnyThread() throws Exception {
+        // Initializes the classes, which might use the shared random.
+        world(0).getOrCreateLevel(0).getOrCreateChunk(0, 0);
+
+        final World foreground = world(42);
+        final Level level = foreground.getOrCreateLevel(0);
+        final Chunk expected = level.getOrCreateChunk(3, 5);
+
+        final World background = world(42);
+        // The shared random is not where it was, for the other world.
+        Util.nextInt();
+        final Generator generator = background.getOrCreateLevel(0)
+                .getGenerator();
+        final Chunk actual = new Chunk();
+        final Position pos = actual.getPosition();
+        pos.setX(3 * Chunk.X);
+        pos.setY(5 * Chunk.Y);
+        pos.setZ(0);
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                background.getPregenerator().fill(generator, actual, 0, 3, 5);
+            }
+        });
+        thread.start();
+        thread.join();
+
+        assertSameContent(expected, actual);
+        foreground.close();
+        background.close();
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that GenericMobileController does not allocate in steady state.
+ *
+ * Every branch of the default behavior is covered: wandering, hunting,
+ * fleeing, eating, and collecting items. Only wandering changes nothing
+ * but the positions, so it is measured acting; the other scenarios are
+ * measured deciding, which is what the controller does, so that the world
+ * stays the same from one round to the next. After a warm up, the measure
+ * is repeated until a few passes in a row allocate zero bytes.
+ *
+ * @author monster
+ */
+public class ControllerAllocationTest {
+    /** Size of the area, in chunks. */
+    private static final int CHUNKS = 3;
+
+    /** Number of rounds used to warm up the JIT and the scratch buffers. */
+    private static final int WARMUP = 3000;
+
+    /** Number of rounds of a measured pass. */
+    private static final int ROUNDS = 2000;
+
+    /** Number of measured passes in a row that must allocate nothing. */
+    private static final int PASSES = 3;
+
+    /** Maximum number of measured passes. */
+    private static final int MAX_PASSES = 12;
+
+    /** Counts the allocated bytes. */
+    private com.sun.management.ThreadMXBean bean;
+
+    /** The world. */
+    private World world;
+
+    /** The level of the mobiles. */
+    private Level level;
+
+    /** Creates a few empty chunks. */
+    @Before
+    public void setUp() {
+        bean = (com.sun.management.ThreadMXBean) ManagementFactory
+                .getThreadMXBean();
+        Assume.assumeTrue(bean.isThreadAllocatedMemorySupported());
+        bean.setThreadAllocatedMemoryEnabled(true);
+        Util.setSeed(13);
+        world = new World();
+        level = new Level(Generators.EMPTY);
+        world.setLevel(0, level);
+        for (int x = 0; x < CHUNKS; x++) {
+            for (int y = 0; y < CHUNKS; y++) {
+                level.getOrCreateChunk(x, y);
+            }
+        }
+    }
+
+    /** Releases the world. */
+    @After
+    public void tearDown() {
+        world.close();
+    }
+
+    /** Places a new mobile. */
+    private Mobile place(final int x, final int y, final MobileType type) {
+        final Mobile result = Mobile.create(type);
+        level.getChunkOf(x, y).setMobile(x, y, result);
+        return result;
+    }
+
+    /** Returns the kind of intent the mobile decides now. */
+    private int decision(final Mobile mobile) {
+        final Intent intent = new Intent();
+        ((IntentController) mobile.getController()).decide(intent);
+        world.getPerceptionCache().clear();
+        return intent.getKind();
+    }
+
+    /**
+     * Lets every mobile act, or only decide, rounds times, forgetting what
+     * they saw each time.
+     */
+    private void run(final List<Mobile> mobiles, final int rounds,
+            final boolean act, final Intent intent) {
+        final PerceptionCache perceived = world.getPerceptionCache();
+        for (int round = 0; round < rounds; round++) {
+            // Indexed loop, so that no Iterator is created.
+            for (int i = 0; i < mobiles.size(); i++) {
+                final IntentController controller = (IntentController) mobiles
+                        .get(i).getController();
+                if (act) {
+                    controller.act();
+                } else {
+                    controller.decide(intent);
+                }
+            }
+            perceived.clear();
+        }
+    }
+
+    /** Returns the number of bytes allocated by one pass. */
+    private long measure(final List<Mobile> mobiles, final boolean act,
+            final Intent intent) {
+        final long thread = Thread.currentThread().getId();
+        // What it costs just to ask.
+        long start = bean.getThreadAllocatedBytes(thread);
+        final long overhead = bean.getThreadAllocatedBytes(thread) - start;
+        start = bean.getThreadAllocatedBytes(thread);
+        run(mobiles, ROUNDS, act, intent);
+        return bean.getThreadAllocatedBytes(thread) - start - overhead;
+    }
+
+    /**
+     * Checks that PASSES measured passes in a row allocate no byte at all.
+     * The JIT allocates once on our thread, when compiled code hits a trap
+     * to load a class or resolve a constant. That can happen long after
+     * the warm up, when another test trained the code differently, so such
+     * a pass starts the count again; a steady allocation never gets a
+     * single clean pass.
+     */
+    private void assertNoAllocation(final String what,
+            final List<Mobile> mobiles, final boolean act) {
+        final Intent intent = new Intent();
+        run(mobiles, WARMUP, act, intent);
+        int clean = 0;
+        for (int pass = 0; clean < PASSES; pass++) {
+            final long bytes = measure(mobiles, act, intent);
+            if (bytes == 0) {
+                clean++;
+            } else {
+                clean = 0;
+                Assert.assertTrue(what + ", pass " + pass + ", " + bytes
+                        + " bytes allocated", pass + PASSES < MAX_PASSES);
+            }
+        }
+    }
+
+    /** Pigs and zombies ignore each other, and some bones nobody wants. */
+    @Test
+    public void testWander() {
+        final Random random = new Random(200);
+        final int size = CHUNKS * Chunk.X;
+        final List<Mobile> mobiles = new ArrayList<>();
+        while (mobiles.size() < 200) {
+            final int x = random.nextInt(size);
+            final int y = random.nextInt(size);
+            final Chunk chunk = level.getChunkOf(x, y);
+            if (random.nextBoolean()) {
+                chunk.addItem(x, y, Item.create(ItemType.Bone));
+            }
+            if (!chunk.occupied(x, y)) {
+                mobiles.add(place(x, y, random.nextBoolean() ? MobileType.Pig
+                        : MobileType.Zombie));
+            }
+        }
+        assertNoAllocation("wander", mobiles, true);
+    }
+
+    /** Humans attack the pigs next to them, and chase the others. */
+    @Test
+    public void testHunt() {
+        final List<Mobile> attackers = new ArrayList<>();
+        final List<Mobile> chasers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final int x = 2 + 4 * i;
+            attackers.add(place(x, 4, MobileType.Human));
+            place(x + 1, 4, MobileType.Pig);
+            chasers.add(place(x, 20, MobileType.Human));
+            place(x, 24, MobileType.Pig);
+        }
+        for (final Mobile mobile : attackers) {
+            Assert.assertEquals(Intent.ATTACK, decision(mobile));
+        }
+        for (final Mobile mobile : chasers) {
+            Assert.assertEquals(Intent.MOVE, decision(mobile));
+        }
+        final List<Mobile> mobiles = new ArrayList<>(attackers);
+        mobiles.addAll(chasers);
+        assertNoAllocation("hunt", mobiles, false);
+    }
+
+    /** Wounded pigs run away from the dogs that attacked them. */
+    @Test
+    public void testFlee() {
+        final List<Mobile> mobiles = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final int x = 2 + 4 * i;
+            final Mobile pig = place(x, 10, MobileType.Pig);
+            pig.setLife(MobileType.Pig.getLife() / 4);
+            pig.setLastAttacker(place(x, 12, MobileType.Dog));
+            mobiles.add(pig);
+        }
+        for (final Mobile mobile : mobiles) {
+            Assert.assertEquals(Intent.MOVE, decision(mobile));
+        }
+        assertNoAllocation("flee", mobiles, false);
+    }
+
+    /**
+     * Hungry humans eat what they carry; the others pick up the food they
+     * stand on, or go get the food they see.
+     */
+    @Test
+    public void testEatAndCollect() {
+        final List<Mobile> eaters = new ArrayList<>();
+        final List<Mobile> pickers = new ArrayList<>();
+        final List<Mobile> fetchers = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            final int x = 2 + 4 * i;
+            final Mobile eater = place(x, 30, MobileType.Human);
+            eater.setLife(MobileType.Human.getLife() / 2);
+            eater.addItem(Item.create(ItemType.Apple));
+            eaters.add(eater);
+            pickers.add(place(x, 36, MobileType.Human));
+            level.getChunkOf(x, 36).addItem(x, 36, Item.create(ItemType.Apple));
+            fetchers.add(place(x, 42, MobileType.Human));
+            level.getChunkOf(x, 45).addItem(x, 45, Item.create(ItemType.Meat));
+        }
+        for (final Mobile mobile : eaters) {
+            Assert.assertEquals(Intent.EAT, decision(mobile));
+        }
+        for (final Mobile mobile : pickers) {
+            Assert.assertEquals(Intent.PICKUP, decision(mobile));
+        }
+        for (final Mobile mobile : fetchers) {
+            Assert.assertEquals(Intent.MOVE, decision(mobile));
+        }
+        final List<Mobile> mobiles = new ArrayList<>(eaters);
+        mobiles.addAll(pickers);
+        mobiles.addAll(fetchers);
+        assertNoAllocation("eat and collect", mobiles, false);
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the FlowField distances and steps.
+ *
+ * @author monster
+ */
+public class FlowFieldTest {
+    /** Size of the area, in chunks. */
+    private static final int CHUNKS = 3;
+
+    /** The world. */
+    private World world;
+
+    /** The level of the target. */
+    private Level level;
+
+    /** The target. */
+    private Mobile target;
+
+    /** The field. */
+    private FlowField field;
+
+    /** Creates a few empty chunks, and a target in the last column. */
+    @Before
+    public void setUp() {
+        world = new World();
+        level = new Level(Generators.EMPTY);
+        world.setLevel(0, level);
+        for (int x = 0; x < CHUNKS; x++) {
+            for (int y = 0; y < CHUNKS; y++) {
+                level.getOrCreateChunk(x, y);
+            }
+        }
+        target = Mobile.create(MobileType.Human);
+        level.getChunkOf(40, 20).setMobile(40, 20, target);
+        field = new FlowField();
+        Assert.assertTrue(field.update(target));
+    }
+
+    /** Releases the world. */
+    @After
+    public void tearDown() {
+        world.close();
+    }
+
+    /** Without walls, the distance is the Manhattan distance. */
+    @Test
+    public void testDistances() {
+        for (int x = 10; x < CHUNKS * Chunk.X; x++) {
+            for (int y = 0; y < CHUNKS * Chunk.Y; y++) {
+                Assert.assertEquals(Math.abs(x - 40) + Math.abs(y - 20),
+                        field.distance(x, y));
+            }
+        }
+        // Outside the window.
+        Assert.assertEquals(-1, field.distance(0, 20));
+        // Nothing changed.
+        Assert.assertFalse(field.update(target));
+        Assert.assertEquals(1, field.getComputeCount());
+    }
+
+    /** Checks that the field has the distances of a newly computed one. */
+    private void assertSameAsComputed() {
+        final FlowField computed = new FlowField();
+        Assert.assertTrue(computed.update(target));
+        for (int x = 0; x < CHUNKS * Chunk.X; x++) {
+            for (int y = 0; y < CHUNKS * Chunk.Y; y++) {
+                Assert.assertEquals("(" + x + "," + y + ")",
+                        computed.distance(x, y), field.distance(x, y));
+            }
+        }
+    }
+
+    /** When only blocks change, the field is repaired, not recomputed. */
+    @Test
+    public void testRepair() {
+        final Random random = new Random(7);
+        for (int round = 0; round < 200; round++) {
+            for (int i = random.nextInt(20); i >= 0; i--) {
+                final int x = random.nextInt(CHUNKS * Chunk.X);
+                final int y = random.nextInt(CHUNKS * Chunk.Y);
+                if ((x != 40) || (y != 20)) {
+                    level.getChunkOf(x, y).setBlockType(x, y,
+                            random.nextBoolean() ? BlockType.Stone
+                                    : BlockType.Empty);
+                }
+            }
+            field.update(target);
+            assertSameAsComputed();
+        }
+        level.setChunk(1, 0, null);
+        Assert.assertTrue(field.update(target));
+        assertSameAsComputed();
+        level.getOrCreateChunk(1, 0);
+        Assert.assertTrue(field.update(target));
+        assertSameAsComputed();
+        Assert.assertEquals(1, field.getComputeCount());
+        Assert.assertTrue(field.getRepairCount() > 0);
+    }
+
+    /** Steps into chunks freed since the field was computed are skipped. */
+    @Test
+    public void testFreedChunk() {
+        Assert.assertNotNull(field.nextStep(31, 20));
+        level.setChunk(2, 1, null);
+        Assert.assertNull(field.nextStep(31, 20));
+    }
+}
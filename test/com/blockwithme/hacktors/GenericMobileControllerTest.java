@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that GenericMobileController falls back to the next rule, when
+ * an intent fails to apply, instead of trying it again forever, and that
+ * it finds it's way home.
+ *
+ * @author monster
+ */
+public class GenericMobileControllerTest {
+
+    /** The world. */
+    private World world;
+
+    /** The level of the mobiles. */
+    private Level level;
+
+    /** Creates one empty chunk. */
+    @Before
+    public void setUp() {
+        Util.setSeed(13);
+        world = new World();
+        level = new Level(Generators.EMPTY);
+        world.setLevel(0, level);
+        level.getOrCreateChunk(0, 0);
+    }
+
+    /** Releases the world. */
+    @After
+    public void tearDown() {
+        world.close();
+    }
+
+    /** Places a new mobile. */
+    private Mobile place(final int x, final int y, final MobileType type) {
+        final Mobile result = Mobile.create(type);
+        level.getChunkOf(x, y).setMobile(x, y, result);
+        return result;
+    }
+
+    /** Lets the mobile decide, and tells it whether the intent applied. */
+    private int decide(final Mobile mobile, final boolean success) {
+        final Intent intent = new Intent();
+        final IntentController controller = (IntentController) mobile
+                .getController();
+        controller.decide(intent);
+        world.getPerceptionCache().clear();
+        final int result = intent.getKind();
+        controller.applied(intent, success);
+        return result;
+    }
+
+    /** A failed attack is not tried again, until the facts change. */
+    @Test
+    public void testFailedAttack() {
+        final Mobile human = place(4, 4, MobileType.Human);
+        final Mobile pig = place(5, 4, MobileType.Pig);
+        Assert.assertEquals(Intent.ATTACK, decide(human, true));
+        Assert.assertEquals(Intent.ATTACK, decide(human, false));
+        Assert.assertTrue(Intent.ATTACK != decide(human, true));
+        Assert.assertTrue(Intent.ATTACK != decide(human, true));
+        // Hungry now, so the facts changed.
+        human.setLife(MobileType.Human.getLife() / 2);
+        Assert.assertEquals(Intent.ATTACK, decide(human, true));
+        Assert.assertEquals(pig, level.getChunkOf(5, 4).getMobile(5, 4));
+    }
+
+    /** A failed pickup is not tried again, until the facts change. */
+    @Test
+    public void testFailedPickup() {
+        final Mobile human = place(4, 4, MobileType.Human);
+        while (human.getItems() > 0) {
+            human.removeItem(0);
+        }
+        level.getChunkOf(4, 4).addItem(4, 4, Item.create(ItemType.Apple));
+        Assert.assertEquals(Intent.PICKUP, decide(human, true));
+        Assert.assertEquals(Intent.PICKUP, decide(human, false));
+        Assert.assertTrue(Intent.PICKUP != decide(human, true));
+        // Has food now, so the facts changed.
+        human.addItem(Item.create(ItemType.Apple));
+        Assert.assertEquals(Intent.PICKUP, decide(human, true));
+    }
+
+    /** A mobile far from home goes back, through the gap in a wall. */
+    @Test
+    public void testGoHome() {
+        for (int x = 0; x < 3; x++) {
+            for (int y = 0; y < 3; y++) {
+                level.getOrCreateChunk(x, y);
+            }
+        }
+        for (int y = 0; y < 3 * Chunk.Y; y++) {
+            if (y != 40) {
+                level.getChunkOf(20, y).setBlockType(20, y, BlockType.Stone);
+            }
+        }
+        final Mobile human = place(4, 4, MobileType.Human);
+        while (human.getItems() > 0) {
+            human.removeItem(0);
+        }
+        // Home is where it first decides something.
+        decide(human, false);
+        level.getChunkOf(40, 4).setMobile(40, 4, human);
+        Assert.assertEquals(40, human.getX());
+        final float range = 2 * MobileType.MAX_PERCEPTION;
+        int steps = 0;
+        while ((Position.distance(human.getX(), human.getY(), 4, 4) > range)
+                && (steps++ < 300)) {
+            Assert.assertEquals(Intent.MOVE, decide(human, true));
+            human.getController().act();
+            world.getPerceptionCache().clear();
+        }
+        Assert.assertTrue(human.getX() < 20);
+        Assert.assertTrue(Position.distance(human.getX(), human.getY(), 4,
+                4) <= range);
+    }
+}
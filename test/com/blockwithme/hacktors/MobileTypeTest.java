@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks the relationship bits of the mobile types.
+ *
+ * @author monster
+ */
+public class MobileTypeTest {
+
+    /** Checks the relations of the built-in types. */
+    private static void assertRelations() {
+        Assert.assertTrue(MobileType.Pig.fears(MobileType.Dog));
+        Assert.assertTrue(MobileType.Human.fears(MobileType.Zombie));
+        Assert.assertFalse(MobileType.Dog.fears(MobileType.Pig));
+        Assert.assertTrue(MobileType.Human.hunts(MobileType.Pig));
+        Assert.assertTrue(MobileType.Dog.hunts(MobileType.Zombie));
+        Assert.assertFalse(MobileType.Pig.hunts(MobileType.Dog));
+        Assert.assertTrue(MobileType.Pig.eats(ItemType.Apple));
+        Assert.assertTrue(MobileType.Dog.eats(ItemType.Meat));
+        Assert.assertFalse(MobileType.Dog.eats(ItemType.Apple));
+        // Tool users want everything they do not eat.
+        Assert.assertTrue(MobileType.Human.wants(ItemType.Sword));
+        Assert.assertFalse(MobileType.Human.wants(ItemType.Apple));
+        Assert.assertFalse(MobileType.Pig.wants(ItemType.Sword));
+    }
+
+    /** The relations are built when the types are registered. */
+    @Test
+    public void testRelations() {
+        assertRelations();
+    }
+
+    /** Registering item types again rebuilds the same relations. */
+    @Test
+    public void testRebuild() {
+        MobileType.updateRelations(null, ItemType.ALL_SET);
+        assertRelations();
+        MobileType.updateRelations(MobileType.ALL_SET, null);
+        assertRelations();
+    }
+}
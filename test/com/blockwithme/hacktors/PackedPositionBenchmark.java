@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Compares Position and PackedPosition, for walking and for use as keys.
+ *
+ * Usage: PackedPositionBenchmark [steps [rounds]]
+ *
+ * @author monster
+ */
+public class PackedPositionBenchmark {
+    /** Keeps the results alive, so the JIT cannot drop the work. */
+    private static long sink;
+
+    /** NO creation */
+    private PackedPositionBenchmark() {
+        // NOP
+    }
+
+    /** The directions of a random walk, always the same. */
+    private static Direction[] path(final int steps) {
+        final Random random = new Random(steps);
+        final Direction[] result = new Direction[steps];
+        for (int i = 0; i < steps; i++) {
+            result[i] = Direction.VALUES[random.nextInt(Direction.VALUES.length)];
+        }
+        return result;
+    }
+
+    /** Walks with Positions, keeping the visited ones in a HashSet. */
+    private static long walkPositions(final World world,
+            final Direction[] path) {
+        final Set<Position> visited = new HashSet<>();
+        Position pos = new Position();
+        pos.setX(World.X / 2);
+        pos.setY(World.Y / 2);
+        pos.setWorld(world);
+        for (final Direction direction : path) {
+            // Positions in the set must not change.
+            final Position turned = pos.clone();
+            turned.setDirection(direction);
+            final Position next = turned.next();
+            if (world.isValid(next)) {
+                pos = next;
+                visited.add(next);
+            }
+        }
+        return visited.size();
+    }
+
+    /** Walks with packed positions, keeping the visited ones in a long[]. */
+    private static long walkPacked(final Direction[] path) {
+        final long[] visited = new long[path.length];
+        int count = 0;
+        long pos = PackedPosition.encode(World.X / 2, World.Y / 2, 0);
+        for (final Direction direction : path) {
+            final long next = PackedPosition.step(PackedPosition
+                    .withDirection(pos, direction));
+            if (PackedPosition.isValid(next)) {
+                pos = next;
+                visited[count++] = next;
+            }
+        }
+        Arrays.sort(visited, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if ((i == 0) || (visited[i] != visited[i - 1])) {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    /** Prints the duration of one pass. */
+    private static void report(final String what, final int steps,
+            final long nanos) {
+        System.out.printf("%-8s %10d steps in %7.1f ms: %6.1f ns/step%n",
+                what, steps, nanos / 1e6, (double) nanos / steps);
+    }
+
+    /** Runs the benchmark. */
+    public static void main(final String[] args) {
+        final int steps = (args.length > 0) ? Integer.parseInt(args[0])
+                : 1000000;
+        final int rounds = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        final World world = new World();
+        final Direction[] path = path(steps);
+        for (int round = 0; round < rounds; round++) {
+            long start = System.nanoTime();
+            final long a = walkPositions(world, path);
+            report("Position", steps, System.nanoTime() - start);
+            start = System.nanoTime();
+            final long b = walkPacked(path);
+            report("packed", steps, System.nanoTime() - start);
+            if (a != b) {
+                throw new IllegalStateException("Visited " + a + " != " + b);
+            }
+            sink += a + b;
+        }
+        System.out.println("visited: " + (sink / (2 * rounds)));
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests PackedPosition, against Position.
+ *
+ * @author monster
+ */
+public class PackedPositionTest {
+
+    /** The directions of a random walk, always the same. */
+    private static Direction[] path(final int steps) {
+        final Random random = new Random(steps);
+        final Direction[] result = new Direction[steps];
+        for (int i = 0; i < steps; i++) {
+            result[i] = Direction.VALUES[random.nextInt(Direction.VALUES.length)];
+        }
+        return result;
+    }
+
+    /** Walks with Positions, keeping the visited ones in a HashSet. */
+    private static long walkPositions(final World world,
+            final Direction[] path) {
+        final Set<Position> visited = new HashSet<>();
+        Position pos = new Position();
+        pos.setX(World.X / 2);
+        pos.setY(World.Y / 2);
+        pos.setWorld(world);
+        for (final Direction direction : path) {
+            // Positions in the set must not change.
+            final Position turned = pos.clone();
+            turned.setDirection(direction);
+            final Position next = turned.next();
+            if (world.isValid(next)) {
+                pos = next;
+                visited.add(next);
+            }
+        }
+        return visited.size();
+    }
+
+    /** Walks with packed positions, keeping the visited ones in a long[]. */
+    private static long walkPacked(final Direction[] path) {
+        final long[] visited = new long[path.length];
+        int count = 0;
+        long pos = PackedPosition.encode(World.X / 2, World.Y / 2, 0);
+        for (final Direction direction : path) {
+            final long next = PackedPosition.step(PackedPosition
+                    .withDirection(pos, direction));
+            if (PackedPosition.isValid(next)) {
+                pos = next;
+                visited[count++] = next;
+            }
+        }
+        Arrays.sort(visited, 0, count);
+        int distinct = 0;
+        for (int i = 0; i < count; i++) {
+            if ((i == 0) || (visited[i] != visited[i - 1])) {
+                distinct++;
+            }
+        }
+        return distinct;
+    }
+
+    /** Encoding and decoding gives back the same values. */
+    @Test
+    public void testEncodeDecode() {
+        for (final Direction direction : Direction.VALUES) {
+            final long packed = PackedPosition.encode(World.X - 1, 7,
+                    World.Z - 1, direction);
+            Assert.assertEquals(World.X - 1, PackedPosition.x(packed));
+            Assert.assertEquals(7, PackedPosition.y(packed));
+            Assert.assertEquals(World.Z - 1, PackedPosition.z(packed));
+            Assert.assertSame(direction, PackedPosition.direction(packed));
+            Assert.assertNull(PackedPosition.direction(PackedPosition
+                    .withoutDirection(packed)));
+        }
+    }
+
+    /** Stepping without a direction does not move. */
+    @Test
+    public void testStepWithoutDirection() {
+        final long packed = PackedPosition.encode(3, 4, 5);
+        Assert.assertEquals(packed, PackedPosition.step(packed));
+        final Direction direction = Direction.VALUES[0];
+        final long moved = PackedPosition.step(PackedPosition.withDirection(
+                packed, direction));
+        Assert.assertEquals(3 + direction.getDX(), PackedPosition.x(moved));
+        Assert.assertEquals(4 + direction.getDY(), PackedPosition.y(moved));
+    }
+
+    /** A random walk visits the same cells, with both kinds of positions. */
+    @Test
+    public void testSameWalk() {
+        final World world = new World();
+        final Direction[] path = path(100000);
+        Assert.assertEquals(walkPositions(world, path), walkPacked(path));
+        world.close();
+    }
+}
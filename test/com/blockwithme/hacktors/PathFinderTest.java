@@ -0,0 +1,190 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks PathFinder against a breadth-first search over the whole area.
+ *
+ * @author monster
+ */
+public class PathFinderTest {
+    /** Size of the area, in chunks. */
+    private static final int CHUNKS = 5;
+
+    /** Size of the area, in cells. */
+    private static final int SIZE = CHUNKS * Chunk.X;
+
+    /** Number of searches per level. */
+    private static final int PAIRS = 300;
+
+    /** Number of threads searching at once. */
+    private static final int THREADS = 4;
+
+    /** The world. */
+    private World world;
+
+    /** The level. */
+    private Level level;
+
+    /** Creates a world. */
+    @Before
+    public void setUp() {
+        world = new World();
+    }
+
+    /** Releases the world. */
+    @After
+    public void tearDown() {
+        world.close();
+    }
+
+    /** Generates the area, on a new level. */
+    private void generate(final int seed) {
+        Util.setSeed(seed);
+        level = new Level(Generators.RANDOM);
+        world.setLevel(0, level);
+        for (int x = 0; x < CHUNKS; x++) {
+            for (int y = 0; y < CHUNKS; y++) {
+                level.getOrCreateChunk(x, y);
+            }
+        }
+    }
+
+    /** Returns true, if the cell can be walked on. */
+    private boolean walkable(final int x, final int y) {
+        if ((x < 0) || (x >= SIZE) || (y < 0) || (y >= SIZE)) {
+            return false;
+        }
+        return !level.getChunkOf(x, y).solid(x, y);
+    }
+
+    /** Returns a random cell that can be walked on, as x + SIZE * y. */
+    private int randomCell(final Random random) {
+        while (true) {
+            final int x = random.nextInt(SIZE);
+            final int y = random.nextInt(SIZE);
+            if (walkable(x, y)) {
+                return x + SIZE * y;
+            }
+        }
+    }
+
+    /** Returns the distance of every cell to the goal; -1 if unreachable. */
+    private int[] bfs(final int goal) {
+        final int[] result = new int[SIZE * SIZE];
+        Arrays.fill(result, -1);
+        final int[] queue = new int[SIZE * SIZE];
+        int head = 0;
+        int tail = 0;
+        result[goal] = 0;
+        queue[tail++] = goal;
+        while (head < tail) {
+            final int cell = queue[head++];
+            for (final Direction dir : Direction.VALUES) {
+                final int x = cell % SIZE + dir.getDX();
+                final int y = cell / SIZE + dir.getDY();
+                if (walkable(x, y) && (result[x + SIZE * y] < 0)) {
+                    result[x + SIZE * y] = result[cell] + 1;
+                    queue[tail++] = x + SIZE * y;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Following the steps reaches the goal exactly when a breadth-first
+     * search does, only through open cells, and without going in circles.
+     */
+    @Test
+    public void testSameReachabilityAsBfs() {
+        final PathFinder finder = world.getPathFinder();
+        for (int seed = 1; seed <= 4; seed++) {
+            generate(seed);
+            final Random random = new Random(seed);
+            for (int i = 0; i < PAIRS; i++) {
+                final int start = randomCell(random);
+                final int goal = randomCell(random);
+                final int gx = goal % SIZE;
+                final int gy = goal / SIZE;
+                final int distance = bfs(goal)[start];
+                int x = start % SIZE;
+                int y = start / SIZE;
+                int steps = 0;
+                Direction step = finder.nextStep(0, x, y, gx, gy);
+                while ((step != null) && (steps < SIZE * SIZE)) {
+                    x += step.getDX();
+                    y += step.getDY();
+                    steps++;
+                    Assert.assertTrue(walkable(x, y));
+                    step = finder.nextStep(0, x, y, gx, gy);
+                }
+                final String what = "seed " + seed + ", pair " + i;
+                Assert.assertEquals(what, distance >= 0, (x == gx)
+                        && (y == gy));
+                Assert.assertTrue(what, steps >= Math.max(distance, 0));
+            }
+        }
+    }
+
+    /** Threads searching at once find the same steps as one alone. */
+    @Test
+    public void testThreads() throws InterruptedException {
+        generate(1);
+        final Random random = new Random(1);
+        final int[] starts = new int[PAIRS];
+        final int[] goals = new int[PAIRS];
+        final Direction[] expected = new Direction[PAIRS];
+        for (int i = 0; i < PAIRS; i++) {
+            starts[i] = randomCell(random);
+            goals[i] = randomCell(random);
+            expected[i] = world.getPathFinder().nextStep(0, starts[i] % SIZE,
+                    starts[i] / SIZE, goals[i] % SIZE, goals[i] / SIZE);
+        }
+        // A new finder, so that the graphs are built by the threads.
+        final PathFinder finder = new PathFinder(world);
+        final Direction[][] found = new Direction[THREADS][PAIRS];
+        final Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final Direction[] mine = found[t];
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < PAIRS; i++) {
+                        mine[i] = finder.nextStep(0, starts[i] % SIZE,
+                                starts[i] / SIZE, goals[i] % SIZE, goals[i]
+                                        / SIZE);
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        for (int t = 0; t < THREADS; t++) {
+            Assert.assertArrayEquals(expected, found[t]);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Measures the chunk store and load throughput of RegionFileStore.
+ *
+ * Usage: RegionFileBenchmark [directory [levels [rounds]]]
+ *
+ * The region files are created in the given directory, or in a temporary
+ * one, and deleted at the end.
+ *
+ * @author monster
+ */
+public class RegionFileBenchmark {
+    /** NO creation */
+    private RegionFileBenchmark() {
+        // NOP
+    }
+
+    /** Generates all the chunks of the levels. */
+    private static Chunk[] generate(final int levels) {
+        final Chunk[] result = new Chunk[levels * Level.SIZE];
+        for (int i = 0; i < result.length; i++) {
+            final Chunk chunk = new Chunk();
+            final Position pos = chunk.getPosition();
+            final int index = i % Level.SIZE;
+            pos.setX((index % Level.X) * Chunk.X);
+            pos.setY((index / Level.X) * Chunk.Y);
+            pos.setZ(i / Level.SIZE);
+            Generators.RANDOM.fill(chunk);
+            result[i] = chunk;
+        }
+        return result;
+    }
+
+    /** Returns the total size of the region files. */
+    private static long size(final File directory) {
+        long result = 0;
+        for (final File file : directory.listFiles()) {
+            result += file.length();
+        }
+        return result;
+    }
+
+    /** Prints the throughput of one pass. */
+    private static void report(final String what, final int chunks,
+            final long bytes, final long nanos) {
+        final double seconds = nanos / 1e9;
+        System.out.printf("%-6s %8d chunks in %7.1f ms: %10.0f chunks/s"
+                + " %8.1f MB/s%n", what, chunks, nanos / 1e6, chunks
+                / seconds, bytes / seconds / (1024 * 1024));
+    }
+
+    /** Runs the benchmark. */
+    public static void main(final String[] args) throws IOException {
+        final File directory;
+        if (args.length > 0) {
+            directory = new File(args[0]);
+        } else {
+            directory = File.createTempFile("regions", "");
+            directory.delete();
+        }
+        final int levels = (args.length > 1) ? Integer.parseInt(args[1]) : 16;
+        final int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 5;
+        final Chunk[] chunks = generate(levels);
+        int mobiles = 0;
+        for (final Chunk chunk : chunks) {
+            mobiles += chunk.getMobileCount();
+        }
+        try {
+            for (int round = 0; round < rounds; round++) {
+                RegionFileStore store = new RegionFileStore(directory);
+                long start = System.nanoTime();
+                for (final Chunk chunk : chunks) {
+                    store.store(chunk);
+                }
+                store.close();
+                report("store", chunks.length, size(directory),
+                        System.nanoTime() - start);
+
+                store = new RegionFileStore(directory);
+                int loaded = 0;
+                start = System.nanoTime();
+                for (int z = 0; z < levels; z++) {
+                    for (int x = 0; x < Level.X; x++) {
+                        for (int y = 0; y < Level.Y; y++) {
+                            loaded += store.load(z, x, y).getMobileCount();
+                        }
+                    }
+                }
+                report("load", chunks.length, size(directory),
+                        System.nanoTime() - start);
+                store.close();
+                if (loaded != mobiles) {
+                    throw new IllegalStateException("Expected " + mobiles
+                            + " mobiles, but loaded " + loaded);
+                }
+            }
+        } finally {
+            for (final File file : directory.listFiles()) {
+                file.delete();
+            }
+            if (args.length == 0) {
+                directory.delete();
+            }
+        }
+    }
+}
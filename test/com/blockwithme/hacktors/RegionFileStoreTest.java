@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the RegionFileStore.
+ *
+ * @author monster
+ */
+public class RegionFileStoreTest {
+    /** The directory of the region files. */
+    private File directory;
+
+    /** Creates an empty directory. */
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("regions", "");
+        Assert.assertTrue(directory.delete());
+    }
+
+    /** Deletes the directory. */
+    @After
+    public void tearDown() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    /** Generates the chunks of a level. */
+    private static Chunk[] generate(final int z) {
+        Util.setSeed(z);
+        final Chunk[] result = new Chunk[Level.SIZE];
+        for (int i = 0; i < result.length; i++) {
+            final Chunk chunk = new Chunk();
+            final Position pos = chunk.getPosition();
+            pos.setX((i % Level.X) * Chunk.X);
+            pos.setY((i / Level.X) * Chunk.Y);
+            pos.setZ(z);
+            Generators.ARENA.fill(chunk);
+            result[i] = chunk;
+        }
+        return result;
+    }
+
+    /** Returns what write() writes for the mobile, controller included. */
+    private static byte[] bytes(final Mobile mobile) {
+        final ByteBuffer buffer = ByteBuffer.allocate(4096);
+        mobile.write(buffer);
+        return Arrays.copyOf(buffer.array(), buffer.position());
+    }
+
+    /** Checks that both chunks have the same content. */
+    private static void assertSameContent(final Chunk expected,
+            final Chunk actual) {
+        Assert.assertEquals(expected.getMobileCount(), actual.getMobileCount());
+        Assert.assertEquals(expected.getItemCellCount(),
+                actual.getItemCellCount());
+        for (int x = 0; x < Chunk.X; x++) {
+            for (int y = 0; y < Chunk.Y; y++) {
+                Assert.assertEquals(expected.getBlockTypeLocal(x, y),
+                        actual.getBlockTypeLocal(x, y));
+                Assert.assertEquals(expected.getItemCountLocal(x, y),
+                        actual.getItemCountLocal(x, y));
+                final Mobile mobile = expected.getMobileLocal(x, y);
+                if (mobile == null) {
+                    Assert.assertNull(actual.getMobileLocal(x, y));
+                } else {
+                    Assert.assertTrue(Arrays.equals(bytes(mobile),
+                            bytes(actual.getMobileLocal(x, y))));
+                }
+            }
+        }
+    }
+
+    /** Chunks stored in two levels are loaded back the same, after a reopen. */
+    @Test
+    public void testRoundTrip() throws IOException {
+        final Chunk[][] levels = { generate(0), generate(3) };
+        RegionFileStore store = new RegionFileStore(directory);
+        for (final Chunk[] chunks : levels) {
+            for (final Chunk chunk : chunks) {
+                store.store(chunk);
+            }
+        }
+        store.close();
+        store = new RegionFileStore(directory);
+        try {
+            for (final Chunk[] chunks : levels) {
+                for (final Chunk chunk : chunks) {
+                    final Position pos = chunk.getPosition();
+                    final int x = pos.getX() / Chunk.X;
+                    final int y = pos.getY() / Chunk.Y;
+                    Assert.assertTrue(store.contains(pos.getZ(), x, y));
+                    assertSameContent(chunk, store.load(pos.getZ(), x, y));
+                }
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    /** A loaded chunk stays in the file, until it is stored again. */
+    @Test
+    public void testLoadKeeps() throws IOException {
+        final Chunk chunk = generate(1)[17];
+        final Position pos = chunk.getPosition();
+        final int x = pos.getX() / Chunk.X;
+        final int y = pos.getY() / Chunk.Y;
+        RegionFileStore store = new RegionFileStore(directory);
+        store.store(chunk);
+        final Chunk loaded = store.load(1, x, y);
+        assertSameContent(chunk, loaded);
+        Assert.assertTrue(store.contains(1, x, y));
+        store.close();
+        store = new RegionFileStore(directory);
+        try {
+            assertSameContent(chunk, store.load(1, x, y));
+            loaded.setBlockType(pos.getX(), pos.getY(), BlockType.Stone);
+            store.store(loaded);
+            Assert.assertEquals(BlockType.Stone, store.load(1, x, y)
+                    .getBlockType(pos.getX(), pos.getY()));
+        } finally {
+            store.close();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2013 Sebastien Diot.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.blockwithme.hacktors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Checks that deciding in parallel gives the same world as deciding in a
+ * single thread. The split is made tiny, so that the decide phase really
+ * forks, even with the few mobiles that stay awake. Also checks that the
+ * slots caught up in one tick do not share what they saw.
+ *
+ * @author monster
+ */
+public class SchedulerTest {
+
+    /** Number of cycles to run. */
+    private static final int CYCLES = 300;
+
+    /** Fewest mobiles deciding in the same thread. */
+    private static final int SPLIT = 2;
+
+    /** Sums up the state of the mobiles of the world. */
+    private static final class Checksum implements MobileVisitor {
+        /** The sum so far. */
+        long sum = 17;
+
+        @Override
+        public void visit(final Mobile mobile) {
+            sum = 31 * sum + mobile.getType().ordinal();
+            sum = 31 * sum + mobile.getX();
+            sum = 31 * sum + mobile.getY();
+            sum = 31 * sum + mobile.getZ();
+            sum = 31 * sum + mobile.getLife();
+            sum = 31 * sum + mobile.getItems();
+        }
+    }
+
+    /**
+     * Runs a new world with that parallelism, and returns the checksum of
+     * it's mobiles, after the number of actions.
+     */
+    private static long run(final int parallelism) {
+        Util.setSeed(7);
+        final World world = new World();
+        try {
+            final Scheduler scheduler = world.getScheduler();
+            scheduler.setParallelism(parallelism);
+            scheduler.setSplit(SPLIT);
+            final ChunkCache cache = world.getChunkCache();
+            cache.setMaxChunks(Math.max(cache.getMaxChunks(), Level.SIZE));
+            final Level level = world.getOrCreateLevel(0);
+            for (int x = 0; x < Level.X; x++) {
+                for (int y = 0; y < Level.Y; y++) {
+                    level.getOrCreateChunk(x, y);
+                }
+            }
+            int forked = 0;
+            for (int i = 0; i < CYCLES; i++) {
+                if (scheduler.getCount() > SPLIT) {
+                    forked++;
+                }
+                world.getClock().step();
+            }
+            Assert.assertTrue("forked " + forked, forked > CYCLES / 2);
+            final Checksum checksum = new Checksum();
+            world.visitMobiles(checksum);
+            return 31 * checksum.sum + scheduler.getActions();
+        } finally {
+            world.close();
+        }
+    }
+
+    /** A caught up slot does not reuse what an earlier slot saw. */
+    @Test
+    public void testCatchUpLooksAgain() {
+        final World world = new World();
+        try {
+            final Scheduler scheduler = world.getScheduler();
+            scheduler.setParallelism(1);
+            final Level level = new Level(Generators.EMPTY);
+            world.setLevel(0, level);
+            final Chunk chunk = level.getOrCreateChunk(0, 0);
+            scheduler.tick(0);
+            // Due on cycles 8 and 10.
+            chunk.setMobile(4, 4, Mobile.create(MobileType.Human));
+            chunk.setMobile(10, 10, Mobile.create(MobileType.Pig));
+            final PerceptionCache perceived = world.getPerceptionCache();
+            final int before = perceived.getSnapshotCount();
+            scheduler.tick(10);
+            Assert.assertEquals(2, scheduler.getActions());
+            Assert.assertEquals(before + 2, perceived.getSnapshotCount());
+        } finally {
+            world.close();
+        }
+    }
+
+    /** Any number of threads gives the same result as one. */
+    @Test
+    public void testParallelDeterminism() {
+        final long expected = run(1);
+        Assert.assertEquals(expected, run(4));
+        Assert.assertEquals(expected, run(8));
+    }
+}